@@ -11,9 +11,14 @@ import dagger.hilt.android.testing.HiltAndroidTest
 import dagger.hilt.android.testing.UninstallModules
 import kotlinx.coroutines.runBlocking
 import org.junit.Assert.*
+import org.junit.Before
 import org.junit.Test
+import org.tasks.R
+import org.tasks.data.TaskListQuery
+import org.tasks.filters.MyTasksFilter
 import org.tasks.injection.InjectingTestCase
 import org.tasks.injection.ProductionModule
+import org.tasks.preferences.Preferences
 import org.tasks.time.DateTimeUtils2.currentTimeMillis
 import javax.inject.Inject
 
@@ -23,6 +28,13 @@ class TaskDaoTests : InjectingTestCase() {
 
     @Inject lateinit var taskDao: TaskDao
     @Inject lateinit var taskDeleter: TaskDeleter
+    @Inject lateinit var preferences: Preferences
+
+    @Before
+    override fun setUp() {
+        super.setUp()
+        preferences.clear()
+    }
 
     /** Test basic task creation, fetch, and save  */
     @Test
@@ -128,6 +140,58 @@ class TaskDaoTests : InjectingTestCase() {
         assertEquals(0, taskDao.getAll().size)
     }
 
+    @Test
+    fun listLoadsNotesPreview() = runBlocking {
+        taskDao.createNew(Task(title = "long", notes = "a".repeat(TaskListQuery.NOTES_PREVIEW + 1)))
+
+        val task = taskDao.fetchTasks(preferences, MyTasksFilter.create()).single().task
+
+        assertEquals(TaskListQuery.NOTES_PREVIEW, task.notes!!.length)
+        assertTrue(task.isNotesPreview)
+    }
+
+    @Test
+    fun listLoadsFullNotesWhenShown() = runBlocking {
+        preferences.setBoolean(R.string.p_show_full_description, true)
+        val notes = "a".repeat(TaskListQuery.NOTES_PREVIEW + 1)
+        taskDao.createNew(Task(title = "long", notes = notes))
+
+        val task = taskDao.fetchTasks(preferences, MyTasksFilter.create()).single().task
+
+        assertEquals(notes, task.notes)
+        assertFalse(task.isNotesPreview)
+    }
+
+    @Test
+    fun saveListTaskKeepsNotes() = runBlocking {
+        val notes = "a".repeat(TaskListQuery.NOTES_PREVIEW + 1)
+        taskDao.createNew(Task(title = "long", notes = notes))
+        val task = taskDao.fetchTasks(preferences, MyTasksFilter.create()).single().task
+
+        taskDao.save(task.copy(title = "renamed"))
+
+        assertEquals(notes, taskDao.fetch(task.id)!!.notes)
+    }
+
+    @Test
+    fun sortTitleFollowsTitle() = runBlocking {
+        val task = Task(title = "happy")
+        taskDao.createNew(task)
+        assertEquals("HAPPY", taskDao.fetch(task.id)!!.sortTitle)
+
+        taskDao.save(task.copy(title = "Melancholy"))
+
+        assertEquals("MELANCHOLY", taskDao.fetch(task.id)!!.sortTitle)
+    }
+
+    @Test
+    fun copyKeepsSortTitle() = runBlocking {
+        val task = Task(title = "happy")
+        taskDao.createNew(task)
+
+        assertEquals("HAPPY", taskDao.fetch(task.id)!!.copy().sortTitle)
+    }
+
     /** Test passing invalid task indices to various things  */
     @Test
     fun testInvalidIndex() = runBlocking {
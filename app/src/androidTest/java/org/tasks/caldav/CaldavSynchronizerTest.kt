@@ -5,18 +5,26 @@ import org.tasks.data.UUIDHelper
 import dagger.hilt.android.testing.HiltAndroidTest
 import dagger.hilt.android.testing.UninstallModules
 import kotlinx.coroutines.runBlocking
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.RecordedRequest
 import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
 import org.junit.Before
 import org.junit.Test
+import org.tasks.R
 import org.tasks.data.entity.CaldavAccount
 import org.tasks.data.entity.CaldavCalendar
 import org.tasks.injection.ProductionModule
 import org.tasks.makers.CaldavTaskMaker.CALENDAR
 import org.tasks.makers.CaldavTaskMaker.ETAG
 import org.tasks.makers.CaldavTaskMaker.OBJECT
+import org.tasks.makers.CaldavTaskMaker.REMOTE_ID
 import org.tasks.makers.CaldavTaskMaker.TASK
 import org.tasks.makers.CaldavTaskMaker.newCaldavTask
+import org.tasks.makers.TaskMaker.TITLE
 import org.tasks.makers.TaskMaker.newTask
+import java.util.concurrent.atomic.AtomicInteger
 
 @UninstallModules(ProductionModule::class)
 @HiltAndroidTest
@@ -88,7 +96,158 @@ class CaldavSynchronizerTest : CaldavTest() {
         assertEquals("Test task", taskDao.fetch(caldavTask.task)!!.title)
     }
 
+    @Test
+    fun limitRequestsAcrossCalendars() = runBlocking {
+        preferences.setInt(R.string.p_sync_concurrency, 2)
+        val inFlight = AtomicInteger()
+        val maxInFlight = AtomicInteger()
+        server.dispatcher = object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest): MockResponse {
+                if (request.method == "PROPFIND") {
+                    return multistatus(CALENDARS)
+                }
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet()) { a, b -> maxOf(a, b) }
+                try {
+                    Thread.sleep(100)
+                    val name = request.path!!.split("/").first { it.startsWith("list") }
+                    return if (request.body.readUtf8().contains("calendar-multiget")) {
+                        multistatus(task(name))
+                    } else {
+                        multistatus(member(name))
+                    }
+                } finally {
+                    inFlight.decrementAndGet()
+                }
+            }
+        }
+
+        sync()
+
+        assertTrue(maxInFlight.get() <= 2)
+        caldavDao.getCalendars().let { calendars ->
+            assertEquals(3, calendars.size)
+            calendars.forEach { calendar ->
+                val name = calendar.name!!
+                val caldavTask = caldavDao.getTaskByRemoteId(calendar.uuid!!, name)!!
+                assertEquals(name, taskDao.fetch(caldavTask.task)!!.title)
+            }
+        }
+    }
+
+    @Test
+    fun refetchOnPreconditionFailed() = runBlocking {
+        val calendar = CaldavCalendar(
+            account = this@CaldavSynchronizerTest.account.uuid,
+            uuid = UUIDHelper.newUUID(),
+            ctag = "http://sabre.io/ns/sync/1",
+            url = "${this@CaldavSynchronizerTest.account.url}test-shared/",
+        )
+        caldavDao.insert(calendar)
+        caldavDao.insert(newCaldavTask(
+            with(TASK, taskDao.insert(newTask(with(TITLE, "Local")))),
+            with(OBJECT, "3164728546640386952.ics"),
+            with(REMOTE_ID, "3164728546640386952"),
+            with(ETAG, "stale"),
+            with(CALENDAR, calendar.uuid)
+        ))
+        val requests = ArrayList<RecordedRequest>()
+        server.dispatcher = object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest): MockResponse {
+                requests.add(request)
+                return when (request.method) {
+                    "PROPFIND" -> multistatus(OC_SHARE_PROPFIND)
+                    "PUT" -> MockResponse().setResponseCode(412)
+                    else -> multistatus(OC_SHARE_TASK)
+                }
+            }
+        }
+
+        sync()
+
+        assertEquals(listOf("PROPFIND", "PUT", "REPORT"), requests.map { it.method })
+        assertEquals("\"stale\"", requests[1].getHeader("If-Match"))
+        assertEquals(
+            "43b3ffaac5131880e4dd07a79adba82a",
+            caldavDao.getTaskByRemoteId(calendar.uuid!!, "3164728546640386952")!!.etag
+        )
+    }
+
     companion object {
+        private fun multistatus(body: String) =
+            MockResponse()
+                .setResponseCode(207)
+                .setHeader("Content-Type", "text/xml; charset=\"utf-8\"")
+                .setBody(body)
+
+        private val CALENDARS = """
+            <?xml version="1.0"?>
+            <d:multistatus xmlns:d="DAV:" xmlns:cal="urn:ietf:params:xml:ns:caldav"
+              xmlns:cs="http://calendarserver.org/ns/">
+            ${listOf("list1", "list2", "list3").joinToString("\n") { calendar(it) }}
+            </d:multistatus>
+        """.trimIndent()
+
+        private fun calendar(name: String) = """
+            <d:response>
+                <d:href>/remote.php/dav/calendars/user1/$name/</d:href>
+                <d:propstat>
+                    <d:prop>
+                        <d:resourcetype>
+                            <d:collection />
+                            <cal:calendar />
+                        </d:resourcetype>
+                        <d:displayname>$name</d:displayname>
+                        <cal:supported-calendar-component-set>
+                            <cal:comp name="VTODO" />
+                        </cal:supported-calendar-component-set>
+                        <cs:getctag>$name</cs:getctag>
+                    </d:prop>
+                    <d:status>HTTP/1.1 200 OK</d:status>
+                </d:propstat>
+            </d:response>
+        """.trimIndent()
+
+        private fun member(name: String) = """
+            <?xml version="1.0"?>
+            <d:multistatus xmlns:d="DAV:">
+                <d:response>
+                    <d:href>/remote.php/dav/calendars/user1/$name/$name.ics</d:href>
+                    <d:propstat>
+                        <d:prop>
+                            <d:getetag>&quot;$name&quot;</d:getetag>
+                        </d:prop>
+                        <d:status>HTTP/1.1 200 OK</d:status>
+                    </d:propstat>
+                </d:response>
+            </d:multistatus>
+        """.trimIndent()
+
+        private fun task(name: String) = """
+            <?xml version="1.0"?>
+            <d:multistatus xmlns:d="DAV:" xmlns:cal="urn:ietf:params:xml:ns:caldav">
+                <d:response>
+                    <d:href>/remote.php/dav/calendars/user1/$name/$name.ics</d:href>
+                    <d:propstat>
+                        <d:prop>
+                            <d:getetag>&quot;$name&quot;</d:getetag>
+                            <cal:calendar-data>BEGIN:VCALENDAR
+            VERSION:2.0
+            PRODID:+//IDN tasks.org//android-110500//EN
+            BEGIN:VTODO
+            DTSTAMP:20210223T154147Z
+            UID:$name
+            CREATED:20210223T154134Z
+            LAST-MODIFIED:20210223T154140Z
+            SUMMARY:$name
+            END:VTODO
+            END:VCALENDAR</cal:calendar-data>
+                        </d:prop>
+                        <d:status>HTTP/1.1 200 OK</d:status>
+                    </d:propstat>
+                </d:response>
+            </d:multistatus>
+        """.trimIndent()
+
         private val OC_SHARE_PROPFIND = """
             <?xml version="1.0"?>
             <d:multistatus xmlns:d="DAV:" xmlns:cal="urn:ietf:params:xml:ns:caldav"
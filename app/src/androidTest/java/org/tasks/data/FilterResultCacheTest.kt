@@ -0,0 +1,88 @@
+package org.tasks.data
+
+import com.natpryce.makeiteasy.MakeItEasy.with
+import com.todoroo.astrid.dao.TaskDao
+import dagger.hilt.android.testing.HiltAndroidTest
+import dagger.hilt.android.testing.UninstallModules
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Before
+import org.junit.Test
+import org.tasks.data.dao.TaskDao.TaskCriteria.activeAndVisible
+import org.tasks.data.sql.QueryTemplate
+import org.tasks.filters.FilterImpl
+import org.tasks.injection.InjectingTestCase
+import org.tasks.injection.ProductionModule
+import org.tasks.makers.TaskMaker.TITLE
+import org.tasks.makers.TaskMaker.newTask
+import org.tasks.preferences.Preferences
+import org.tasks.time.DateTimeUtils2.currentTimeMillis
+import javax.inject.Inject
+
+@UninstallModules(ProductionModule::class)
+@HiltAndroidTest
+class FilterResultCacheTest : InjectingTestCase() {
+    @Inject lateinit var taskDao: TaskDao
+    @Inject lateinit var invalidationBus: InvalidationBus
+    @Inject lateinit var filterResultCache: FilterResultCache
+    @Inject lateinit var preferences: Preferences
+
+    @Before
+    override fun setUp() {
+        super.setUp()
+        preferences.clear()
+    }
+
+    @Test
+    fun callersGetTheirOwnRows() = runBlocking {
+        taskDao.createNew(newTask(with(TITLE, "task")))
+
+        val first = filterResultCache.fetchTasks(preferences, FILTER).single()
+        first.task.title = "modified"
+        first.indent = 1
+        val second = filterResultCache.fetchTasks(preferences, FILTER).single()
+
+        assertNotSame(first.task, second.task)
+        assertEquals("task", second.title)
+        assertEquals(0, second.indent)
+    }
+
+    @Test
+    fun reloadAfterGenerationChanges() = runBlocking {
+        taskDao.createNew(newTask())
+        assertEquals(1, filterResultCache.count(FILTER))
+
+        val generation = invalidationBus.generation
+        val task = newTask()
+        taskDao.createNew(task)
+        invalidationBus.invalidate(listOf(task.id))
+        withTimeout(1000) {
+            while (invalidationBus.generation == generation) {
+                delay(10)
+            }
+        }
+
+        assertEquals(2, filterResultCache.count(FILTER))
+    }
+
+    @Test
+    fun reloadAfterNextRefresh() = runBlocking {
+        val task = newTask()
+        task.hideUntil = (currentTimeMillis() / 1000 + 2) * 1000
+        taskDao.createNew(task)
+        assertEquals(0, filterResultCache.count(FILTER))
+
+        delay(task.hideUntil - currentTimeMillis() + 10)
+
+        assertEquals(1, filterResultCache.count(FILTER))
+    }
+
+    companion object {
+        private val FILTER = FilterImpl(
+            sql = QueryTemplate().where(activeAndVisible()).toString()
+        )
+    }
+}
@@ -243,6 +243,37 @@ class GoogleTaskDaoTests : InjectingTestCase() {
         assertEquals(0, taskDao.fetch(2)!!.parent)
     }
 
+    @Test
+    fun updateParentsSkipsUnchangedTasks() = runBlocking {
+        insert(newCaldavTask(with(TASK, 1), with(REMOTE_ID, "123")))
+        insert(newCaldavTask(with(TASK, 2), with(REMOTE_PARENT, "123")))
+
+        assertEquals(1, caldavDao.updateParents("calendar"))
+        assertEquals(0, caldavDao.updateParents("calendar"))
+    }
+
+    @Test
+    fun repositionChangedParents() = runBlocking {
+        insertBottom(newCaldavTask(with(REMOTE_ID, "1")).copy(remoteOrder = 2))
+        insertBottom(newCaldavTask(with(REMOTE_ID, "2")).copy(remoteOrder = 1))
+
+        googleTaskDao.reposition(caldavDao, "calendar", setOf(0L))
+
+        assertEquals(1L, getOrder("1"))
+        assertEquals(0L, getOrder("2"))
+    }
+
+    @Test
+    fun repositionSkipsUnchangedParents() = runBlocking {
+        insertBottom(newCaldavTask(with(REMOTE_ID, "1")).copy(remoteOrder = 2))
+        insertBottom(newCaldavTask(with(REMOTE_ID, "2")).copy(remoteOrder = 1))
+
+        googleTaskDao.reposition(caldavDao, "calendar", emptySet())
+
+        assertEquals(0L, getOrder("1"))
+        assertEquals(1L, getOrder("2"))
+    }
+
     private suspend fun getOrder(remoteId: String): Long? {
         return taskDao.fetch(googleTaskDao.getByRemoteId(remoteId)!!.task)?.order
     }
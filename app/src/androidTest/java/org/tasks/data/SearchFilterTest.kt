@@ -0,0 +1,109 @@
+package org.tasks.data
+
+import com.natpryce.makeiteasy.MakeItEasy.with
+import com.todoroo.astrid.dao.TaskDao
+import dagger.hilt.android.testing.HiltAndroidTest
+import dagger.hilt.android.testing.UninstallModules
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.tasks.data.dao.TagDao
+import org.tasks.data.entity.Tag
+import org.tasks.filters.SearchFilter
+import org.tasks.injection.InjectingTestCase
+import org.tasks.injection.ProductionModule
+import org.tasks.makers.TaskMaker.DESCRIPTION
+import org.tasks.makers.TaskMaker.TITLE
+import org.tasks.makers.TaskMaker.newTask
+import org.tasks.preferences.Preferences
+import javax.inject.Inject
+
+@UninstallModules(ProductionModule::class)
+@HiltAndroidTest
+class SearchFilterTest : InjectingTestCase() {
+    @Inject lateinit var taskDao: TaskDao
+    @Inject lateinit var tagDao: TagDao
+    @Inject lateinit var preferences: Preferences
+
+    @Test
+    fun matchPrefix() = runBlocking {
+        val task = addTask("Groceries")
+        addTask("Laundry")
+
+        assertEquals(listOf(task), search("groc"))
+    }
+
+    @Test
+    fun matchAllWords() = runBlocking {
+        val task = addTask("Buy milk")
+        addTask("Buy eggs")
+
+        assertEquals(listOf(task), search("milk buy"))
+    }
+
+    @Test
+    fun matchNotes() = runBlocking {
+        val task = addTask("Errands", "pick up milk")
+        addTask("Laundry")
+
+        assertEquals(listOf(task), search("milk"))
+    }
+
+    @Test
+    fun updateTitle() = runBlocking {
+        val task = newTask(with(TITLE, "Old"))
+        taskDao.createNew(task)
+        taskDao.save(task.copy(title = "New"))
+
+        assertTrue(search("old").isEmpty())
+        assertEquals(listOf(task.id), search("new"))
+    }
+
+    @Test
+    fun matchTag() = runBlocking {
+        val task = newTask(with(TITLE, "Errands"))
+        taskDao.createNew(task)
+        tagDao.insert(Tag(task = task.id, taskUid = task.uuid, name = "Weekend"))
+
+        assertEquals(listOf(task.id), search("week"))
+    }
+
+    @Test
+    fun removeDeletedTag() = runBlocking {
+        val task = newTask(with(TITLE, "Errands"))
+        taskDao.createNew(task)
+        tagDao.insert(Tag(task = task.id, taskUid = task.uuid, name = "Weekend"))
+        tagDao.delete(tagDao.getTagsForTask(task.id))
+
+        assertTrue(search("week").isEmpty())
+    }
+
+    @Test
+    fun renameTag() = runBlocking {
+        val task = newTask(with(TITLE, "Errands"))
+        taskDao.createNew(task)
+        tagDao.insert(Tag(task = task.id, taskUid = task.uuid, name = "Weekend", tagUid = "tag"))
+        tagDao.rename("tag", "Saturday")
+
+        assertTrue(search("week").isEmpty())
+        assertEquals(listOf(task.id), search("sat"))
+    }
+
+    @Test
+    fun punctuationFallsBackToLike() = runBlocking {
+        val task = addTask("#1")
+        addTask("1")
+
+        assertEquals(listOf(task), search("#"))
+    }
+
+    private suspend fun addTask(title: String, notes: String? = null): Long {
+        val task = newTask(with(TITLE, title), with(DESCRIPTION, notes))
+        taskDao.createNew(task)
+        return task.id
+    }
+
+    private suspend fun search(query: String) =
+        taskDao.fetchTasks(preferences, SearchFilter(query, query)).map { it.id }
+}
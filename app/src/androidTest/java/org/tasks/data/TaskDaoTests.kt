@@ -133,4 +133,38 @@ class TaskDaoTests : InjectingTestCase() {
         assertEquals(0, taskDao.fetch(parent)!!.parent)
         assertEquals(parent, taskDao.fetch(child)!!.parent)
     }
-}
\ No newline at end of file
+
+    @Test
+    fun findParents() = runBlocking {
+        val parent = taskDao.createNew(newTask())
+        val child = taskDao.createNew(newTask(with(PARENT, parent)))
+        val grandchild = taskDao.createNew(newTask(with(PARENT, child)))
+        assertEquals(listOf(grandchild, child, parent), taskDao.getParents(grandchild))
+    }
+
+    @Test
+    fun moveSubtreeToNewParent() = runBlocking {
+        val oldParent = taskDao.createNew(newTask())
+        val newParent = taskDao.createNew(newTask())
+        val child = taskDao.createNew(newTask(with(PARENT, oldParent)))
+        val grandchild = taskDao.createNew(newTask(with(PARENT, child)))
+
+        taskDao.setParent(newParent, listOf(child))
+
+        assertEquals(emptyList<Long>(), taskDao.getChildren(oldParent))
+        assertEquals(listOf(child, grandchild), taskDao.getChildren(newParent))
+        assertEquals(listOf(grandchild, child, newParent), taskDao.getParents(grandchild))
+    }
+
+    @Test
+    fun deletingParentDetachesSubtree() = runBlocking {
+        val parent = taskDao.createNew(newTask())
+        val child = taskDao.createNew(newTask(with(PARENT, parent)))
+        val grandchild = taskDao.createNew(newTask(with(PARENT, child)))
+
+        taskDeleter.delete(listOf(child))
+
+        assertEquals(emptyList<Long>(), taskDao.getChildren(parent))
+        assertEquals(listOf(grandchild), taskDao.getParents(grandchild))
+    }
+}
@@ -0,0 +1,121 @@
+package org.tasks.data
+
+import com.natpryce.makeiteasy.MakeItEasy.with
+import com.natpryce.makeiteasy.PropertyValue
+import com.todoroo.astrid.dao.TaskDao
+import dagger.hilt.android.testing.HiltAndroidTest
+import dagger.hilt.android.testing.UninstallModules
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.tasks.data.TaskListQuery.getQuery
+import org.tasks.data.entity.Task
+import org.tasks.data.sql.Criterion
+import org.tasks.data.sql.QueryTemplate
+import org.tasks.filters.FilterImpl
+import org.tasks.injection.InjectingTestCase
+import org.tasks.injection.ProductionModule
+import org.tasks.makers.TaskMaker.COLLAPSED
+import org.tasks.makers.TaskMaker.COMPLETION_TIME
+import org.tasks.makers.TaskMaker.PARENT
+import org.tasks.makers.TaskMaker.TITLE
+import org.tasks.makers.TaskMaker.newTask
+import org.tasks.preferences.Preferences
+import org.tasks.time.DateTime
+import javax.inject.Inject
+
+@UninstallModules(ProductionModule::class)
+@HiltAndroidTest
+class TaskListQueryRecursiveTest : InjectingTestCase() {
+    @Inject lateinit var taskDao: TaskDao
+    @Inject lateinit var preferences: Preferences
+
+    @Before
+    override fun setUp() {
+        super.setUp()
+        preferences.clear()
+    }
+
+    @Test
+    fun nestedRootListedUnderMatchingAncestor() = runBlocking {
+        val grandparent = addTask(with(TITLE, "match"))
+        val parent = addTask(with(TITLE, "other"), with(PARENT, grandparent))
+        val child = addTask(with(TITLE, "match"), with(PARENT, parent))
+
+        val tasks = query()
+
+        assertEquals(listOf(grandparent, parent, child), tasks.map { it.id })
+        assertEquals(listOf(0, 1, 2), tasks.map { it.indent })
+    }
+
+    @Test
+    fun nestedRootBelowCompletedTaskIsRoot() = runBlocking {
+        val grandparent = addTask(with(TITLE, "match"))
+        val parent = addTask(
+            with(TITLE, "other"),
+            with(PARENT, grandparent),
+            with(COMPLETION_TIME, DateTime()),
+        )
+        val child = addTask(with(TITLE, "match"), with(PARENT, parent))
+
+        val tasks = query()
+
+        assertEquals(setOf(grandparent, child), tasks.map { it.id }.toSet())
+        assertEquals(listOf(0, 0), tasks.map { it.indent })
+    }
+
+    @Test
+    fun collapsedParentHidesMatchingChildren() = runBlocking {
+        val parent = addTask(with(TITLE, "match"), with(COLLAPSED, true))
+        val child = addTask(with(TITLE, "match"), with(PARENT, parent))
+        addTask(with(TITLE, "match"), with(PARENT, child))
+
+        val tasks = query()
+
+        assertEquals(listOf(parent), tasks.map { it.id })
+    }
+
+    @Test
+    fun countChildrenUnderCollapsedParent() = runBlocking {
+        val parent = addTask(with(TITLE, "match"), with(COLLAPSED, true))
+        val child = addTask(with(TITLE, "other"), with(PARENT, parent))
+        addTask(with(TITLE, "other"), with(PARENT, parent))
+        addTask(with(TITLE, "other"), with(PARENT, parent), with(COMPLETION_TIME, DateTime()))
+        addTask(with(TITLE, "other"), with(PARENT, child))
+
+        val tasks = query()
+
+        assertEquals(listOf(parent), tasks.map { it.id })
+        assertEquals(2, tasks.single().children)
+    }
+
+    @Test
+    fun countChildrenUnderExpandedParent() = runBlocking {
+        val parent = addTask(with(TITLE, "match"))
+        val child = addTask(with(TITLE, "other"), with(PARENT, parent), with(COLLAPSED, true))
+        addTask(with(TITLE, "other"), with(PARENT, child))
+
+        val tasks = query()
+
+        assertEquals(listOf(parent, child), tasks.map { it.id })
+        assertEquals(listOf(1, 1), tasks.map { it.children })
+    }
+
+    private suspend fun addTask(vararg properties: PropertyValue<in Task?, *>): Long {
+        val task = newTask(*properties)
+        taskDao.createNew(task)
+        return task.id
+    }
+
+    private suspend fun query(): List<TaskContainer> =
+        taskDao.fetchTasks(getQuery(preferences, FILTER))
+
+    companion object {
+        private val FILTER = FilterImpl(
+            sql = QueryTemplate()
+                .where(Criterion.and(Task.DELETION_DATE.eq(0), Task.TITLE.like("match")))
+                .toString()
+        )
+    }
+}
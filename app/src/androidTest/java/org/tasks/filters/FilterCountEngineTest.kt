@@ -0,0 +1,99 @@
+package org.tasks.filters
+
+import com.todoroo.astrid.dao.TaskDao
+import com.todoroo.astrid.service.TaskDeleter
+import dagger.hilt.android.testing.HiltAndroidTest
+import dagger.hilt.android.testing.UninstallModules
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.tasks.data.dao.CaldavDao
+import org.tasks.data.entity.CaldavTask
+import org.tasks.data.entity.Task
+import org.tasks.injection.InjectingTestCase
+import org.tasks.injection.ProductionModule
+import org.tasks.makers.TaskMaker.newTask
+import org.tasks.time.DateTimeUtils2.currentTimeMillis
+import javax.inject.Inject
+
+@UninstallModules(ProductionModule::class)
+@HiltAndroidTest
+class FilterCountEngineTest : InjectingTestCase() {
+    @Inject lateinit var taskDao: TaskDao
+    @Inject lateinit var caldavDao: CaldavDao
+    @Inject lateinit var taskDeleter: TaskDeleter
+    @Inject lateinit var filterCountEngine: FilterCountEngine
+
+    @Test
+    fun countTasksInLists() = runBlocking {
+        addTask("list1")
+        addTask("list1")
+        addTask("list2")
+
+        assertEquals(mapOf("list1" to 2, "list2" to 1), filterCountEngine.getCounts().lists)
+    }
+
+    @Test
+    fun ignoreChangesUntilReported() = runBlocking {
+        addTask("list1")
+        filterCountEngine.getCounts()
+
+        addTask("list1")
+
+        assertEquals(mapOf("list1" to 1), filterCountEngine.getCounts().lists)
+    }
+
+    @Test
+    fun countInsertedTask() = runBlocking {
+        addTask("list1")
+        filterCountEngine.getCounts()
+
+        val task = addTask("list1")
+        filterCountEngine.invalidate(listOf(task.id))
+
+        assertEquals(mapOf("list1" to 2), filterCountEngine.getCounts().lists)
+    }
+
+    @Test
+    fun uncountCompletedTask() = runBlocking {
+        addTask("list1")
+        val task = addTask("list1")
+        filterCountEngine.getCounts()
+
+        task.completionDate = currentTimeMillis()
+        taskDao.save(task)
+        filterCountEngine.invalidate(listOf(task.id))
+
+        assertEquals(mapOf("list1" to 1), filterCountEngine.getCounts().lists)
+    }
+
+    @Test
+    fun moveUpdatedTask() = runBlocking {
+        val task = addTask("list1")
+        filterCountEngine.getCounts()
+
+        caldavDao.update(caldavDao.getTask(task.id)!!.copy(calendar = "list2"))
+        filterCountEngine.invalidate(listOf(task.id))
+
+        assertEquals(mapOf("list2" to 1), filterCountEngine.getCounts().lists)
+    }
+
+    @Test
+    fun uncountDeletedTask() = runBlocking {
+        addTask("list1")
+        val task = addTask("list2")
+        filterCountEngine.getCounts()
+
+        taskDeleter.delete(task)
+        filterCountEngine.invalidate(listOf(task.id))
+
+        assertEquals(mapOf("list1" to 1), filterCountEngine.getCounts().lists)
+    }
+
+    private suspend fun addTask(calendar: String): Task {
+        val task = newTask()
+        taskDao.createNew(task)
+        caldavDao.insert(task, CaldavTask(task = task.id, calendar = calendar), false)
+        return task
+    }
+}
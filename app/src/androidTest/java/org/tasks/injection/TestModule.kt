@@ -10,6 +10,10 @@ import dagger.hilt.components.SingletonComponent
 import org.mockito.Mockito.mock
 import org.tasks.TestUtilities
 import org.tasks.data.db.Database
+import org.tasks.data.db.TaskHierarchy
+import org.tasks.data.db.TaskSearch
+import org.tasks.data.db.TaskSortKey
+import org.tasks.data.db.TaskWriteLog
 import org.tasks.jobs.WorkManager
 import org.tasks.location.LocationManager
 import org.tasks.location.MockLocationManager
@@ -27,6 +31,10 @@ class TestModule {
         Room
             .inMemoryDatabaseBuilder(context, Database::class.java)
             .fallbackToDestructiveMigration(dropAllTables = true)
+            .addCallback(TaskSearch.callback)
+            .addCallback(TaskHierarchy.callback)
+            .addCallback(TaskSortKey.callback)
+            .addCallback(TaskWriteLog.callback)
             .setDriver()
             .build()
 
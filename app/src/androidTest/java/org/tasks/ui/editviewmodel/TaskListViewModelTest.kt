@@ -8,9 +8,9 @@ import org.junit.Assert.assertFalse
 import org.junit.Assert.assertTrue
 import org.junit.Before
 import org.junit.Test
-import org.tasks.LocalBroadcastManager
 import org.tasks.analytics.Firebase
 import org.tasks.billing.Inventory
+import org.tasks.data.InvalidationBus
 import org.tasks.data.dao.CaldavDao
 import org.tasks.data.dao.DeletionDao
 import org.tasks.data.dao.TaskDao
@@ -32,7 +32,7 @@ class TaskListViewModelTest : InjectingTestCase() {
     @Inject lateinit var taskDao: TaskDao
     @Inject lateinit var taskDeleter: TaskDeleter
     @Inject lateinit var deletionDao: DeletionDao
-    @Inject lateinit var localBroadcastManager: LocalBroadcastManager
+    @Inject lateinit var invalidationBus: InvalidationBus
     @Inject lateinit var inventory: Inventory
     @Inject lateinit var firebase: Firebase
     @Inject lateinit var caldavDao: CaldavDao
@@ -46,7 +46,7 @@ class TaskListViewModelTest : InjectingTestCase() {
             taskDao = taskDao,
             deletionDao = deletionDao,
             taskDeleter = taskDeleter,
-            localBroadcastManager = localBroadcastManager,
+            invalidationBus = invalidationBus,
             inventory = inventory,
             firebase = firebase,
             permissionChecker = PermissivePermissionChecker(context),
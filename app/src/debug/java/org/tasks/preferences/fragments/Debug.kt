@@ -32,7 +32,8 @@ class Debug : InjectingPreferenceFragment() {
             R.string.p_leakcanary,
             R.string.p_strict_mode_vm,
             R.string.p_strict_mode_thread,
-            R.string.p_crash_main_queries
+            R.string.p_crash_main_queries,
+            R.string.p_vtodo_packed,
         )) {
             findPreference(pref)
                 .setOnPreferenceChangeListener { _: Preference?, _: Any? ->
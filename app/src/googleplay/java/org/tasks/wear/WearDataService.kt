@@ -15,6 +15,7 @@ import org.tasks.GrpcProto.Settings
 import org.tasks.WearServiceGrpcKt
 import org.tasks.analytics.Firebase
 import org.tasks.billing.Inventory
+import org.tasks.data.FilterResultCache
 import org.tasks.extensions.wearDataLayerRegistry
 import org.tasks.filters.FilterProvider
 import org.tasks.preferences.DefaultFilterProvider
@@ -28,6 +29,7 @@ import javax.inject.Inject
 class WearDataService : BaseGrpcDataService<WearServiceGrpcKt.WearServiceCoroutineImplBase>() {
 
     @Inject lateinit var taskDao: TaskDao
+    @Inject lateinit var filterResultCache: FilterResultCache
     @Inject lateinit var preferences: Preferences
     @Inject lateinit var taskCompleter: TaskCompleter
     @Inject lateinit var headerFormatter: HeaderFormatter
@@ -49,6 +51,7 @@ class WearDataService : BaseGrpcDataService<WearServiceGrpcKt.WearServiceCorouti
     override fun buildService(): WearServiceGrpcKt.WearServiceCoroutineImplBase {
         return WearService(
             taskDao = taskDao,
+            filterResultCache = filterResultCache,
             appPreferences = preferences,
             taskCompleter = taskCompleter,
             headerFormatter = headerFormatter,
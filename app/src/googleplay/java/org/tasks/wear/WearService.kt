@@ -22,6 +22,7 @@ import org.tasks.WearServiceGrpcKt
 import org.tasks.analytics.Firebase
 import org.tasks.billing.Inventory
 import org.tasks.copy
+import org.tasks.data.FilterResultCache
 import org.tasks.data.NO_COUNT
 import org.tasks.data.isHidden
 import org.tasks.filters.AstridOrderingFilter
@@ -45,6 +46,7 @@ import timber.log.Timber
 
 class WearService(
     private val taskDao: TaskDao,
+    private val filterResultCache: FilterResultCache,
     private val appPreferences: Preferences,
     private val taskCompleter: TaskCompleter,
     private val headerFormatter: HeaderFormatter,
@@ -66,7 +68,7 @@ class WearService(
         val preferences = WearPreferences(appPreferences, settingsData)
         val collapsed = settingsData?.collapsedList?.toSet() ?: emptySet()
         val payload = SectionedDataSource(
-            tasks = taskDao.fetchTasks(preferences, filter),
+            tasks = filterResultCache.fetchTasks(preferences, filter),
             disableHeaders = filter.disableHeaders()
                     || (filter.supportsManualSort() && preferences.isManualSort)
                     || (filter is AstridOrderingFilter && preferences.isAstridSort),
@@ -189,7 +191,7 @@ class WearService(
                                     .setIcon(item.getIcon(inventory))
                                     .setColor(getColor(item))
                                     .setTaskCount(item.count.takeIf { it != NO_COUNT } ?: try {
-                                        taskDao.count(item)
+                                        filterResultCache.count(item)
                                     } catch (e: Exception) {
                                         Timber.e(e)
                                         0
@@ -456,7 +456,7 @@ class MainActivity : AppCompatActivity() {
         intent.hasExtra(OPEN_TASK) -> {
             val task = getParcelableExtra(intent, OPEN_TASK, Task::class.java)
             intent.removeExtra(OPEN_TASK)
-            task
+            task?.let { taskDao.withNotes(it) }
         }
 
         else -> null
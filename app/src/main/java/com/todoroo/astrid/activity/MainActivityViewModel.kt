@@ -29,10 +29,9 @@ import org.tasks.TasksApplication.Companion.IS_GENERIC
 import org.tasks.billing.Inventory
 import org.tasks.compose.drawer.DrawerItem
 import org.tasks.compose.throttleLatest
+import org.tasks.data.FilterResultCache
 import org.tasks.data.NO_COUNT
-import org.tasks.data.count
 import org.tasks.data.dao.CaldavDao
-import org.tasks.data.dao.TaskDao
 import org.tasks.data.entity.Task
 import org.tasks.filters.CaldavFilter
 import org.tasks.filters.Filter
@@ -51,7 +50,7 @@ class MainActivityViewModel @Inject constructor(
     savedStateHandle: SavedStateHandle,
     private val defaultFilterProvider: DefaultFilterProvider,
     private val filterProvider: FilterProvider,
-    private val taskDao: TaskDao,
+    private val filterResultCache: FilterResultCache,
     private val localBroadcastManager: LocalBroadcastManager,
     private val inventory: Inventory,
     private val colorProvider: ColorProvider,
@@ -153,7 +152,7 @@ class MainActivityViewModel @Inject constructor(
                             icon = item.getIcon(inventory),
                             color = getColor(item),
                             count = item.count.takeIf { it != NO_COUNT } ?: try {
-                                taskDao.count(item)
+                                filterResultCache.count(item)
                             } catch (e: Exception) {
                                 Timber.e(e)
                                 0
@@ -184,7 +183,7 @@ class MainActivityViewModel @Inject constructor(
                     icon = item.getIcon(inventory),
                     color = getColor(item),
                     count = item.count.takeIf { it != NO_COUNT } ?: try {
-                        taskDao.count(item)
+                        filterResultCache.count(item)
                     } catch (e: Exception) {
                         Timber.e(e)
                         0
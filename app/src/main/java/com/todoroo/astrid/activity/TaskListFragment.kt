@@ -757,7 +757,7 @@ class TaskListFragment : Fragment(), OnRefreshListener, Toolbar.OnMenuItemClickL
     }
 
     private fun onTaskListItemClicked(task: Task?) = lifecycleScope.launch {
-        mainViewModel.setTask(task)
+        mainViewModel.setTask(task?.let { taskDao.withNotes(it) })
     }
 
     override fun onMenuItemActionExpand(item: MenuItem): Boolean {
@@ -15,6 +15,7 @@ import org.tasks.data.entity.Task
 import org.tasks.data.fetchFiltered
 import org.tasks.data.fetchTasks
 import org.tasks.data.setCollapsed
+import org.tasks.data.sql.BoundQuery
 import org.tasks.date.DateTimeUtils.isAfterNow
 import org.tasks.filters.Filter
 import org.tasks.jobs.WorkManager
@@ -40,6 +41,10 @@ class TaskDao @Inject constructor(
 
     suspend fun fetch(ids: List<Long>): List<Task> = taskDao.fetch(ids)
 
+    /** @return [task] with its full notes if it was loaded for a task list */
+    suspend fun withNotes(task: Task): Task =
+        task.takeIf { it.isNotesPreview }?.let { fetch(it.id) } ?: task
+
     suspend fun fetch(remoteId: String): Task? = taskDao.fetch(remoteId)
 
     suspend fun count(item: Filter): Int = taskDao.count(item)
@@ -99,15 +104,36 @@ class TaskDao @Inject constructor(
     suspend fun save(task: Task) = save(task, fetch(task.id))
 
     suspend fun save(task: Task, original: Task?) {
-        if (taskDao.update(task, original)) {
+        val saved = if (task.isSuppressRefresh()) {
+            update(task, original)
+        } else {
+            taskDao.updateReported(task, original)
+        }
+        if (saved) {
             Timber.d("Saved $task")
-            afterUpdate(task, original)
-            if (!task.isSuppressRefresh()) {
-                localBroadcastManager.broadcastRefresh()
-            }
-            workManager.triggerNotifications()
-            workManager.scheduleRefresh()
+            afterSave(listOf(task to original))
+        }
+    }
+
+    /**
+     * Saves [task] without any of the side effects of [save]. Pass the saved tasks to [afterSave]
+     * once the whole batch has been written.
+     */
+    suspend fun update(task: Task, original: Task?): Boolean = taskDao.update(task, original)
+
+    /** Runs the side effects of [save] for a batch of tasks, scheduling work once */
+    suspend fun afterSave(tasks: List<Pair<Task, Task?>>) {
+        if (tasks.isEmpty()) {
+            return
         }
+        tasks.forEach { (task, original) -> afterUpdate(task, original) }
+        tasks
+            .map { (task, _) -> task }
+            .filterNot { it.isSuppressRefresh() }
+            .takeIf { it.isNotEmpty() }
+            ?.let { localBroadcastManager.broadcastRefresh(it.map(Task::id)) }
+        workManager.triggerNotifications()
+        workManager.scheduleRefresh()
     }
 
     suspend fun afterUpdate(task: Task, original: Task?) {
@@ -138,7 +164,7 @@ class TaskDao @Inject constructor(
 
     internal suspend fun insert(task: Task): Long = taskDao.insert(task)
 
-    internal suspend fun fetchTasks(query: String): List<TaskContainer> = taskDao.fetchTasks(query)
+    internal suspend fun fetchTasks(query: BoundQuery): List<TaskContainer> = taskDao.fetchTasks(query)
 
     internal suspend fun getAll(): List<Task> = taskDao.getAll()
 
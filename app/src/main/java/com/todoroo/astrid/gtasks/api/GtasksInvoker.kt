@@ -1,8 +1,10 @@
 package com.todoroo.astrid.gtasks.api
 
+import com.google.api.client.http.HttpTransport
 import com.google.api.client.http.javanet.NetHttpTransport
 import com.google.api.client.json.gson.GsonFactory
 import com.google.api.services.tasks.Tasks
+import com.google.api.services.tasks.TasksRequest
 import com.google.api.services.tasks.model.Task
 import com.google.api.services.tasks.model.TaskList
 import com.google.api.services.tasks.model.TaskLists
@@ -16,10 +18,11 @@ import java.io.IOException
  * @author Sam Bosley
  */
 class GtasksInvoker(
-        credentials: HttpCredentialsAdapter,
+        private val credentials: HttpCredentialsAdapter,
+        transport: HttpTransport = NetHttpTransport(),
 ) : BaseInvoker(credentials) {
     private val service =
-            Tasks.Builder(NetHttpTransport(), GsonFactory(), credentials)
+            Tasks.Builder(transport, GsonFactory(), credentials)
                     .setApplicationName(APP_NAME)
                     .build()
 
@@ -41,19 +44,6 @@ class GtasksInvoker(
                             .setUpdatedMin(
                                     GtasksApiUtilities.unixTimeToGtasksCompletionTime(lastSyncDate).toStringRfc3339()))
 
-    @Throws(IOException::class)
-    suspend fun getAllPositions(
-            listId: String?, pageToken: String?): com.google.api.services.tasks.model.Tasks? =
-            execute(
-                    service!!
-                            .tasks()
-                            .list(listId)
-                            .setMaxResults(100)
-                            .setShowDeleted(false)
-                            .setShowHidden(false)
-                            .setPageToken(pageToken)
-                            .setFields("items(id,parent,position),nextPageToken"))
-
     @Throws(IOException::class)
     suspend fun createGtask(
             listId: String?, task: Task?, parent: String?, previous: String?): Task? =
@@ -96,4 +86,25 @@ class GtasksInvoker(
         } catch (ignored: HttpNotFoundException) {
         }
     }
-}
\ No newline at end of file
+
+    fun createGtaskRequest(
+            listId: String?, task: Task?, parent: String?, previous: String?): TasksRequest<Task> =
+            service!!.tasks().insert(listId, task).setParent(parent).setPrevious(previous)
+
+    fun updateGtaskRequest(listId: String?, task: Task): TasksRequest<Task> =
+            service!!.tasks().update(listId, task.id, task)
+
+    fun moveGtaskRequest(
+            listId: String?, taskId: String?, parentId: String?, previousId: String?): TasksRequest<Task> =
+            service!!.tasks().move(listId, taskId).setParent(parentId).setPrevious(previousId)
+
+    fun deleteGtaskRequest(listId: String?, taskId: String?): TasksRequest<Void> =
+            service!!.tasks().delete(listId, taskId)
+
+    /** Sends [requests] together, see [BaseInvoker.executeBatch] */
+    @Throws(IOException::class)
+    suspend fun batch(
+            requests: List<TasksRequest<*>>,
+            onResult: suspend (Int, Result<Any?>) -> Unit,
+    ) = executeBatch(requests, { service!!.batch(credentials) }, onResult)
+}
@@ -95,7 +95,7 @@ class TaskCompleter @Inject internal constructor(
                 }
             }
         )
-        localBroadcastManager.broadcastRefresh()
+        localBroadcastManager.broadcastRefresh(tasks.map { it.id })
         workManager.triggerNotifications()
         workManager.scheduleRefresh()
         repeated.lastOrNull()?.let { task ->
@@ -7,12 +7,14 @@ import android.content.IntentFilter
 import androidx.localbroadcastmanager.content.LocalBroadcastManager
 import com.todoroo.astrid.api.AstridApiConstants
 import dagger.hilt.android.qualifiers.ApplicationContext
+import org.tasks.data.InvalidationBus
 import org.tasks.widget.AppWidgetManager
 import javax.inject.Inject
 
 class LocalBroadcastManager @Inject constructor(
     @ApplicationContext context: Context,
     private val appWidgetManager: AppWidgetManager,
+    private val invalidationBus: InvalidationBus,
 ) {
     private val localBroadcastManager = LocalBroadcastManager.getInstance(context)
 
@@ -42,9 +44,19 @@ class LocalBroadcastManager @Inject constructor(
         )
     }
 
+    /** Refresh everything, coalesced with other changes through [InvalidationBus] */
     fun broadcastRefresh() {
+        invalidationBus.invalidate()
+    }
+
+    /** Refresh after a change that only touched [tasks] */
+    fun broadcastRefresh(tasks: List<Long>) {
+        invalidationBus.invalidate(tasks)
+    }
+
+    /** Notifies receivers registered for [REFRESH], called once per [InvalidationBus] frame */
+    fun sendRefresh() {
         localBroadcastManager.sendBroadcast(Intent(REFRESH))
-        appWidgetManager.updateWidgets()
     }
 
     fun broadcastRefreshList() {
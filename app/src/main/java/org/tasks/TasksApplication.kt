@@ -3,7 +3,6 @@ package org.tasks
 import android.app.ActivityManager
 import android.app.Application
 import android.app.ApplicationExitInfo
-import android.content.BroadcastReceiver
 import android.content.Context
 import android.content.Intent
 import android.os.Build
@@ -25,9 +24,13 @@ import dagger.hilt.android.qualifiers.ApplicationContext
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.flow.launchIn
+import kotlinx.coroutines.flow.onEach
 import kotlinx.coroutines.launch
 import org.tasks.billing.Inventory
 import org.tasks.caldav.CaldavSynchronizer
+import org.tasks.data.InvalidationBus
+import org.tasks.filters.FilterCountEngine
 import org.tasks.icons.OutlinedGoogleMaterial
 import org.tasks.icons.OutlinedGoogleMaterial2
 import org.tasks.injection.InjectingJobIntentService
@@ -53,6 +56,8 @@ class TasksApplication : Application(), Configuration.Provider {
     @Inject lateinit var buildSetup: BuildSetup
     @Inject lateinit var inventory: Inventory
     @Inject lateinit var localBroadcastManager: LocalBroadcastManager
+    @Inject lateinit var invalidationBus: InvalidationBus
+    @Inject lateinit var filterCountEngine: FilterCountEngine
     @Inject lateinit var upgrader: Lazy<Upgrader>
     @Inject lateinit var workManager: Lazy<WorkManager>
     @Inject lateinit var geofenceApi: Lazy<GeofenceApi>
@@ -74,13 +79,13 @@ class TasksApplication : Application(), Configuration.Provider {
         upgrade()
         preferences.isSyncOngoing = false
         ThemeBase.getThemeBase(preferences, inventory, null).setDefaultNightMode()
-        localBroadcastManager.registerRefreshReceiver(RefreshBroadcastReceiver())
+        observeInvalidations()
         backgroundWork()
         ProcessLifecycleOwner.get().lifecycle.addObserver(
             object : DefaultLifecycleObserver {
                 override fun onResume(owner: LifecycleOwner) {
                     Timber.d("Application.onResume")
-                    localBroadcastManager.broadcastRefresh()
+                    invalidationBus.tick()
                     if (currentTimeMillis() - preferences.lastSync > TimeUnit.MINUTES.toMillis(5)) {
                         syncAdapters.get().sync(true)
                     }
@@ -147,14 +152,26 @@ class TasksApplication : Application(), Configuration.Provider {
         localBroadcastManager.reconfigureWidgets()
     }
 
-    private class RefreshBroadcastReceiver : BroadcastReceiver() {
-        override fun onReceive(context: Context, intent: Intent) {
-            JobIntentService.enqueueWork(
-                    context,
-                    RefreshReceiver::class.java,
-                    InjectingJobIntentService.JOB_ID_REFRESH_RECEIVER,
-                    intent)
-        }
+    private fun observeInvalidations() {
+        invalidationBus.invalidations
+            .onEach { invalidation ->
+                val tasks = invalidation.changedTasks(InvalidationBus.TASK_LIST)
+                when {
+                    invalidation.timeOnly -> {}
+                    tasks == null || preferences.isSyncOngoing -> filterCountEngine.invalidate()
+                    else -> filterCountEngine.invalidate(tasks)
+                }
+                localBroadcastManager.sendRefresh()
+                if (invalidation.time || invalidation.affects(InvalidationBus.TASK_LIST)) {
+                    appWidgetManager.get().updateWidgets()
+                    JobIntentService.enqueueWork(
+                            context,
+                            RefreshReceiver::class.java,
+                            InjectingJobIntentService.JOB_ID_REFRESH_RECEIVER,
+                            Intent(LocalBroadcastManager.REFRESH))
+                }
+            }
+            .launchIn(scope)
     }
 
     companion object {
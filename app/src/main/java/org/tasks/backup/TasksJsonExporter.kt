@@ -119,22 +119,25 @@ class TasksJsonExporter @Inject constructor(
     @Throws(IOException::class)
     private suspend fun doTasksExport(os: OutputStream?, tasks: List<Task>) {
         val taskBackups: MutableList<TaskBackup> = ArrayList()
-        for (task in tasks) {
-            setProgress(taskBackups.size, tasks.size)
-            val taskId = task.id
-            val caldavTasks = caldavDao.getTasks(taskId)
-            taskBackups.add(
-                    TaskBackup(
-                        task = task,
-                        alarms = alarmDao.getAlarms(taskId),
-                        geofences = locationDao.getGeofencesForTask(taskId),
-                        tags = tagDao.getTagsForTask(taskId),
-                        comments = userActivityDao.getComments(taskId),
-                        attachments = taskAttachmentDao.getAttachmentsForTask(taskId),
-                        caldavTasks = caldavTasks,
-                        vtodo = vtodoCache.getVtodo(caldavTasks.firstOrNull { !it.isDeleted() })
-                    )
-            )
+        for (chunk in tasks.chunked(EXPORT_CHUNK_SIZE)) {
+            val vtodos = vtodoCache.getVtodos(caldavDao.getTasks(chunk.map { it.id }))
+            for (task in chunk) {
+                setProgress(taskBackups.size, tasks.size)
+                val taskId = task.id
+                val caldavTasks = caldavDao.getTasks(taskId)
+                taskBackups.add(
+                        TaskBackup(
+                            task = task,
+                            alarms = alarmDao.getAlarms(taskId),
+                            geofences = locationDao.getGeofencesForTask(taskId),
+                            tags = tagDao.getTagsForTask(taskId),
+                            comments = userActivityDao.getComments(taskId),
+                            attachments = taskAttachmentDao.getAttachmentsForTask(taskId),
+                            caldavTasks = caldavTasks,
+                            vtodo = caldavTasks.firstOrNull { !it.isDeleted() }?.let { vtodos[it.id] }
+                        )
+                )
+            }
         }
         val data = JsonObject(
             mapOf(
@@ -191,6 +194,7 @@ class TasksJsonExporter @Inject constructor(
         val UTF_8: Charset = Charset.forName("UTF-8")
         private const val MIME = "application/json"
         private const val EXTENSION = ".json"
+        private const val EXPORT_CHUNK_SIZE = 500
         private val dateForExport: String
             get() = newDateTime().toString("yyyyMMdd'T'HHmm")
     }
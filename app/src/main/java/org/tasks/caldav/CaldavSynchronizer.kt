@@ -25,7 +25,17 @@ import at.bitfire.ical4android.ICalendar.Companion.prodId
 import com.todoroo.astrid.dao.TaskDao
 import com.todoroo.astrid.service.TaskDeleter
 import dagger.hilt.android.qualifiers.ApplicationContext
-import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ThreadContextElement
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.sync.withPermit
 import net.fortuna.ical4j.model.property.ProdId
 import okhttp3.Headers
 import okhttp3.HttpUrl
@@ -51,6 +61,7 @@ import org.tasks.caldav.property.ShareAccess.Companion.READ
 import org.tasks.caldav.property.ShareAccess.Companion.READ_WRITE
 import org.tasks.caldav.property.ShareAccess.Companion.SHARED_OWNER
 import org.tasks.caldav.property.Sharee
+import org.tasks.data.CaldavObject
 import org.tasks.data.UUIDHelper
 import org.tasks.data.dao.CaldavDao
 import org.tasks.data.dao.PrincipalDao
@@ -74,6 +85,8 @@ import org.tasks.data.entity.CaldavCalendar.Companion.INVITE_UNKNOWN
 import org.tasks.data.entity.CaldavTask
 import org.tasks.data.entity.PrincipalAccess
 import org.tasks.data.entity.Task
+import org.tasks.preferences.Preferences
+import org.tasks.time.DateTimeUtils2.currentTimeMillis
 import timber.log.Timber
 import java.io.IOException
 import java.net.ConnectException
@@ -83,6 +96,7 @@ import java.security.KeyManagementException
 import java.security.NoSuchAlgorithmException
 import javax.inject.Inject
 import javax.net.ssl.SSLException
+import kotlin.coroutines.CoroutineContext
 
 class CaldavSynchronizer @Inject constructor(
     @param:ApplicationContext private val context: Context,
@@ -96,7 +110,18 @@ class CaldavSynchronizer @Inject constructor(
     private val iCal: iCalendar,
     private val principalDao: PrincipalDao,
     private val vtodoCache: VtodoCache,
+    private val preferences: Preferences,
 ) {
+    /**
+     * Calendars are fetched and tasks are pushed concurrently, but Room serializes writers on a
+     * single connection. Every sync write goes through this lock so that a long page of fetched
+     * changes and the writes from concurrent pushes queue here instead of on the connection
+     */
+    private val dbMutex = Mutex()
+
+    /** dav4jvm and ical4j look up their factories on whichever thread a sync coroutine resumes */
+    private val classLoader = ContextClassLoader(context.classLoader)
+
     suspend fun sync(account: CaldavAccount) {
         Timber.d("Synchronizing $account")
         Thread.currentThread().contextClassLoader = context.classLoader
@@ -166,6 +191,7 @@ class CaldavSynchronizer @Inject constructor(
         for (calendar in caldavDao.findDeletedCalendars(account.uuid!!, ArrayList(urls))) {
             taskDeleter.delete(calendar)
         }
+        val calendars = ArrayList<Pair<Response, CaldavCalendar>>()
         for (resource in resources) {
             val url = resource.href.toString()
             var calendar = caldavDao.getCalendarByUrl(account.uuid!!, url)
@@ -203,10 +229,23 @@ class CaldavSynchronizer @Inject constructor(
             resource
                 .principals(account, calendar)
                 .let { principalDao.deleteRemoved(calendar.id, it.map(PrincipalAccess::id)) }
-            fetchChanges(account, calendar, resource, caldavClient.httpClient)
-            if (calendar.access != ACCESS_READ_ONLY) {
-                pushLocalChanges(account, calendar, caldavClient.httpClient, resource.href)
-            }
+            calendars.add(resource to calendar)
+        }
+        // Every request to the server takes a permit, calendars only share the limit
+        val limiter = Semaphore(preferences.syncConcurrency)
+        coroutineScope {
+            calendars
+                .map { (resource, calendar) ->
+                    async(Dispatchers.IO + classLoader) {
+                        val start = currentTimeMillis()
+                        fetchChanges(account, calendar, resource, caldavClient.httpClient, limiter)
+                        if (calendar.access != ACCESS_READ_ONLY) {
+                            pushLocalChanges(account, calendar, caldavClient.httpClient, resource.href, limiter)
+                        }
+                        Timber.d("Synchronized $calendar in ${currentTimeMillis() - start}ms")
+                    }
+                }
+                .awaitAll()
         }
         setError(account, "")
     }
@@ -235,7 +274,8 @@ class CaldavSynchronizer @Inject constructor(
         account: CaldavAccount,
         caldavCalendar: CaldavCalendar,
         resource: Response,
-        httpClient: OkHttpClient
+        httpClient: OkHttpClient,
+        limiter: Semaphore,
     ) {
         val httpUrl = resource.href
         val remoteCtag = resource.ctag
@@ -245,95 +285,266 @@ class CaldavSynchronizer @Inject constructor(
         }
         Timber.d("updating $caldavCalendar")
         val davCalendar = DavCalendar(httpClient, httpUrl)
-        val members = ArrayList<Response>()
-        davCalendar.calendarQuery("VTODO", null, null) { response, relation ->
-            if (relation == HrefRelation.MEMBER) {
-                members.add(response)
+        val objects = caldavDao.getObjects(caldavCalendar.uuid!!)
+        val local = HashMap<String, CaldavObject>(objects.size)
+        objects.forEach { local.putIfAbsent(it.obj, it) }
+        val changes = caldavCalendar.ctag
+            ?.takeIf { resource[SyncToken::class.java]?.token != null }
+            ?.let { limiter.withPermit { syncCollection(davCalendar, caldavCalendar, it) } }
+            ?: limiter.withPermit { calendarQuery(davCalendar, objects) }
+        val (added, updated) = changes.members
+            .filter { vCard: Response ->
+                val eTag = vCard[GetETag::class.java]?.eTag
+                !eTag.isNullOrBlank() && eTag != local[vCard.hrefName()]?.etag
+            }
+            .partition { local[it.hrefName()] == null }
+        Timber.d("${added.size} new, ${updated.size} changed, ${changes.deleted.size} deleted")
+        val changed = added + updated
+        val complete = coroutineScope {
+            val fetched = Channel<List<Response>>(capacity = 1)
+            val producer = launch(Dispatchers.IO + classLoader) {
+                try {
+                    val sizer = MultigetChunkSizer()
+                    var offset = 0
+                    while (offset < changed.size) {
+                        val items = changed.subList(offset, minOf(offset + sizer.size, changed.size))
+                        offset += items.size
+                        val urls = items.map { it.href }
+                        val responses = ArrayList<Response>()
+                        val elapsed = limiter.withPermit {
+                            val start = currentTimeMillis()
+                            davCalendar.multiget(urls) { response, relation ->
+                                if (relation == HrefRelation.MEMBER) {
+                                    responses.add(response)
+                                }
+                            }
+                            currentTimeMillis() - start
+                        }
+                        val bytes = responses.sumOf {
+                            it[CalendarData::class.java]?.iCalendar?.length?.toLong() ?: 0L
+                        }
+                        sizer.update(elapsed, bytes)
+                        Timber.d("MULTI %s", urls)
+                        fetched.send(responses)
+                    }
+                } finally {
+                    fetched.close()
+                }
+            }
+            for (responses in fetched) {
+                if (!applyResponses(account, caldavCalendar, responses)) {
+                    producer.cancel()
+                    return@coroutineScope false
+                }
             }
+            true
+        }
+        if (!complete) {
+            return
+        }
+        dbMutex.withLock {
+            changes.deleted
+                    .takeIf { it.isNotEmpty() }
+                    ?.let {
+                        Timber.d("DELETED $it")
+                        val tasks = caldavDao.getTasks(caldavCalendar.uuid!!, it.toList())
+                        vtodoCache.delete(caldavCalendar, tasks)
+                        taskDeleter.delete(tasks.map { it.task })
+                    }
+            caldavCalendar.ctag = changes.syncToken ?: remoteCtag
+            Timber.d("UPDATE %s", caldavCalendar)
+            caldavDao.update(caldavCalendar)
+            Timber.d("Updating parents for ${caldavCalendar.uuid}")
+            caldavDao.updateParents(caldavCalendar.uuid!!)
         }
-        val changed = members.filter { vCard: Response ->
+        localBroadcastManager.broadcastRefresh()
+    }
+
+    private suspend fun applyResponses(
+        account: CaldavAccount,
+        caldavCalendar: CaldavCalendar,
+        responses: List<Response>,
+    ): Boolean = dbMutex.withLock {
+        val vtodos = responses.vtodos()
+        val caldavTasks = caldavDao
+            .getTasks(caldavCalendar.uuid!!, vtodos.map { it.hrefName() })
+            .groupBy { it.obj }
+        for (vCard in vtodos) {
             val eTag = vCard[GetETag::class.java]?.eTag
+            val url = vCard.href
             if (eTag.isNullOrBlank()) {
-                return@filter false
+                throw DavException("Received CalDAV GET response without ETag for $url")
             }
-            eTag != caldavDao.getTask(caldavCalendar.uuid!!, vCard.hrefName())?.etag
+            val vtodo = vCard[CalendarData::class.java]?.iCalendar
+            if (vtodo.isNullOrBlank()) {
+                throw DavException("Received CalDAV GET response without CalendarData for $url")
+            }
+            val fileName = vCard.hrefName()
+            val remote = fromVtodo(vtodo)
+            if (remote == null) {
+                Timber.e("Invalid VCALENDAR: %s", fileName)
+                return@withLock false
+            }
+            val caldavTask = caldavTasks[fileName]?.firstOrNull()
+            iCal.fromVtodo(account, caldavCalendar, caldavTask, remote, vtodo, fileName, eTag)
         }
-        for (items in changed.chunked(30)) {
-            val urls = items.map { it.href }
-            val responses = ArrayList<Response>()
-            davCalendar.multiget(urls) { response, relation ->
-                if (relation == HrefRelation.MEMBER) {
-                    responses.add(response)
-                }
+        true
+    }
+
+    private fun calendarQuery(
+        davCalendar: DavCalendar,
+        local: List<CaldavObject>,
+    ): Changes {
+        val members = ArrayList<Response>()
+        davCalendar.calendarQuery("VTODO", null, null) { response, relation ->
+            if (relation == HrefRelation.MEMBER) {
+                members.add(response)
             }
-            Timber.d("MULTI %s", urls)
-            for (vCard in responses) {
-                val eTag = vCard[GetETag::class.java]?.eTag
-                val url = vCard.href
-                if (eTag.isNullOrBlank()) {
-                    throw DavException("Received CalDAV GET response without ETag for $url")
+        }
+        val remote = members.mapTo(HashSet()) { it.hrefName() }
+        val deleted = local
+            .filter { it.isRemote && !remote.contains(it.obj) }
+            .mapTo(HashSet()) { it.obj }
+        return Changes(members, deleted)
+    }
+
+    /**
+     * RFC 6578 sync-collection REPORT, using the sync-token stored in [CaldavCalendar.ctag]
+     * by the previous sync. Returns null if the server rejects the token so that the caller
+     * can fall back to a full calendar-query
+     */
+    private fun syncCollection(
+        davCalendar: DavCalendar,
+        caldavCalendar: CaldavCalendar,
+        syncToken: String,
+    ): Changes? {
+        val changes = LinkedHashMap<String, Response?>()
+        var token = syncToken
+        try {
+            do {
+                var truncated = false
+                val properties = davCalendar.reportChanges(
+                    token,
+                    false,
+                    null,
+                    GetETag.NAME
+                ) { response, relation ->
+                    when {
+                        relation == HrefRelation.SELF ->
+                            truncated = response.status?.code == 507
+                        response.isSuccess() ->
+                            changes[response.hrefName()] = response
+                        response.status?.code == 404 ->
+                            changes[response.hrefName()] = null
+                    }
                 }
-                val vtodo = vCard[CalendarData::class.java]?.iCalendar
-                if (vtodo.isNullOrBlank()) {
-                    throw DavException("Received CalDAV GET response without CalendarData for $url")
+                val next = properties.filterIsInstance<SyncToken>().firstOrNull()?.token
+                if (next.isNullOrBlank() || next == token) {
+                    break
                 }
-                val fileName = vCard.hrefName()
-                val remote = fromVtodo(vtodo)
-                if (remote == null) {
-                    Timber.e("Invalid VCALENDAR: %s", fileName)
-                    return
+                token = next
+            } while (truncated)
+        } catch (e: HttpException) {
+            when (e.code) {
+                401 -> throw e
+                in 400..499, 501 -> {
+                    Timber.w("sync-collection failed for $caldavCalendar: ${e.message}")
+                    return null
                 }
-                val caldavTask = caldavDao.getTask(caldavCalendar.uuid!!, fileName)
-                iCal.fromVtodo(account, caldavCalendar, caldavTask, remote, vtodo, fileName, eTag)
+                else -> throw e
             }
         }
-        caldavDao
-                .getRemoteObjects(caldavCalendar.uuid!!)
-                .subtract(members.map { it.hrefName() })
-                .takeIf { it.isNotEmpty() }
-                ?.let {
-                    Timber.d("DELETED $it")
-                    val tasks = caldavDao.getTasks(caldavCalendar.uuid!!, it.toList())
-                    vtodoCache.delete(caldavCalendar, tasks)
-                    taskDeleter.delete(tasks.map { it.task })
-                }
-        caldavCalendar.ctag = remoteCtag
-        Timber.d("UPDATE %s", caldavCalendar)
-        caldavDao.update(caldavCalendar)
-        Timber.d("Updating parents for ${caldavCalendar.uuid}")
-        caldavDao.updateParents(caldavCalendar.uuid!!)
-        localBroadcastManager.broadcastRefresh()
+        val members = changes.values.filterNotNull()
+        val deleted = changes.filterValues { it == null }.keys
+        Timber.d("sync-collection: ${members.size} changed, ${deleted.size} deleted")
+        return Changes(members, deleted, token)
     }
 
     private suspend fun pushLocalChanges(
         account: CaldavAccount,
         caldavCalendar: CaldavCalendar,
         httpClient: OkHttpClient,
-        httpUrl: HttpUrl
+        httpUrl: HttpUrl,
+        limiter: Semaphore,
     ) {
         for (task in caldavDao.getMoved(caldavCalendar.uuid!!)) {
-            deleteRemoteResource(httpClient, httpUrl, caldavCalendar, task)
+            deleteRemoteResource(httpClient, httpUrl, caldavCalendar, task, limiter)
         }
-        for (task in taskDao.getCaldavTasksToPush(caldavCalendar.uuid!!)) {
-            try {
-                pushTask(account, caldavCalendar, task, httpClient, httpUrl)
-            } catch (e: IOException) {
-                Timber.e(e)
+        val tasks = taskDao.getCaldavTasksToPush(caldavCalendar.uuid!!)
+        val caldavTasks = caldavDao.getTasks(tasks.map { it.id }).groupBy { it.task }
+        val vtodos = vtodoCache.getVtodos(caldavTasks.values.mapNotNull { it.firstOrNull() })
+        val results = coroutineScope {
+            tasks
+                .map { task ->
+                    async(Dispatchers.IO + classLoader) {
+                        try {
+                            val caldavTask = caldavTasks[task.id]?.firstOrNull()
+                                ?: return@async PushResult.Failed
+                            pushTask(
+                                account,
+                                caldavCalendar,
+                                task,
+                                caldavTask,
+                                vtodos[caldavTask.id],
+                                httpClient,
+                                httpUrl,
+                                limiter,
+                            )
+                        } catch (e: IOException) {
+                            Timber.e(e)
+                            PushResult.Failed
+                        }
+                    }
+                }
+                .awaitAll()
+        }
+        results
+            .filterIsInstance<PushResult.Conflict>()
+            .takeIf { it.isNotEmpty() }
+            ?.let { conflicts -> refetch(account, caldavCalendar, httpClient, httpUrl, conflicts, limiter) }
+    }
+
+    /**
+     * Fetch resources that were modified on the server after our last fetch. The remote changes
+     * are merged into the local tasks, which stay dirty and are pushed again on the next sync
+     */
+    private suspend fun refetch(
+        account: CaldavAccount,
+        caldavCalendar: CaldavCalendar,
+        httpClient: OkHttpClient,
+        httpUrl: HttpUrl,
+        conflicts: List<PushResult.Conflict>,
+        limiter: Semaphore,
+    ) {
+        Timber.d("CONFLICT %s", conflicts.map { it.obj })
+        val davCalendar = DavCalendar(httpClient, httpUrl)
+        for (items in conflicts.chunked(30)) {
+            val responses = ArrayList<Response>()
+            val urls = items.map { httpUrl.newBuilder().addPathSegment(it.obj).build() }
+            limiter.withPermit {
+                davCalendar.multiget(urls) { response, relation ->
+                    if (relation == HrefRelation.MEMBER && response.isSuccess()) {
+                        responses.add(response)
+                    }
+                }
             }
+            applyResponses(account, caldavCalendar, responses)
         }
+        localBroadcastManager.broadcastRefresh()
     }
 
     private suspend fun deleteRemoteResource(
         httpClient: OkHttpClient,
         httpUrl: HttpUrl,
         calendar: CaldavCalendar,
-        caldavTask: CaldavTask
+        caldavTask: CaldavTask,
+        limiter: Semaphore,
     ): Boolean {
         try {
             if (!isNullOrEmpty(caldavTask.obj)) {
                 val remote = DavResource(
                         httpClient, httpUrl.newBuilder().addPathSegment(caldavTask.obj!!).build())
-                remote.delete(null) {}
+                limiter.withPermit { remote.delete(null) {} }
             }
         } catch (e: HttpException) {
             if (e.code != 404) {
@@ -344,8 +555,10 @@ class CaldavSynchronizer @Inject constructor(
             Timber.e(e)
             return false
         }
-        vtodoCache.delete(calendar, caldavTask)
-        caldavDao.delete(caldavTask)
+        dbMutex.withLock {
+            vtodoCache.delete(calendar, caldavTask)
+            caldavDao.delete(caldavTask)
+        }
         return true
     }
 
@@ -353,39 +566,52 @@ class CaldavSynchronizer @Inject constructor(
         account: CaldavAccount,
         calendar: CaldavCalendar,
         task: Task,
+        caldavTask: CaldavTask,
+        vtodo: String?,
         httpClient: OkHttpClient,
-        httpUrl: HttpUrl
-    ) {
+        httpUrl: HttpUrl,
+        limiter: Semaphore,
+    ): PushResult = coroutineScope {
         Timber.d("pushing %s", task)
-        val caldavTask = caldavDao.getTask(task.id) ?: return
         if (task.isDeleted) {
-            if (deleteRemoteResource(httpClient, httpUrl, calendar, caldavTask)) {
-                taskDeleter.delete(task)
+            if (deleteRemoteResource(httpClient, httpUrl, calendar, caldavTask, limiter)) {
+                dbMutex.withLock { taskDeleter.delete(task) }
+                return@coroutineScope PushResult.Success
             }
-            return
+            return@coroutineScope PushResult.Failed
         }
-        val data = iCal.toVtodo(account, calendar, caldavTask, task)
+        val data = iCal.toVtodo(account, caldavTask, task, vtodo)
         val requestBody = data.toRequestBody(contentType = MIME_ICALENDAR)
+        val etag = caldavTask.etag?.takeIf(String::isNotBlank)
         try {
             val remote = DavResource(
                     httpClient, httpUrl.newBuilder().addPathSegment(caldavTask.obj!!).build())
-            remote.put(requestBody) {
-                if (it.isSuccessful) {
-                    fromResponse(it)?.eTag?.takeIf(String::isNotBlank)?.let { etag ->
-                        caldavTask.etag = etag
-                    }
-                    runBlocking {
-                        vtodoCache.putVtodo(calendar, caldavTask, String(data))
+            limiter.withPermit {
+                remote.put(
+                    requestBody,
+                    ifETag = etag,
+                    ifNoneMatch = etag == null && caldavTask.lastSync == 0L,
+                ) {
+                    if (it.isSuccessful) {
+                        caldavTask.etag = fromResponse(it)?.eTag?.takeIf(String::isNotBlank)
                     }
                 }
             }
         } catch (e: HttpException) {
+            if (e.code == 412) {
+                Timber.w("Precondition failed for %s", caldavTask)
+                return@coroutineScope PushResult.Conflict(caldavTask.obj!!)
+            }
             Timber.e(e)
-            return
+            return@coroutineScope PushResult.Failed
         }
         caldavTask.lastSync = task.modificationDate
-        caldavDao.update(caldavTask)
+        dbMutex.withLock {
+            vtodoCache.putVtodo(calendar, caldavTask, String(data))
+            caldavDao.update(caldavTask)
+        }
         Timber.d("SENT %s", caldavTask)
+        PushResult.Success
     }
 
     suspend fun Response.principals(
@@ -439,6 +665,18 @@ class CaldavSynchronizer @Inject constructor(
         return access
     }
 
+    private sealed interface PushResult {
+        data object Success : PushResult
+        data object Failed : PushResult
+        data class Conflict(val obj: String) : PushResult
+    }
+
+    private class Changes(
+        val members: List<Response>,
+        val deleted: Set<String>,
+        val syncToken: String? = null,
+    )
+
     companion object {
         init {
             prodId = ProdId("+//IDN tasks.org//android-" + BuildConfig.VERSION_CODE + "//EN")
@@ -453,6 +691,17 @@ class CaldavSynchronizer @Inject constructor(
             )
         }
 
+        /**
+         * sync-collection reports every member of a calendar, including events and journals
+         * on servers that mix components in one collection. Drop members whose calendar data
+         * has no VTODO so that they don't fail the page
+         */
+        internal fun List<Response>.vtodos(): List<Response> = filter { response ->
+            val iCalendar = response[CalendarData::class.java]?.iCalendar
+            (iCalendar.isNullOrBlank() || iCalendar.contains("BEGIN:VTODO", ignoreCase = true))
+                .also { if (!it) Timber.d("Skipping non-VTODO member %s", response.hrefName()) }
+        }
+
         val Response.ctag: String?
             get() = this[SyncToken::class.java]?.token ?: this[GetCTag::class.java]?.cTag
 
@@ -498,4 +747,22 @@ class CaldavSynchronizer @Inject constructor(
                 else -> INVITE_UNKNOWN
             }
     }
-}
\ No newline at end of file
+}
+
+/** Sets [loader] as the context class loader of each thread the coroutine runs on */
+private class ContextClassLoader(
+    private val loader: ClassLoader,
+) : ThreadContextElement<ClassLoader?> {
+    override val key: CoroutineContext.Key<ContextClassLoader> = Key
+
+    override fun updateThreadContext(context: CoroutineContext): ClassLoader? {
+        val thread = Thread.currentThread()
+        return thread.contextClassLoader.also { thread.contextClassLoader = loader }
+    }
+
+    override fun restoreThreadContext(context: CoroutineContext, oldState: ClassLoader?) {
+        Thread.currentThread().contextClassLoader = oldState
+    }
+
+    companion object Key : CoroutineContext.Key<ContextClassLoader>
+}
@@ -0,0 +1,107 @@
+package org.tasks.caldav
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import timber.log.Timber
+import java.io.File
+
+/** One file per VTODO, stored under account/calendar/object */
+internal class FileVtodoStorage(private val root: File) : VtodoStorage {
+    override suspend fun read(account: String?, calendar: String?, obj: String?) =
+        withContext(Dispatchers.IO) {
+            getFile(account, calendar, obj)?.takeIf { it.exists() }?.readText()
+        }
+
+    override suspend fun read(
+        account: String?,
+        calendar: String?,
+        objects: List<String>
+    ): Map<String, String> = withContext(Dispatchers.IO) {
+        objects
+            .mapNotNull { obj ->
+                getFile(account, calendar, obj)
+                    ?.takeIf { it.exists() }
+                    ?.let { obj to it.readText() }
+            }
+            .toMap()
+    }
+
+    override suspend fun write(account: String?, calendar: String?, obj: String, data: String?) {
+        withContext(Dispatchers.IO) {
+            val directory = getFile(account, calendar)?.apply { mkdirs() } ?: return@withContext
+            val file = File(directory, obj)
+            if (data.isNullOrBlank()) {
+                file.delete()
+            } else {
+                file.writeText(data)
+            }
+        }
+    }
+
+    override suspend fun move(
+        fromAccount: String?,
+        fromCalendar: String?,
+        toAccount: String?,
+        toCalendar: String?,
+        obj: String?,
+    ) {
+        withContext(Dispatchers.IO) {
+            val source = getFile(fromAccount, fromCalendar, obj)
+            if (source?.exists() != true) {
+                return@withContext
+            }
+            val target =
+                getFile(toAccount, toCalendar)
+                    ?.apply { mkdirs() }
+                    ?.let { File(it, obj!!) }
+                    ?: return@withContext
+            source.copyTo(target, overwrite = true)
+            val deleted = source.delete()
+            Timber.d("Moved $source to $target [success=${deleted}]")
+        }
+    }
+
+    override suspend fun delete(account: String?, calendar: String?, objects: List<String>) {
+        withContext(Dispatchers.IO) {
+            objects.forEach { obj ->
+                getFile(account, calendar, obj)?.let {
+                    val deleted = it.delete()
+                    Timber.d("Deleting $it [success=$deleted]")
+                }
+            }
+        }
+    }
+
+    override suspend fun deleteCalendar(account: String?, calendar: String?) {
+        withContext(Dispatchers.IO) {
+            getFile(account, calendar)?.let {
+                val deleted = it.deleteRecursively()
+                Timber.d("Deleting $it [success=$deleted]")
+            }
+        }
+    }
+
+    override suspend fun deleteAccount(account: String?) {
+        withContext(Dispatchers.IO) {
+            getFile(account)?.let {
+                val deleted = it.deleteRecursively()
+                Timber.d("Deleting $it [success=$deleted]")
+            }
+        }
+    }
+
+    override suspend fun clear() {
+        withContext(Dispatchers.IO) {
+            val deleted = root.deleteRecursively()
+            Timber.d("Deleting $root [success=$deleted]")
+        }
+    }
+
+    @Suppress("NULLABILITY_MISMATCH_BASED_ON_JAVA_ANNOTATIONS")
+    private fun getFile(vararg segments: String?): File? =
+        if (segments.none { it.isNullOrBlank() }) {
+            segments.fold(root) { f, p -> File(f, p) }
+        } else {
+            null
+        }
+}
@@ -0,0 +1,20 @@
+package org.tasks.caldav
+
+internal class MultigetChunkSizer(
+    initialSize: Int = 30,
+    private val minSize: Int = 10,
+    private val maxSize: Int = 240,
+    private val targetMillis: Long = 2000,
+    private val maxBytes: Long = 1_000_000,
+) {
+    var size: Int = initialSize.coerceIn(minSize, maxSize)
+        private set
+
+    fun update(elapsedMillis: Long, bytes: Long) {
+        size = when {
+            elapsedMillis > targetMillis || bytes > maxBytes -> size / 2
+            elapsedMillis < targetMillis / 2 && bytes < maxBytes / 2 -> size * 2
+            else -> size
+        }.coerceIn(minSize, maxSize)
+    }
+}
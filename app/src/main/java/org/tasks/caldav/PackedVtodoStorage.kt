@@ -0,0 +1,129 @@
+package org.tasks.caldav
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import timber.log.Timber
+import java.io.File
+
+/**
+ * Stores each calendar's VTODOs in a single compressed [VtodoPack] at account/calendar.pack.
+ *
+ * VTODOs left behind by [FileVtodoStorage] are moved into the pack the first time they are read.
+ */
+internal class PackedVtodoStorage(private val root: File) : VtodoStorage {
+    private val legacy = FileVtodoStorage(root)
+    private val packs = HashMap<File, VtodoPack>()
+
+    override suspend fun read(account: String?, calendar: String?, obj: String?): String? {
+        if (obj.isNullOrBlank()) {
+            return null
+        }
+        val pack = getPack(account, calendar) ?: return null
+        return withContext(Dispatchers.IO) { pack.read(obj) }
+            ?: legacy.read(account, calendar, obj)?.also { migrate(pack, account, calendar, mapOf(obj to it)) }
+    }
+
+    override suspend fun read(
+        account: String?,
+        calendar: String?,
+        objects: List<String>
+    ): Map<String, String> {
+        val pack = getPack(account, calendar) ?: return emptyMap()
+        val packed = withContext(Dispatchers.IO) { pack.read(objects) }
+        val missing = objects.filterNot { packed.containsKey(it) }
+        if (missing.isEmpty()) {
+            return packed
+        }
+        val migrated = legacy.read(account, calendar, missing)
+        migrate(pack, account, calendar, migrated)
+        return packed + migrated
+    }
+
+    override suspend fun write(account: String?, calendar: String?, obj: String, data: String?) {
+        val pack = getPack(account, calendar) ?: return
+        withContext(Dispatchers.IO) {
+            if (data.isNullOrBlank()) {
+                pack.delete(listOf(obj))
+            } else {
+                pack.write(obj, data)
+            }
+        }
+        legacy.delete(account, calendar, listOf(obj))
+    }
+
+    override suspend fun move(
+        fromAccount: String?,
+        fromCalendar: String?,
+        toAccount: String?,
+        toCalendar: String?,
+        obj: String?,
+    ) {
+        if (obj.isNullOrBlank()) {
+            return
+        }
+        val data = read(fromAccount, fromCalendar, obj) ?: return
+        write(toAccount, toCalendar, obj, data)
+        delete(fromAccount, fromCalendar, listOf(obj))
+        Timber.d("Moved $obj from $fromCalendar to $toCalendar")
+    }
+
+    override suspend fun delete(account: String?, calendar: String?, objects: List<String>) {
+        val pack = getPack(account, calendar) ?: return
+        withContext(Dispatchers.IO) { pack.delete(objects) }
+        legacy.delete(account, calendar, objects)
+    }
+
+    override suspend fun deleteCalendar(account: String?, calendar: String?) {
+        getPack(account, calendar)?.let { pack ->
+            withContext(Dispatchers.IO) { pack.deleteFile() }
+            Timber.d("Deleting ${pack.file}")
+        }
+        legacy.deleteCalendar(account, calendar)
+    }
+
+    override suspend fun deleteAccount(account: String?) {
+        if (account.isNullOrBlank()) {
+            return
+        }
+        val directory = File(root, account)
+        synchronized(packs) {
+            packs.keys.removeAll { it.parentFile == directory }
+        }
+        legacy.deleteAccount(account)
+    }
+
+    override suspend fun clear() {
+        synchronized(packs) {
+            packs.clear()
+        }
+        legacy.clear()
+    }
+
+    private suspend fun migrate(
+        pack: VtodoPack,
+        account: String?,
+        calendar: String?,
+        vtodos: Map<String, String>,
+    ) {
+        if (vtodos.isEmpty()) {
+            return
+        }
+        withContext(Dispatchers.IO) { pack.write(vtodos.toList()) }
+        legacy.delete(account, calendar, vtodos.keys.toList())
+        Timber.d("Migrated ${vtodos.size} VTODOs to ${pack.file}")
+    }
+
+    private fun getPack(account: String?, calendar: String?): VtodoPack? {
+        if (account.isNullOrBlank() || calendar.isNullOrBlank()) {
+            return null
+        }
+        val file = File(File(root, account), "$calendar$EXTENSION")
+        return synchronized(packs) {
+            packs.getOrPut(file) { VtodoPack(file) }
+        }
+    }
+
+    companion object {
+        private const val EXTENSION = ".pack"
+    }
+}
@@ -1,38 +1,30 @@
 package org.tasks.caldav
 
-import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.withContext
+import org.tasks.R
 import org.tasks.data.dao.CaldavDao
 import org.tasks.data.entity.CaldavAccount
 import org.tasks.data.entity.CaldavCalendar
 import org.tasks.data.entity.CaldavTask
-import timber.log.Timber
-import java.io.File
+import org.tasks.preferences.Preferences
 import javax.inject.Inject
 import javax.inject.Singleton
 
 @Singleton
 class VtodoCache @Inject constructor(
     private val caldavDao: CaldavDao,
-    private val fileStorage: FileStorage,
+    fileStorage: FileStorage,
+    preferences: Preferences,
 ) {
-    suspend fun move(from: CaldavCalendar, to: CaldavCalendar, task: CaldavTask) =
-        withContext(Dispatchers.IO) {
-            val source =
-                fileStorage.getFile(from.account, from.uuid, task.obj)
-            if (source?.exists() != true) {
-                return@withContext
-            }
-            val target =
-                fileStorage.getFile(to.account, to.uuid)
-                    ?.apply { mkdirs() }
-                    ?.let { File(it, task.obj!!) }
-                    ?: return@withContext
-            source.copyTo(target, overwrite = true)
-            val deleted = source.delete()
-            Timber.d("Moved $source to $target [success=${deleted}]")
+    private val storage: VtodoStorage =
+        if (preferences.getBoolean(R.string.p_vtodo_packed, false)) {
+            PackedVtodoStorage(fileStorage.root)
+        } else {
+            FileVtodoStorage(fileStorage.root)
         }
 
+    suspend fun move(from: CaldavCalendar, to: CaldavCalendar, task: CaldavTask) =
+        storage.move(from.account, from.uuid, to.account, to.uuid, task.obj)
+
     suspend fun getVtodo(caldavTask: CaldavTask?): String? {
         if (caldavTask == null) {
             return null
@@ -41,56 +33,43 @@ class VtodoCache @Inject constructor(
         return getVtodo(calendar, caldavTask)
     }
 
-    suspend fun getVtodo(calendar: CaldavCalendar?, caldavTask: CaldavTask?): String? {
-        val file = fileStorage.getFile(
-            calendar?.account,
-            caldavTask?.calendar,
-            caldavTask?.obj
-        )
-        return fileStorage.read(file)
+    suspend fun getVtodo(calendar: CaldavCalendar?, caldavTask: CaldavTask?): String? =
+        storage.read(calendar?.account, caldavTask?.calendar, caldavTask?.obj)
+
+    /** @return cached VTODOs keyed by [CaldavTask.id] */
+    suspend fun getVtodos(caldavTasks: List<CaldavTask>): Map<Long, String> {
+        val result = HashMap<Long, String>()
+        caldavTasks
+            .filter { !it.obj.isNullOrBlank() }
+            .groupBy { it.calendar }
+            .forEach { (uuid, tasks) ->
+                val calendar = uuid?.let { caldavDao.getCalendar(it) } ?: return@forEach
+                val vtodos = storage.read(calendar.account, uuid, tasks.map { it.obj!! })
+                tasks.forEach { task -> vtodos[task.obj]?.let { result[task.id] = it } }
+            }
+        return result
     }
 
     suspend fun putVtodo(calendar: CaldavCalendar, caldavTask: CaldavTask, vtodo: String?) {
         val `object` = caldavTask.obj?.takeIf { it.isNotBlank() } ?: return
-        withContext(Dispatchers.IO) {
-            val directory =
-                fileStorage
-                    .getFile(calendar.account, caldavTask.calendar)
-                    ?.apply { mkdirs() }
-                    ?: return@withContext
-            fileStorage.write(File(directory, `object`), vtodo)
-        }
+        storage.write(calendar.account, caldavTask.calendar, `object`, vtodo)
     }
 
     suspend fun delete(calendar: CaldavCalendar, tasks: List<CaldavTask>) {
-        tasks.forEach { delete(calendar, it) }
+        tasks
+            .groupBy { it.calendar }
+            .forEach { (uuid, tasks) ->
+                storage.delete(calendar.account, uuid, tasks.mapNotNull { it.obj })
+            }
     }
 
-    suspend fun delete(calendar: CaldavCalendar, caldavTask: CaldavTask) = withContext(Dispatchers.IO) {
-        fileStorage.getFile(calendar.account, caldavTask.calendar, caldavTask.obj)?.let {
-            val deleted = it.delete()
-            Timber.d("Deleting $it [success=$deleted]")
-        }
-    }
+    suspend fun delete(calendar: CaldavCalendar, caldavTask: CaldavTask) =
+        delete(calendar, listOf(caldavTask))
 
-    suspend fun delete(calendar: CaldavCalendar) = withContext(Dispatchers.IO) {
-        fileStorage.getFile(calendar.account, calendar.uuid)?.let {
-            val deleted = it.deleteRecursively()
-            Timber.d("Deleting $it [success=$deleted]")
-        }
-    }
+    suspend fun delete(calendar: CaldavCalendar) =
+        storage.deleteCalendar(calendar.account, calendar.uuid)
 
-    suspend fun delete(account: CaldavAccount) = withContext(Dispatchers.IO) {
-        fileStorage.getFile(account.uuid)?.let {
-            val deleted = it.deleteRecursively()
-            Timber.d("Deleting $it [success=$deleted]")
-        }
-    }
+    suspend fun delete(account: CaldavAccount) = storage.deleteAccount(account.uuid)
 
-    suspend fun clear() = withContext(Dispatchers.IO) {
-        fileStorage.getFile()?.let {
-            val deleted = it.deleteRecursively()
-            Timber.d("Deleting $it [success=$deleted]")
-        }
-    }
+    suspend fun clear() = storage.clear()
 }
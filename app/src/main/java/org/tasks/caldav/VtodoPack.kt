@@ -0,0 +1,219 @@
+package org.tasks.caldav
+
+import timber.log.Timber
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.EOFException
+import java.io.File
+import java.io.RandomAccessFile
+import java.util.zip.Deflater
+import java.util.zip.DeflaterOutputStream
+import java.util.zip.InflaterInputStream
+
+/**
+ * Append-only store holding the compressed VTODOs of a single calendar.
+ *
+ * Each record is `[key length][key][data length][deflated data]`, a data length of -1 marks a
+ * deletion. The index is rebuilt by scanning the file when the pack is opened, discarding
+ * everything from the first record that is incomplete or has an invalid length, and the file is
+ * rewritten once more than half of it is occupied by stale records.
+ */
+internal class VtodoPack(val file: File) {
+    private val index = HashMap<String, Entry>()
+    private var size = 0L
+    private var garbage = 0L
+    private var loaded = false
+
+    @Synchronized
+    fun read(key: String): String? {
+        load()
+        val entry = index[key] ?: return null
+        return RandomAccessFile(file, "r").use { raf -> raf.read(entry) }
+    }
+
+    @Synchronized
+    fun read(keys: Collection<String>): Map<String, String> {
+        load()
+        val entries = keys.mapNotNull { key -> index[key]?.let { key to it } }
+        if (entries.isEmpty()) {
+            return emptyMap()
+        }
+        return RandomAccessFile(file, "r").use { raf ->
+            entries
+                .sortedBy { (_, entry) -> entry.offset }
+                .associate { (key, entry) -> key to raf.read(entry) }
+        }
+    }
+
+    @Synchronized
+    fun write(key: String, data: String) = write(listOf(key to data))
+
+    @Synchronized
+    fun write(values: List<Pair<String, String>>) {
+        if (values.isEmpty()) {
+            return
+        }
+        load()
+        file.parentFile?.mkdirs()
+        RandomAccessFile(file, "rw").use { raf ->
+            raf.seek(size)
+            values.forEach { (key, data) ->
+                val keyBytes = key.toByteArray()
+                val compressed = data.deflate()
+                raf.writeInt(keyBytes.size)
+                raf.write(keyBytes)
+                raf.writeInt(compressed.size)
+                raf.write(compressed)
+                val entry = Entry(size + 8 + keyBytes.size, compressed.size)
+                index.put(key, entry)?.let { garbage += it.recordSize(key) }
+                size = raf.filePointer
+            }
+        }
+        compactIfNeeded()
+    }
+
+    @Synchronized
+    fun delete(keys: Collection<String>) {
+        load()
+        val removed = keys.filter { index.containsKey(it) }
+        if (removed.isEmpty()) {
+            return
+        }
+        RandomAccessFile(file, "rw").use { raf ->
+            raf.seek(size)
+            removed.forEach { key ->
+                val keyBytes = key.toByteArray()
+                raf.writeInt(keyBytes.size)
+                raf.write(keyBytes)
+                raf.writeInt(TOMBSTONE)
+                garbage += index.remove(key)!!.recordSize(key) + 8 + keyBytes.size
+                size = raf.filePointer
+            }
+        }
+        if (index.isEmpty()) {
+            deleteFile()
+        } else {
+            compactIfNeeded()
+        }
+    }
+
+    @Synchronized
+    fun deleteFile() {
+        index.clear()
+        size = 0
+        garbage = 0
+        loaded = true
+        file.delete()
+    }
+
+    private fun load() {
+        if (loaded) {
+            return
+        }
+        loaded = true
+        if (!file.exists()) {
+            return
+        }
+        val fileSize = file.length()
+        var offset = 0L
+        try {
+            DataInputStream(file.inputStream().buffered()).use { input ->
+                while (true) {
+                    val keyLength = try {
+                        input.readInt()
+                    } catch (e: EOFException) {
+                        break
+                    }
+                    val dataOffset = offset + 8 + keyLength
+                    if (keyLength < 0 || dataOffset > fileSize) {
+                        throw EOFException("Invalid key length $keyLength")
+                    }
+                    val key = ByteArray(keyLength).also { input.readFully(it) }.decodeToString()
+                    val length = input.readInt()
+                    if (length != TOMBSTONE && (length < 0 || dataOffset + length > fileSize)) {
+                        throw EOFException("Invalid data length $length")
+                    }
+                    if (length == TOMBSTONE) {
+                        index.remove(key)?.let { garbage += it.recordSize(key) }
+                        garbage += 8 + keyLength
+                        offset = dataOffset
+                    } else {
+                        input.skipFully(length)
+                        index.put(key, Entry(dataOffset, length))?.let { garbage += it.recordSize(key) }
+                        offset = dataOffset + length
+                    }
+                }
+            }
+        } catch (e: EOFException) {
+            Timber.w(e, "Truncating invalid or incomplete record in $file at $offset")
+            RandomAccessFile(file, "rw").use { it.setLength(offset) }
+        }
+        size = offset
+    }
+
+    private fun compactIfNeeded() {
+        if (garbage < MIN_COMPACT_BYTES || garbage * 2 < size) {
+            return
+        }
+        Timber.d("Compacting $file [size=$size garbage=$garbage]")
+        val values = RandomAccessFile(file, "r").use { raf ->
+            index.entries
+                .sortedBy { it.value.offset }
+                .map { (key, entry) -> key to raf.read(entry) }
+        }
+        val temp = File(file.parentFile, "${file.name}.tmp")
+        temp.delete()
+        val compacted = VtodoPack(temp)
+        compacted.write(values)
+        if (!temp.renameTo(file)) {
+            Timber.e("Failed to replace $file")
+            temp.delete()
+            return
+        }
+        index.clear()
+        index.putAll(compacted.index)
+        size = compacted.size
+        garbage = 0
+    }
+
+    private class Entry(val offset: Long, val length: Int) {
+        fun recordSize(key: String) = 8L + key.toByteArray().size + length
+    }
+
+    companion object {
+        private const val TOMBSTONE = -1
+        private const val MIN_COMPACT_BYTES = 64 * 1024L
+
+        private fun RandomAccessFile.read(entry: Entry): String {
+            val bytes = ByteArray(entry.length)
+            seek(entry.offset)
+            readFully(bytes)
+            return bytes.inflate()
+        }
+
+        private fun String.deflate(): ByteArray {
+            val output = ByteArrayOutputStream()
+            val deflater = Deflater(Deflater.BEST_SPEED)
+            try {
+                DeflaterOutputStream(output, deflater).use { it.write(toByteArray()) }
+            } finally {
+                deflater.end()
+            }
+            return output.toByteArray()
+        }
+
+        private fun ByteArray.inflate(): String =
+            InflaterInputStream(inputStream()).use { it.readBytes().decodeToString() }
+
+        private fun DataInputStream.skipFully(count: Int) {
+            var remaining = count
+            while (remaining > 0) {
+                val skipped = skipBytes(remaining)
+                if (skipped <= 0) {
+                    throw EOFException()
+                }
+                remaining -= skipped
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package org.tasks.caldav
+
+internal interface VtodoStorage {
+    suspend fun read(account: String?, calendar: String?, obj: String?): String?
+
+    suspend fun read(account: String?, calendar: String?, objects: List<String>): Map<String, String>
+
+    suspend fun write(account: String?, calendar: String?, obj: String, data: String?)
+
+    suspend fun move(
+        fromAccount: String?,
+        fromCalendar: String?,
+        toAccount: String?,
+        toCalendar: String?,
+        obj: String?,
+    )
+
+    suspend fun delete(account: String?, calendar: String?, objects: List<String>)
+
+    suspend fun deleteCalendar(account: String?, calendar: String?)
+
+    suspend fun deleteAccount(account: String?)
+
+    suspend fun clear()
+}
@@ -146,10 +146,16 @@ class iCalendar @Inject constructor(
         calendar: CaldavCalendar,
         caldavTask: CaldavTask,
         task: org.tasks.data.entity.Task
+    ): ByteArray = toVtodo(account, caldavTask, task, vtodoCache.getVtodo(calendar, caldavTask))
+
+    suspend fun toVtodo(
+        account: CaldavAccount,
+        caldavTask: CaldavTask,
+        task: org.tasks.data.entity.Task,
+        vtodo: String?,
     ): ByteArray {
         var remoteModel: Task? = null
         try {
-            val vtodo = vtodoCache.getVtodo(calendar, caldavTask)
             if (vtodo?.isNotBlank() == true) {
                 remoteModel = fromVtodo(vtodo)
             }
@@ -12,8 +12,8 @@ import kotlinx.coroutines.SupervisorJob
 import kotlinx.coroutines.launch
 import org.tasks.LocalBroadcastManager
 import org.tasks.R
+import org.tasks.data.FilterResultCache
 import org.tasks.data.dao.TaskDao
-import org.tasks.data.count
 import org.tasks.data.fetchFiltered
 import org.tasks.intents.TaskIntents
 import org.tasks.preferences.DefaultFilterProvider
@@ -28,6 +28,7 @@ class DashClockExtension : DashClockExtension() {
 
     @Inject lateinit var defaultFilterProvider: DefaultFilterProvider
     @Inject lateinit var taskDao: TaskDao
+    @Inject lateinit var filterResultCache: FilterResultCache
     @Inject lateinit var preferences: Preferences
     @Inject lateinit var localBroadcastManager: LocalBroadcastManager
 
@@ -55,7 +56,7 @@ class DashClockExtension : DashClockExtension() {
     private fun refresh() = scope.launch {
         val filterPreference = preferences.getStringValue(R.string.p_dashclock_filter)
         val filter = defaultFilterProvider.getFilterFromPreference(filterPreference)
-        val count = taskDao.count(filter)
+        val count = filterResultCache.count(filter)
         if (count == 0) {
             publish(null)
         } else {
@@ -0,0 +1,101 @@
+package org.tasks.data
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.async
+import org.tasks.data.dao.TaskDao
+import org.tasks.data.sql.BoundQuery
+import org.tasks.data.sql.Field
+import org.tasks.date.DateTimeUtils.midnight
+import org.tasks.filters.Filter
+import org.tasks.injection.ApplicationScope
+import org.tasks.preferences.QueryPreferences
+import org.tasks.time.DateTimeUtils2.currentTimeMillis
+import javax.inject.Inject
+import javax.inject.Singleton
+import kotlin.math.min
+
+/**
+ * Query results shared by the widgets, badge, DashClock and wear. Results are keyed by their SQL,
+ * which already reflects the filter and query preferences, and are dropped whenever
+ * [InvalidationBus] delivers a change to the data or the current time passes the next due date,
+ * hide until date or midnight. Concurrent requests for the same query wait for a single load.
+ *
+ * Each caller gets its own copy of the rows, so they can be modified without affecting the cache.
+ */
+@Singleton
+class FilterResultCache @Inject constructor(
+    private val taskDao: TaskDao,
+    private val invalidationBus: InvalidationBus,
+    @ApplicationScope private val scope: CoroutineScope,
+) {
+    private class Entry<T>(val generation: Long, val value: Deferred<T>) {
+        @Volatile var nextRefresh = Long.MAX_VALUE
+    }
+
+    private val tasks = Cache<List<TaskContainer>>()
+    private val counts = Cache<Int>()
+
+    suspend fun fetchTasks(preferences: QueryPreferences, filter: Filter): List<TaskContainer> =
+        fetchTasks(TaskListQuery.getQuery(preferences, filter))
+
+    suspend fun fetchTasks(query: BoundQuery): List<TaskContainer> =
+        tasks.get(query.sql) { taskDao.fetchTasks(query) }.map { it.copyOf() }
+
+    suspend fun count(filter: Filter): Int {
+        val query = getQuery(filter.sql!!, Field.COUNT)
+        return counts.get(query.sql) { taskDao.count(query) }
+    }
+
+    private inner class Cache<T> {
+        private val entries = object : LinkedHashMap<String, Entry<T>>(16, 0.75f, true) {
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Entry<T>>?) =
+                size > MAX_ENTRIES
+        }
+
+        suspend fun get(key: String, load: suspend () -> T): T {
+            val generation = invalidationBus.generation
+            val now = currentTimeMillis()
+            val entry = synchronized(entries) {
+                entries[key]
+                    ?.takeIf { it.generation == generation && now < it.nextRefresh }
+                    ?: newEntry(generation, load).also { entries[key] = it }
+            }
+            return try {
+                entry.value.await()
+            } catch (e: Exception) {
+                synchronized(entries) {
+                    if (entry.value.isCompleted && entries[key] === entry) {
+                        entries.remove(key)
+                    }
+                }
+                throw e
+            }
+        }
+
+        private fun newEntry(generation: Long, load: suspend () -> T): Entry<T> {
+            lateinit var entry: Entry<T>
+            entry = Entry(
+                generation,
+                scope.async(start = CoroutineStart.LAZY) {
+                    entry.nextRefresh = min(taskDao.nextRefresh(), midnight())
+                    load()
+                }
+            )
+            return entry
+        }
+    }
+
+    companion object {
+        private const val MAX_ENTRIES = 16
+
+        private fun TaskContainer.copyOf() = copy(
+            task = task.copy(transitoryData = null).also {
+                if (task.isNotesPreview) it.markNotesPreview()
+            },
+            caldavTask = caldavTask?.copy(),
+            location = location?.let { it.copy(geofence = it.geofence.copy(), place = it.place.copy()) },
+        )
+    }
+}
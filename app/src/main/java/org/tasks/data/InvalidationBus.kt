@@ -0,0 +1,162 @@
+package org.tasks.data
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.SharedFlow
+import kotlinx.coroutines.flow.SharingStarted
+import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.flow.filter
+import kotlinx.coroutines.flow.mapNotNull
+import kotlinx.coroutines.flow.merge
+import kotlinx.coroutines.flow.onEach
+import kotlinx.coroutines.flow.receiveAsFlow
+import kotlinx.coroutines.flow.shareIn
+import kotlinx.coroutines.launch
+import org.tasks.data.db.Database
+import org.tasks.data.db.TaskWriteLog
+import org.tasks.data.entity.CaldavAccount
+import org.tasks.data.entity.CaldavCalendar
+import org.tasks.data.entity.CaldavTask
+import org.tasks.data.entity.Geofence
+import org.tasks.data.entity.Notification
+import org.tasks.data.entity.Place
+import org.tasks.data.entity.Tag
+import org.tasks.data.entity.Task
+import org.tasks.injection.ApplicationScope
+import java.util.concurrent.atomic.AtomicLong
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Database invalidations, observed through Room's invalidation tracker and reported by writers
+ * that know which tasks they changed. Everything that happens within a frame is delivered as a
+ * single [Invalidation], so a burst of writes refreshes each subscriber once.
+ *
+ * The tracker doesn't say which tasks were written. Reported writes are excluded from
+ * [TaskWriteLog], a tracked write to tasks is left to its report only if the log shows that
+ * nothing else was written since the previous one.
+ */
+@Singleton
+class InvalidationBus @Inject constructor(
+    private val database: Database,
+    @ApplicationScope scope: CoroutineScope,
+) {
+    /**
+     * @param tables tables that were written to, or null if anything may have changed
+     * @param tasks tasks reported as changed, or null if a change wasn't reported with its tasks
+     * @param time the current time may have crossed a due date, hide until date or midnight
+     */
+    data class Invalidation(
+        val tables: Set<String>? = null,
+        val tasks: Set<Long>? = null,
+        val time: Boolean = tables == null,
+    ) {
+        fun affects(tables: Set<String>) = this.tables?.any { it in tables } ?: true
+
+        /** Only the current time has changed, results that are still valid can be kept */
+        val timeOnly: Boolean
+            get() = tables?.isEmpty() == true
+
+        /** The reported tasks, if they are the only change to [tables] */
+        fun changedTasks(tables: Set<String>): Set<Long>? =
+            tasks?.takeIf {
+                it.isNotEmpty() && this.tables?.intersect(tables) == setOf(Task.TABLE_NAME)
+            }
+
+        operator fun plus(other: Invalidation) = Invalidation(
+            tables = tables?.let { other.tables?.plus(it) },
+            tasks = tasks?.let { other.tasks?.plus(it) },
+            time = time || other.time,
+        )
+    }
+
+    private val reports = Channel<Invalidation>(Channel.UNLIMITED)
+
+    private val _generation = AtomicLong()
+
+    /** Incremented before each [Invalidation] that changes data is delivered */
+    val generation: Long
+        get() = _generation.get()
+
+    val invalidations: SharedFlow<Invalidation> =
+        merge(
+            reports.receiveAsFlow(),
+            database.invalidationTracker
+                .createFlow(*TASK_LIST.toTypedArray(), emitInitialState = false)
+                .mapNotNull { tracked(it) },
+        )
+            .coalesce(FRAME_MILLIS)
+            .onEach { if (!it.timeOnly) _generation.incrementAndGet() }
+            .shareIn(scope, SharingStarted.Eagerly)
+
+    private var unreported = -1L
+
+    /** Tables written to, minus tasks if every write to it was reported */
+    private suspend fun tracked(tables: Set<String>): Invalidation? {
+        if (Task.TABLE_NAME !in tables) {
+            return Invalidation(tables = tables)
+        }
+        val count = TaskWriteLog.unreported(database)
+        val reported = count == unreported
+        unreported = count
+        return when {
+            !reported -> Invalidation(tables = tables)
+            tables.size == 1 -> null
+            else -> Invalidation(tables = tables - Task.TABLE_NAME)
+        }
+    }
+
+    /** Invalidations that affect [tables], and those where only the current time has changed */
+    fun subscribe(tables: Set<String>): Flow<Invalidation> =
+        invalidations.filter { it.time || it.affects(tables) }
+
+    /** Anything may have changed, including preferences that affect how data is shown */
+    fun invalidate() {
+        reports.trySend(Invalidation())
+    }
+
+    fun invalidate(tasks: Collection<Long>) {
+        reports.trySend(Invalidation(tables = setOf(Task.TABLE_NAME), tasks = tasks.toSet()))
+    }
+
+    /** Time has passed, subscribers re-query if a boundary of their results has been crossed */
+    fun tick() {
+        reports.trySend(Invalidation(tables = emptySet(), tasks = emptySet(), time = true))
+    }
+
+    companion object {
+        const val FRAME_MILLIS = 16L
+
+        /** Tables read by task list and filter queries */
+        val TASK_LIST = setOf(
+            Task.TABLE_NAME,
+            CaldavTask.TABLE.name(),
+            CaldavCalendar.TABLE.name(),
+            CaldavAccount.TABLE.name(),
+            Tag.TABLE.name(),
+            Geofence.TABLE_NAME,
+            Place.TABLE_NAME,
+            Notification.TABLE_NAME,
+        )
+
+        /** Merges everything emitted within [windowMillis] of the first emission */
+        internal fun Flow<Invalidation>.coalesce(windowMillis: Long): Flow<Invalidation> =
+            channelFlow {
+                val upstream = Channel<Invalidation>(Channel.UNLIMITED)
+                launch {
+                    collect { upstream.send(it) }
+                    upstream.close()
+                }
+                for (first in upstream) {
+                    delay(windowMillis)
+                    var merged = first
+                    while (true) {
+                        merged += upstream.tryReceive().getOrNull() ?: break
+                    }
+                    send(merged)
+                }
+            }
+    }
+}
@@ -4,10 +4,15 @@ import com.todoroo.astrid.api.PermaSql
 import org.tasks.data.dao.TaskDao
 import org.tasks.data.db.SuspendDbUtils.eachChunk
 import org.tasks.data.entity.Task
+import org.tasks.data.sql.BoundQuery
 import org.tasks.data.sql.Field
+import org.tasks.data.sql.Functions
 import org.tasks.data.sql.Query
+import org.tasks.date.DateTimeUtils.midnight
+import org.tasks.db.QueryUtils
 import org.tasks.filters.Filter
 import org.tasks.preferences.QueryPreferences
+import kotlin.math.min
 
 suspend fun TaskDao.fetchTasks(preferences: QueryPreferences, filter: Filter): List<TaskContainer> =
     fetchTasks(TaskListQuery.getQuery(preferences, filter))
@@ -29,8 +34,28 @@ suspend fun TaskDao.fetchFiltered(queryTemplate: String): List<Task> {
 
 suspend fun TaskDao.count(filter: Filter): Int = count(getQuery(filter.sql!!, Field.COUNT))
 
-private fun getQuery(queryTemplate: String, vararg fields: Field): String =
-    Query.select(*fields)
-        .withQueryTemplate(PermaSql.replacePlaceholdersForQuery(queryTemplate))
-        .from(Task.TABLE)
-        .toString()
+/**
+ * The next time that the results for [filter] could change without a write to the database:
+ * midnight, or the next due date or hide until date of a task in the filter. Filters that compare
+ * against the current time could pick up any task, so they use the next boundary of all tasks.
+ */
+suspend fun TaskDao.nextRefresh(filter: Filter): Long {
+    val queryTemplate = QueryUtils.showHidden(QueryUtils.removeOrder(filter.sql!!))
+    val next = if (
+        queryTemplate.contains(PermaSql.VALUE_NOW) ||
+        queryTemplate.contains(Functions.now().toString())
+    ) {
+        nextRefresh()
+    } else {
+        nextRefresh(getQuery(queryTemplate, TaskDao.TaskCriteria.nextRefresh()))
+    }
+    return min(next, midnight())
+}
+
+internal fun getQuery(queryTemplate: String, vararg fields: Field): BoundQuery =
+    PermaSql.bindPlaceholdersForQuery(
+        Query.select(*fields)
+            .withQueryTemplate(queryTemplate)
+            .from(Task.TABLE)
+            .toString()
+    )
@@ -9,6 +9,9 @@ import kotlinx.coroutines.runBlocking
 import org.tasks.R
 import org.tasks.caldav.FileStorage
 import org.tasks.data.NO_ORDER
+import org.tasks.data.db.TaskHierarchy
+import org.tasks.data.db.TaskSearch
+import org.tasks.data.db.TaskSortKey
 import org.tasks.data.entity.Alarm.Companion.TYPE_RANDOM
 import org.tasks.data.entity.Alarm.Companion.TYPE_REL_END
 import org.tasks.data.entity.Alarm.Companion.TYPE_REL_START
@@ -628,6 +631,51 @@ object Migrations {
         }
     }
 
+    private val MIGRATION_89_90 = object : Migration(89, 90) {
+        override fun migrate(connection: SQLiteConnection) {
+            connection.execSQL("CREATE INDEX IF NOT EXISTS `index_caldav_tasks_cd_calendar_cd_object` ON `caldav_tasks` (`cd_calendar`, `cd_object`)")
+        }
+    }
+
+    private val MIGRATION_90_91 = object : Migration(90, 91) {
+        override fun migrate(connection: SQLiteConnection) {
+            TaskSearch.rebuild(connection)
+        }
+    }
+
+    private val MIGRATION_91_92 = object : Migration(91, 92) {
+        override fun migrate(connection: SQLiteConnection) {
+            connection.execSQL("CREATE INDEX IF NOT EXISTS `index_tasks_parent` ON `tasks` (`parent`)")
+            connection.execSQL("CREATE TABLE IF NOT EXISTS `task_tree` (`ancestor` INTEGER NOT NULL, `descendant` INTEGER NOT NULL, `depth` INTEGER NOT NULL, PRIMARY KEY(`ancestor`, `descendant`))")
+            connection.execSQL("CREATE INDEX IF NOT EXISTS `index_task_tree_descendant` ON `task_tree` (`descendant`)")
+            TaskHierarchy.rebuild(connection)
+        }
+    }
+
+    private val MIGRATION_92_93 = object : Migration(92, 93) {
+        override fun migrate(connection: SQLiteConnection) {
+            connection.execSQL("CREATE INDEX IF NOT EXISTS `index_tasks_dueDate` ON `tasks` (`dueDate`)")
+            connection.execSQL("CREATE INDEX IF NOT EXISTS `index_tasks_modified` ON `tasks` (`modified`)")
+            connection.execSQL("CREATE INDEX IF NOT EXISTS `index_tasks_timerStart` ON `tasks` (`timerStart`)")
+            connection.execSQL("CREATE INDEX IF NOT EXISTS `index_tags_tag_uid_task` ON `tags` (`tag_uid`, `task`)")
+            connection.execSQL("DROP INDEX IF EXISTS `index_alarms_task`")
+            connection.execSQL("CREATE INDEX IF NOT EXISTS `index_alarms_task_type` ON `alarms` (`task`, `type`)")
+            connection.execSQL("CREATE INDEX IF NOT EXISTS `index_alarms_type_time` ON `alarms` (`type`, `time`)")
+            connection.execSQL("CREATE INDEX IF NOT EXISTS `index_geofences_place` ON `geofences` (`place`)")
+            connection.execSQL("CREATE INDEX IF NOT EXISTS `index_caldav_tasks_cd_remote_id` ON `caldav_tasks` (`cd_remote_id`)")
+            connection.execSQL("CREATE INDEX IF NOT EXISTS `index_caldav_lists_cdl_uuid` ON `caldav_lists` (`cdl_uuid`)")
+            connection.execSQL("CREATE INDEX IF NOT EXISTS `index_caldav_accounts_cda_uuid` ON `caldav_accounts` (`cda_uuid`)")
+        }
+    }
+
+    private val MIGRATION_93_94 = object : Migration(93, 94) {
+        override fun migrate(connection: SQLiteConnection) {
+            connection.execSQL("ALTER TABLE `tasks` ADD COLUMN `sort_title` TEXT")
+            TaskSortKey.rebuild(connection)
+            connection.execSQL("CREATE INDEX IF NOT EXISTS `index_tasks_sort_title` ON `tasks` (`sort_title`)")
+        }
+    }
+
     fun migrations(
         context: Context,
         fileStorage: FileStorage
@@ -675,6 +723,11 @@ object Migrations {
             MIGRATION_85_86,
             MIGRATION_86_87,
             migration_87_88(context),
+            MIGRATION_89_90,
+            MIGRATION_90_91,
+            MIGRATION_91_92,
+            MIGRATION_92_93,
+            MIGRATION_93_94,
     )
 
     private fun noop(from: Int, to: Int): Migration = object : Migration(from, to) {
@@ -1,6 +1,11 @@
 package org.tasks.googleapis
 
+import com.google.api.client.googleapis.batch.BatchRequest
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback
+import com.google.api.client.googleapis.json.GoogleJsonError
+import com.google.api.client.googleapis.json.GoogleJsonResponseException
 import com.google.api.client.googleapis.services.json.AbstractGoogleJsonClientRequest
+import com.google.api.client.http.HttpHeaders
 import com.google.api.client.http.HttpResponseException
 import com.google.api.client.json.GenericJson
 import com.todoroo.astrid.gtasks.api.HttpCredentialsAdapter
@@ -38,6 +43,60 @@ abstract class BaseInvoker(
                 response
             }
 
+    /**
+     * Sends [requests] in multipart batches of up to [MAX_BATCH_SIZE]. The server may run the
+     * requests of a batch in any order. Requests rejected with a 401 are retried once with a new
+     * token.
+     *
+     * Each batch's results are passed to [onResult] by request index before the next batch is
+     * sent, so a failure to send a later batch doesn't lose the results of earlier ones. A failed
+     * result holds the exception [execute] would have thrown for it.
+     */
+    @Throws(IOException::class)
+    protected suspend fun executeBatch(
+        requests: List<AbstractGoogleJsonClientRequest<*>>,
+        newBatch: () -> BatchRequest,
+        onResult: suspend (Int, Result<Any?>) -> Unit,
+    ) = withContext(Dispatchers.IO) {
+        for (chunk in requests.indices.chunked(MAX_BATCH_SIZE)) {
+            val results = HashMap<Int, Result<Any?>>()
+            var pending = chunk
+            var retry = false
+            while (pending.isNotEmpty()) {
+                credentialsAdapter.checkToken()
+                val unauthorized = ArrayList<Int>()
+                val batch = newBatch()
+                for (index in pending) {
+                    val callback = object : JsonBatchCallback<Any?>() {
+                        override fun onSuccess(response: Any?, responseHeaders: HttpHeaders) {
+                            results[index] = Result.success(response)
+                        }
+
+                        override fun onFailure(error: GoogleJsonError, responseHeaders: HttpHeaders) {
+                            if (error.code == 401 && !retry) {
+                                unauthorized.add(index)
+                            } else {
+                                results[index] = Result.failure(error.toException(responseHeaders))
+                            }
+                        }
+                    }
+                    @Suppress("UNCHECKED_CAST")
+                    (requests[index] as AbstractGoogleJsonClientRequest<Any?>).queue(batch, callback)
+                }
+                Timber.d("%s: batch of %d", caller, pending.size)
+                batch.execute()
+                if (unauthorized.isNotEmpty()) {
+                    credentialsAdapter.invalidateToken()
+                }
+                pending = unauthorized
+                retry = true
+            }
+            for (index in chunk) {
+                onResult(index, results[index]!!)
+            }
+        }
+    }
+
     @Throws(IOException::class)
     private fun <T> prettyPrint(`object`: T?): Any? {
         if (BuildConfig.DEBUG) {
@@ -58,5 +117,14 @@ abstract class BaseInvoker(
 
     companion object {
         const val APP_NAME = "Tasks/${BuildConfig.VERSION_NAME}"
+        const val MAX_BATCH_SIZE = 50
+
+        private fun GoogleJsonError.toException(headers: HttpHeaders): IOException {
+            val exception = GoogleJsonResponseException(
+                HttpResponseException.Builder(code, message, headers),
+                this
+            )
+            return if (code == 404) HttpNotFoundException(exception) else exception
+        }
     }
 }
\ No newline at end of file
@@ -1,8 +1,11 @@
 package org.tasks.gtasks
 
 import android.content.Context
+import androidx.room.immediateTransaction
+import androidx.room.useWriterConnection
 import com.google.api.client.googleapis.json.GoogleJsonResponseException
 import com.google.api.client.util.DateTime
+import com.google.api.services.tasks.TasksRequest
 import com.google.api.services.tasks.model.Task
 import com.google.api.services.tasks.model.TaskList
 import com.google.api.services.tasks.model.Tasks
@@ -15,6 +18,12 @@ import com.todoroo.astrid.service.TaskCreator
 import com.todoroo.astrid.service.TaskCreator.Companion.getDefaultAlarms
 import com.todoroo.astrid.service.TaskDeleter
 import dagger.hilt.android.qualifiers.ApplicationContext
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
 import org.tasks.LocalBroadcastManager
 import org.tasks.R
 import org.tasks.Strings.isNullOrEmpty
@@ -23,6 +32,7 @@ import org.tasks.data.*
 import org.tasks.data.dao.AlarmDao
 import org.tasks.data.dao.CaldavDao
 import org.tasks.data.dao.GoogleTaskDao
+import org.tasks.data.db.Database
 import org.tasks.data.entity.CaldavAccount
 import org.tasks.data.entity.CaldavCalendar
 import org.tasks.data.entity.CaldavTask
@@ -59,6 +69,7 @@ class GoogleTaskSynchronizer @Inject constructor(
     private val taskDeleter: TaskDeleter,
     private val invokers: InvokerFactory,
     private val alarmDao: AlarmDao,
+    private val database: Database,
 ) {
     suspend fun sync(account: CaldavAccount) {
         Timber.d("%s: start sync", account)
@@ -127,68 +138,93 @@ class GoogleTaskSynchronizer @Inject constructor(
             }
         }
         pushLocalChanges(account, gtasksInvoker)
-        for (list in caldavDao.getCalendarsByAccount(account.uuid!!)) {
-            if (isNullOrEmpty(list.uuid)) {
-                firebase.reportException(RuntimeException("Empty remote id"))
-                continue
-            }
-            fetchAndApplyRemoteChanges(gtasksInvoker, list)
-            if (!preferences.isPositionHackEnabled) {
-                googleTaskDao.reposition(caldavDao, list.uuid!!)
-            }
-        }
-        if (preferences.isPositionHackEnabled) {
-            for (list in gtaskLists) {
-                val tasks = fetchPositions(gtasksInvoker, list.id)
-                for (task in tasks) {
-                    googleTaskDao.updatePosition(task.id, task.parent, task.position)
+        val semaphore = Semaphore(preferences.syncConcurrency)
+        coroutineScope {
+            caldavDao
+                .getCalendarsByAccount(account.uuid!!)
+                .filter { list ->
+                    if (isNullOrEmpty(list.uuid)) {
+                        firebase.reportException(RuntimeException("Empty remote id"))
+                        false
+                    } else {
+                        true
+                    }
                 }
-                googleTaskDao.reposition(caldavDao, list.id)
-            }
+                .map { list ->
+                    async(Dispatchers.IO) {
+                        semaphore.withPermit {
+                            val parents = fetchAndApplyRemoteChanges(gtasksInvoker, list)
+                                ?: return@withPermit
+                            googleTaskDao.reposition(caldavDao, list.uuid!!, parents)
+                        }
+                    }
+                }
+                .awaitAll()
         }
 //        account.etag = eTag
         account.error = ""
     }
 
-    @Throws(IOException::class)
-    private suspend fun fetchPositions(
-            gtasksInvoker: GtasksInvoker, listId: String): List<Task> {
-        val tasks: MutableList<Task> = ArrayList()
-        var nextPageToken: String? = null
-        do {
-            val taskList = gtasksInvoker.getAllPositions(listId, nextPageToken)
-            taskList?.items?.let {
-                tasks.addAll(it)
-            }
-            nextPageToken = taskList?.nextPageToken
-        } while (!isNullOrEmpty(nextPageToken))
-        return tasks
+    /** A task being pushed, written locally once all of its requests have succeeded */
+    private class Push(
+        val task: org.tasks.data.entity.Task,
+        val googleTask: CaldavTask,
+        val listId: String,
+        val remoteModel: Task,
+        val isNew: Boolean,
+        val isMoved: Boolean,
+    ) {
+        var parent: String? = null
+        var remaining = if (isNew) 1 else if (isMoved) 2 else 1
+        var abandoned = false
     }
 
-    @Throws(IOException::class)
-    private suspend fun pushLocalChanges(account: CaldavAccount, gtasksInvoker: GtasksInvoker) {
-        val tasks = taskDao.getGoogleTasksToPush(account.uuid!!)
-        for (task in tasks) {
-            pushTask(task, gtasksInvoker)
-        }
-    }
+    private class Request(
+        val request: TasksRequest<*>,
+        val onResult: suspend (Result<Any?>) -> Unit,
+    )
 
     @Throws(IOException::class)
-    private suspend fun pushTask(task: org.tasks.data.entity.Task, gtasksInvoker: GtasksInvoker) {
-        for (deleted in googleTaskDao.getDeletedByTaskId(task.id)) {
-            deleted.remoteId?.let {
-                try {
-                    gtasksInvoker.deleteGtask(deleted.calendar, it)
-                } catch (e: GoogleJsonResponseException) {
-                    when (e.statusCode) {
-                        400 -> Timber.e(e)
+    private suspend fun pushLocalChanges(account: CaldavAccount, gtasksInvoker: GtasksInvoker) {
+        val requests = ArrayList<Request>()
+        val positioned = ArrayList<Push>()
+        for (task in taskDao.getGoogleTasksToPush(account.uuid!!)) {
+            for (deleted in googleTaskDao.getDeletedByTaskId(task.id)) {
+                val remoteId = deleted.remoteId
+                if (remoteId == null) {
+                    googleTaskDao.delete(deleted)
+                    continue
+                }
+                requests.add(Request(gtasksInvoker.deleteGtaskRequest(deleted.calendar, remoteId)) { result ->
+                    when (val e = result.exceptionOrNull()) {
+                        null, is HttpNotFoundException -> {}
+                        is GoogleJsonResponseException -> if (e.statusCode == 400) Timber.e(e) else throw e
                         else -> throw e
                     }
-                }
+                    googleTaskDao.delete(deleted)
+                })
+            }
+            val push = preparePush(task) ?: continue
+            if (push.isNew || push.isMoved) {
+                positioned.add(push)
+            }
+            if (!push.isNew) {
+                // TODO: don't updateGtask if it was only moved
+                requests.add(Request(gtasksInvoker.updateGtaskRequest(push.listId, push.remoteModel)) { result ->
+                    when (val e = result.exceptionOrNull()) {
+                        null -> completed(push)
+                        is HttpNotFoundException -> abandon(push)
+                        else -> throw e
+                    }
+                })
             }
-            googleTaskDao.delete(deleted)
         }
-        val gtasksMetadata = googleTaskDao.getByTaskId(task.id) ?: return
+        execute(gtasksInvoker, requests)
+        position(gtasksInvoker, positioned)
+    }
+
+    private suspend fun preparePush(task: org.tasks.data.entity.Task): Push? {
+        val gtasksMetadata = googleTaskDao.getByTaskId(task.id) ?: return null
         val remoteModel = Task()
         var newlyCreated = false
         val remoteId: String?
@@ -209,7 +245,7 @@ class GoogleTaskSynchronizer @Inject constructor(
         // creating a task which may end up being cancelled. Also don't sync new but already
         // deleted tasks
         if (newlyCreated && (isNullOrEmpty(task.title) || task.deletionDate > 0)) {
-            return
+            return null
         }
 
         // Update the remote model's changed properties
@@ -228,61 +264,168 @@ class GoogleTaskSynchronizer @Inject constructor(
             remoteModel.completed = null
             remoteModel.status = "needsAction" // $NON-NLS-1$
         }
-        if (newlyCreated) {
-            val parent = task.parent
-            val localParent = if (parent > 0) googleTaskDao.getRemoteId(parent) else null
-            val previous = googleTaskDao.getPrevious(
-                    listId!!, if (isNullOrEmpty(localParent)) 0 else parent, task.order ?: 0)
-            val created: Task? = try {
-                gtasksInvoker.createGtask(listId, remoteModel, localParent, previous)
-            } catch (e: HttpNotFoundException) {
-                gtasksInvoker.createGtask(listId, remoteModel, null, null)
+        return Push(
+            task = task,
+            googleTask = gtasksMetadata,
+            listId = listId!!,
+            remoteModel = remoteModel,
+            isNew = newlyCreated,
+            isMoved = !newlyCreated && !task.isDeleted && gtasksMetadata.isMoved,
+        )
+    }
+
+    /**
+     * Creates and moves tasks. Subtasks wait for new parents to be created, and runs of
+     * consecutive siblings are placed in waves, see [placements]. Pushes missing from their
+     * group's sibling scan, like subtasks whose parent has no remote id, follow one per group per
+     * wave so their anchors are looked up after everything placed before them.
+     */
+    @Throws(IOException::class)
+    private suspend fun position(gtasksInvoker: GtasksInvoker, pushes: List<Push>) {
+        var pending = pushes
+        while (pending.isNotEmpty()) {
+            val creating = pending.filter { it.isNew }.map { it.task.id }.toSet()
+            val (ready, waiting) = pending
+                .partition { it.task.parent !in creating }
+                .takeIf { it.first.isNotEmpty() }
+                ?: (pending to emptyList())
+            val groups = LinkedHashMap<Pair<String, Long>, MutableList<Push>>()
+            for (push in ready) {
+                val parent = push.task.parent
+                push.parent = if (parent > 0) googleTaskDao.getRemoteId(parent) else null
+                val key = push.listId to if (push.parent.isNullOrBlank()) 0 else parent
+                groups.getOrPut(key) { ArrayList() }.add(push)
             }
-            if (created != null) {
-                // Update the metadata for the newly created task
-                gtasksMetadata.remoteId = created.id
-                gtasksMetadata.calendar = listId
-                setOrderAndParent(gtasksMetadata, created, task)
-            } else {
-                return
+            val runs = ArrayList<Run<Push>>()
+            val later = ArrayList<Pair<Pair<String, Long>, List<Push>>>()
+            for ((key, group) in groups) {
+                val (listId, parent) = key
+                val members = group.associateBy { it.task.id }.toMutableMap()
+                runs.addAll(runs(googleTaskDao.getSiblings(listId, parent), members))
+                if (members.isNotEmpty()) {
+                    later.add(key to members.values.sortedBy { it.task.order ?: 0 })
+                }
             }
-        } else {
-            try {
-                if (!task.isDeleted && gtasksMetadata.isMoved) {
-                    try {
-                        val parent = task.parent
-                        val localParent = if (parent > 0) googleTaskDao.getRemoteId(parent) else null
-                        val previous = googleTaskDao.getPrevious(
-                                listId!!,
-                                if (localParent.isNullOrBlank()) 0 else parent,
-                                task.order ?: 0)
-                        gtasksInvoker
-                                .moveGtask(listId, remoteModel.id, localParent, previous)
-                                ?.let { setOrderAndParent(gtasksMetadata, it, task) }
-                    } catch (e: GoogleJsonResponseException) {
-                        if (e.statusCode == 400) {
-                            Timber.e(e)
-                        } else {
-                            throw e
+            runs
+                .flatMap { run ->
+                    placements(run.members.size).mapIndexed { index, placement ->
+                        Triple(run, index, placement)
+                    }
+                }
+                .groupBy { (_, _, placement) -> placement.wave }
+                .toSortedMap()
+                .values
+                .forEach { wave ->
+                    execute(
+                        gtasksInvoker,
+                        wave.map { (run, index, placement) ->
+                            val previous = if (placement.after < 0) {
+                                run.anchor
+                            } else {
+                                run.members[placement.after].googleTask.remoteId ?: run.anchor
+                            }
+                            positionRequest(gtasksInvoker, run.members[index], previous)
+                        }
+                    )
+                }
+            repeat(later.maxOfOrNull { (_, pushes) -> pushes.size } ?: 0) { index ->
+                execute(
+                    gtasksInvoker,
+                    later.mapNotNull { (key, pushes) ->
+                        pushes.getOrNull(index)?.let { push ->
+                            val previous = googleTaskDao.getPrevious(key.first, key.second, push.task.order ?: 0)
+                            positionRequest(gtasksInvoker, push, previous)
                         }
                     }
+                )
+            }
+            pending = waiting
+        }
+    }
+
+    private fun positionRequest(gtasksInvoker: GtasksInvoker, push: Push, previous: String?): Request {
+        val googleTask = push.googleTask
+        return if (push.isNew) {
+            Request(gtasksInvoker.createGtaskRequest(push.listId, push.remoteModel, push.parent, previous)) { result ->
+                val created = when (val e = result.exceptionOrNull()) {
+                    null -> result.getOrNull() as Task?
+                    is HttpNotFoundException -> gtasksInvoker.createGtask(push.listId, push.remoteModel, null, null)
+                    else -> throw e
                 }
-                // TODO: don't updateGtask if it was only moved
-                gtasksInvoker.updateGtask(listId, remoteModel)
-            } catch (e: HttpNotFoundException) {
-                googleTaskDao.delete(gtasksMetadata)
-                return
+                if (created != null) {
+                    // Update the metadata for the newly created task
+                    googleTask.remoteId = created.id
+                    googleTask.calendar = push.listId
+                    setOrderAndParent(googleTask, created, push.task)
+                    completed(push)
+                } else {
+                    push.abandoned = true
+                }
+            }
+        } else {
+            Request(gtasksInvoker.moveGtaskRequest(push.listId, push.remoteModel.id, push.parent, previous)) { result ->
+                when (val e = result.exceptionOrNull()) {
+                    null -> {
+                        (result.getOrNull() as Task?)?.let { setOrderAndParent(googleTask, it, push.task) }
+                        completed(push)
+                    }
+                    is HttpNotFoundException -> abandon(push)
+                    is GoogleJsonResponseException -> if (e.statusCode == 400) {
+                        Timber.e(e)
+                        completed(push)
+                    } else {
+                        throw e
+                    }
+                    else -> throw e
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs [requests] as a batch, throwing the first failure after handling every result. Results
+     * are handled as each part of the batch completes, see [GtasksInvoker.batch].
+     */
+    @Throws(IOException::class)
+    private suspend fun execute(gtasksInvoker: GtasksInvoker, requests: List<Request>) {
+        if (requests.isEmpty()) {
+            return
+        }
+        var error: Exception? = null
+        gtasksInvoker.batch(requests.map { it.request }) { index, result ->
+            try {
+                requests[index].onResult(result)
+            } catch (e: Exception) {
+                error = error ?: e
             }
         }
-        gtasksMetadata.isMoved = false
-        write(task, gtasksMetadata)
+        error?.let { throw it }
+    }
+
+    private suspend fun completed(push: Push) {
+        if (--push.remaining > 0 || push.abandoned) {
+            return
+        }
+        push.googleTask.isMoved = false
+        write(push.task, push.googleTask)
+    }
+
+    private suspend fun abandon(push: Push) {
+        if (!push.abandoned) {
+            push.abandoned = true
+            googleTaskDao.delete(push.googleTask)
+        }
     }
 
+    /**
+     * @return local parents of the sibling groups whose remote order changed, or null if the list
+     * could not be fetched
+     */
     @Throws(IOException::class)
     private suspend fun fetchAndApplyRemoteChanges(
         gtasksInvoker: GtasksInvoker,
         list: CaldavCalendar
-    ) {
+    ): Set<Long>? {
         val listId = list.uuid
         var lastSyncDate = list.lastSync
         val tasks: MutableList<Task> = ArrayList()
@@ -292,7 +435,7 @@ class GoogleTaskSynchronizer @Inject constructor(
                 gtasksInvoker.getAllGtasksFromListId(listId, lastSyncDate + 1000L, nextPageToken)
             } catch (e: HttpNotFoundException) {
                 firebase.reportException(e)
-                return
+                return null
             } ?: break
 
             val items = taskList.items
@@ -302,77 +445,147 @@ class GoogleTaskSynchronizer @Inject constructor(
             nextPageToken = taskList.nextPageToken
         } while (!isNullOrEmpty(nextPageToken))
         Collections.sort(tasks, PARENTS_FIRST)
+        val parents = HashSet<Long>()
+        for (page in tasks.chunked(PAGE_SIZE)) {
+            applyPage(listId!!, page, parents)
+        }
         for (gtask in tasks) {
-            val remoteId = gtask.id
-            var googleTask = googleTaskDao.getByRemoteId(remoteId)
-            var task: org.tasks.data.entity.Task? = null
-            if (googleTask == null) {
-                googleTask = CaldavTask(
-                    task = 0,
-                    calendar = "",
-                    remoteId = null,
-                )
-            } else if (googleTask.task > 0) {
-                task = taskDao.fetch(googleTask.task)
-            }
             gtask.updated?.let {
                 lastSyncDate = max(lastSyncDate, DateTime(it).value)
             }
-            val isDeleted = gtask.deleted
-            val isHidden = gtask.hidden
-            if (isDeleted != null && isDeleted) {
-                if (task != null) {
-                    taskDeleter.delete(task)
-                }
-                continue
-            } else if (isHidden != null && isHidden) {
-                if (task == null) {
-                    continue
-                }
-                if (task.isRecurring) {
-                    googleTask.remoteId = ""
-                } else {
-                    taskDeleter.delete(task)
-                    continue
-                }
-            } else {
-                if (task == null) {
-                    task = taskCreator.createWithValues("")
-                }
-                setOrderAndParent(googleTask, gtask, task)
-                googleTask.remoteId = gtask.id
-            }
-            task.title = getTruncatedValue(task.title, gtask.title, MAX_TITLE_LENGTH)
-            task.completionDate = GtasksApiUtilities.gtasksCompletedTimeToUnixTime(gtask.completed?.let(::DateTime))
-            val dueDate = GtasksApiUtilities.gtasksDueTimeToUnixTime(gtask.due?.let(::DateTime))
-            mergeDates(createDueDate(org.tasks.data.entity.Task.URGENCY_SPECIFIC_DAY, dueDate), task)
-            task.notes = getTruncatedValue(task.notes, gtask.notes, MAX_DESCRIPTION_LENGTH)
-            googleTask.calendar = listId
-            if (task.title?.isNotBlank() == true || task.notes?.isNotBlank() == true) {
-                write(task, googleTask)
-            }
         }
         caldavDao.insertOrReplace(
             list.copy(
                 lastSync = lastSyncDate
             )
         )
+        return parents
     }
 
-    private suspend fun setOrderAndParent(googleTask: CaldavTask, task: Task, local: org.tasks.data.entity.Task) {
+    /**
+     * Applies a page of remote tasks in a single transaction. Local rows for the tasks and their
+     * parents are looked up up front, and save hooks run once for the whole page.
+     *
+     * @param parents collects local parents of the sibling groups whose remote order changed
+     */
+    private suspend fun applyPage(listId: String, page: List<Task>, parents: MutableSet<Long>) {
+        val existing = googleTaskDao
+            .getByRemoteId(
+                page
+                    .flatMap { listOfNotNull(it.id, it.parent?.takeIf(String::isNotBlank)) }
+                    .distinct()
+            )
+            .distinctBy { it.remoteId }
+            .associateByTo(HashMap()) { it.remoteId!! }
+        val localTasks = taskDao
+            .fetch(page.mapNotNull { existing[it.id]?.task?.takeIf { id -> id > 0 } })
+            .associateBy { it.id }
+        val saved = ArrayList<Pair<org.tasks.data.entity.Task, org.tasks.data.entity.Task?>>()
+        val deleted = ArrayList<Long>()
+        database.useWriterConnection { transactor ->
+            transactor.immediateTransaction {
+                for (gtask in page) {
+                    val remoteId = gtask.id
+                    val googleTask = existing[remoteId] ?: CaldavTask(
+                        task = 0,
+                        calendar = "",
+                        remoteId = null,
+                    )
+                    val original = localTasks[googleTask.task]
+                    var task = original?.copy()
+                    val isDeleted = gtask.deleted
+                    val isHidden = gtask.hidden
+                    if (isDeleted != null && isDeleted) {
+                        if (task != null) {
+                            parents.add(task.parent)
+                            deleted.add(task.id)
+                        }
+                        continue
+                    } else if (isHidden != null && isHidden) {
+                        if (task == null) {
+                            continue
+                        }
+                        parents.add(task.parent)
+                        if (task.isRecurring) {
+                            googleTask.remoteId = ""
+                        } else {
+                            deleted.add(task.id)
+                            continue
+                        }
+                    } else {
+                        if (task == null) {
+                            task = taskCreator.createWithValues("")
+                        }
+                        val parent = task.parent
+                        val remoteParent = googleTask.remoteParent
+                        val remoteOrder = googleTask.remoteOrder
+                        setOrderAndParent(googleTask, gtask, task, existing)
+                        if (googleTask.id == 0L
+                            || task.parent != parent
+                            || googleTask.remoteParent != remoteParent
+                            || googleTask.remoteOrder != remoteOrder) {
+                            parents.add(parent)
+                            parents.add(task.parent)
+                        }
+                        googleTask.remoteId = gtask.id
+                    }
+                    task.title = getTruncatedValue(task.title, gtask.title, MAX_TITLE_LENGTH)
+                    task.completionDate = GtasksApiUtilities.gtasksCompletedTimeToUnixTime(gtask.completed?.let(::DateTime))
+                    val dueDate = GtasksApiUtilities.gtasksDueTimeToUnixTime(gtask.due?.let(::DateTime))
+                    mergeDates(createDueDate(org.tasks.data.entity.Task.URGENCY_SPECIFIC_DAY, dueDate), task)
+                    task.notes = getTruncatedValue(task.notes, gtask.notes, MAX_DESCRIPTION_LENGTH)
+                    googleTask.calendar = listId
+                    if (task.title?.isNotBlank() == true || task.notes?.isNotBlank() == true) {
+                        saved.add(write(task, googleTask, original))
+                        existing[remoteId] = googleTask.copy(task = task.id)
+                    }
+                }
+            }
+        }
+        taskDao.afterSave(saved)
+        if (deleted.isNotEmpty()) {
+            taskDeleter.delete(deleted)
+        }
+    }
+
+    private suspend fun setOrderAndParent(
+        googleTask: CaldavTask,
+        task: Task,
+        local: org.tasks.data.entity.Task,
+        existing: Map<String, CaldavTask> = emptyMap(),
+    ) {
         task.position?.toLongOrNull()?.let { googleTask.remoteOrder = it }
         googleTask.remoteParent = task.parent?.takeIf { it.isNotBlank() }
-        local.parent = googleTask.remoteParent?.let { googleTaskDao.getTask(it) } ?: 0L
+        local.parent = googleTask.remoteParent
+            ?.let { existing[it]?.task ?: googleTaskDao.getTask(it) }
+            ?: 0L
     }
 
     private suspend fun write(task: org.tasks.data.entity.Task, googleTask: CaldavTask) {
+        val original = if (task.isNew) null else taskDao.fetch(task.id)
+        taskDao.afterSave(listOf(write(task, googleTask, original)))
+    }
+
+    /**
+     * Saves [task] and [googleTask] without running save hooks
+     *
+     * @return the saved task and its original, for [TaskDao.afterSave]
+     */
+    private suspend fun write(
+        task: org.tasks.data.entity.Task,
+        googleTask: CaldavTask,
+        original: org.tasks.data.entity.Task?,
+    ): Pair<org.tasks.data.entity.Task, org.tasks.data.entity.Task?> {
         task.suppressSync()
         task.suppressRefresh()
-        if (task.isNew) {
+        val saved = if (task.isNew) {
             taskDao.createNew(task)
             alarmDao.insert(task.getDefaultAlarms())
+            task.copy()
+        } else {
+            taskDao.update(task, original)
+            original
         }
-        taskDao.save(task)
         googleTask
             .copy(
                 task = task.id,
@@ -385,12 +598,19 @@ class GoogleTaskSynchronizer @Inject constructor(
                     googleTaskDao.update(it)
                 }
             }
+        return task to saved
     }
 
+    internal data class Placement(val wave: Int, val after: Int)
+
+    /** Consecutive siblings positioned after [anchor], or at the top when it is null */
+    internal data class Run<T>(val anchor: String?, val members: List<T>)
+
     companion object {
         private const val DEFAULT_LIST = "@default" // $NON-NLS-1$
         private const val MAX_TITLE_LENGTH = 1024
         private const val MAX_DESCRIPTION_LENGTH = 8192
+        private const val PAGE_SIZE = 100
         private val PARENTS_FIRST = Comparator { o1: Task, o2: Task ->
             if (isNullOrEmpty(o1.parent)) {
                 if (isNullOrEmpty(o2.parent)) 0 else -1
@@ -413,6 +633,58 @@ class GoogleTaskSynchronizer @Inject constructor(
             }
         }
 
+        /**
+         * Orders the placement of [count] consecutive siblings. Each sibling goes after one placed
+         * in an earlier wave, or after the task preceding the run, and no two siblings in the same
+         * wave go after the same task, so the server can apply a wave in any order. Every wave
+         * doubles the number of placed siblings, a run of n siblings takes log2(n) + 1 waves.
+         *
+         * @return the wave of each sibling and the index of the sibling it goes after, or -1 to
+         * go after the task preceding the run
+         */
+        internal fun placements(count: Int): List<Placement> {
+            val placements = arrayOfNulls<Placement>(count)
+            fun place(from: Int, to: Int, after: Int, wave: Int) {
+                if (from > to) {
+                    return
+                }
+                val mid = (from + to) / 2
+                placements[mid] = Placement(wave, after)
+                place(from, mid - 1, after, wave + 1)
+                place(mid + 1, to, mid, wave + 1)
+            }
+            place(0, count - 1, -1, 0)
+            return placements.map { it!! }
+        }
+
+        /**
+         * Splits [members] into runs of consecutive [siblings], removing them from [members].
+         * Each run goes after the closest preceding sibling with a remote id, siblings without
+         * one don't end a run, so no two runs go after the same task.
+         */
+        internal fun <T> runs(siblings: List<CaldavTask>, members: MutableMap<Long, T>): List<Run<T>> {
+            val runs = ArrayList<Run<T>>()
+            var anchor: String? = null
+            var run = ArrayList<T>()
+            for (sibling in siblings) {
+                val member = members.remove(sibling.task)
+                if (member != null) {
+                    run.add(member)
+                    continue
+                }
+                val remoteId = sibling.remoteId?.takeIf { it.isNotBlank() } ?: continue
+                if (run.isNotEmpty()) {
+                    runs.add(Run(anchor, run))
+                    run = ArrayList()
+                }
+                anchor = remoteId
+            }
+            if (run.isNotEmpty()) {
+                runs.add(Run(anchor, run))
+            }
+            return runs
+        }
+
         fun truncate(string: String?, max: Int): String? =
                 if (string == null || string.length <= max) string else string.substring(0, max)
 
@@ -31,6 +31,7 @@ import org.tasks.data.dao.TaskDao
 import org.tasks.data.dao.TaskListMetadataDao
 import org.tasks.data.dao.UserActivityDao
 import org.tasks.data.db.Database
+import org.tasks.filters.FilterCountEngine
 import org.tasks.filters.FilterProvider
 import org.tasks.filters.PreferenceDrawerConfiguration
 import org.tasks.jobs.WorkManager
@@ -156,7 +157,7 @@ class ApplicationModule {
         caldavDao: CaldavDao,
         drawerConfiguration: DrawerConfiguration,
         locationDao: LocationDao,
-        taskDao: TaskDao,
+        filterCountEngine: FilterCountEngine,
         tasksPreferences: TasksPreferences,
     ) = FilterProvider(
         filterDao = filterDao,
@@ -164,7 +165,11 @@ class ApplicationModule {
         caldavDao = caldavDao,
         configuration = drawerConfiguration,
         locationDao = locationDao,
-        taskDao = taskDao,
+        filterCountEngine = filterCountEngine,
         tasksPreferences = tasksPreferences,
     )
+
+    @Provides
+    @Singleton
+    fun providesFilterCountEngine(taskDao: TaskDao) = FilterCountEngine(taskDao)
 }
\ No newline at end of file
@@ -19,7 +19,12 @@ import org.tasks.R
 import org.tasks.caldav.FileStorage
 import org.tasks.data.OpenTaskDao
 import org.tasks.data.dao.CaldavDao
+import org.tasks.data.db.CachingSQLiteDriver
 import org.tasks.data.db.Database
+import org.tasks.data.db.TaskHierarchy
+import org.tasks.data.db.TaskSearch
+import org.tasks.data.db.TaskSortKey
+import org.tasks.data.db.TaskWriteLog
 import org.tasks.db.Migrations
 import org.tasks.jobs.WorkManager
 import org.tasks.jobs.WorkManagerImpl
@@ -46,6 +51,10 @@ internal class ProductionModule {
                 name = databaseFile.absolutePath
             )
             .addMigrations(*Migrations.migrations(context, fileStorage))
+            .addCallback(TaskSearch.callback)
+            .addCallback(TaskHierarchy.callback)
+            .addCallback(TaskSortKey.callback)
+            .addCallback(TaskWriteLog.callback)
             .setDriver()
         if (!BuildConfig.DEBUG || !preferences.getBoolean(R.string.p_crash_main_queries, false)) {
             builder.allowMainThreadQueries()
@@ -80,7 +89,7 @@ fun <T : RoomDatabase> RoomDatabase.Builder<T>.setDriver() =
             this
         }
     } else {
-        val driver = BundledSQLiteDriver() // need bundled sqlite for window functions
+        val driver = CachingSQLiteDriver(BundledSQLiteDriver()) // need bundled sqlite for window functions
         this
             .setDriver(
                 object : SQLiteDriver by driver {
@@ -28,8 +28,6 @@ import org.tasks.extensions.Context.getResourceUri
 import org.tasks.kmp.org.tasks.themes.ColorProvider.BLUE_500
 import org.tasks.themes.ThemeBase
 import org.tasks.time.DateTime
-import org.tasks.time.DateTimeUtils2.currentTimeMillis
-import org.tasks.time.ONE_WEEK
 import timber.log.Timber
 import java.io.File
 import java.net.URI
@@ -385,6 +383,10 @@ class Preferences @JvmOverloads constructor(
         get() = getBoolean(R.string.p_always_display_full_date, false)
         set(value) { setBoolean(R.string.p_always_display_full_date, value)}
 
+    override val showFullDescription: Boolean
+        get() = getBoolean(R.string.p_show_description, true) &&
+                getBoolean(R.string.p_show_full_description, false)
+
     override var completedTasksAtBottom: Boolean
         get() = getBoolean(R.string.p_completed_tasks_at_bottom, true)
         set(value) { setBoolean(R.string.p_completed_tasks_at_bottom, value) }
@@ -486,13 +488,12 @@ class Preferences @JvmOverloads constructor(
             setLong(R.string.p_last_sync, value)
         }
 
+    val syncConcurrency: Int
+        get() = getInt(R.string.p_sync_concurrency, 4).coerceIn(1, 8)
+
     fun <T> getPrefs(c: Class<T>): Map<String, T> =
         prefs.all.filter { (_, value) -> c.isInstance(value) } as Map<String, T>
 
-    var isPositionHackEnabled: Boolean
-        get() = getLong(R.string.p_google_tasks_position_hack, 0) > currentTimeMillis() - ONE_WEEK
-        set(value) { setLong(R.string.p_google_tasks_position_hack, if (value) currentTimeMillis() else 0) }
-
     override var isManualSort: Boolean
         get() = getBoolean(R.string.p_manual_sort, false)
         set(value) { setBoolean(R.string.p_manual_sort, value) }
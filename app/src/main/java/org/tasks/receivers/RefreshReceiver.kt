@@ -6,8 +6,7 @@ import com.todoroo.astrid.provider.Astrid2TaskProvider
 import dagger.hilt.android.AndroidEntryPoint
 import dagger.hilt.android.qualifiers.ApplicationContext
 import org.tasks.R
-import org.tasks.data.count
-import org.tasks.data.dao.TaskDao
+import org.tasks.data.FilterResultCache
 import org.tasks.injection.InjectingJobIntentService
 import org.tasks.preferences.DefaultFilterProvider
 import org.tasks.preferences.Preferences
@@ -20,14 +19,14 @@ import javax.inject.Inject
 class RefreshReceiver : InjectingJobIntentService() {
     @Inject @ApplicationContext lateinit var context: Context
     @Inject lateinit var defaultFilterProvider: DefaultFilterProvider
-    @Inject lateinit var taskDao: TaskDao
+    @Inject lateinit var filterResultCache: FilterResultCache
     @Inject lateinit var preferences: Preferences
     @Inject lateinit var wearRefresher: WearRefresher
 
     override suspend fun doWork(intent: Intent) {
         if (preferences.getBoolean(R.string.p_badges_enabled, true)) {
             val badgeFilter = defaultFilterProvider.getBadgeFilter()
-            ShortcutBadger.applyCount(context, taskDao.count(badgeFilter))
+            ShortcutBadger.applyCount(context, filterResultCache.count(badgeFilter))
         }
         try {
             val cr = context.contentResolver
@@ -0,0 +1,71 @@
+package org.tasks.sync.microsoft
+
+import kotlinx.serialization.Serializable
+import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.JsonElement
+import kotlinx.serialization.json.decodeFromJsonElement
+import org.tasks.http.HttpException
+import org.tasks.http.NetworkException
+import org.tasks.http.NotFoundException
+import org.tasks.http.ServiceUnavailableException
+import org.tasks.http.UnauthorizedException
+
+/** Graph JSON batching, see https://learn.microsoft.com/graph/json-batching */
+@Serializable
+data class Batch(
+    val requests: List<Request>,
+) {
+    @Serializable
+    data class Request(
+        val id: String,
+        val method: String,
+        val url: String,
+        val body: JsonElement? = null,
+        val headers: Map<String, String>? = null,
+        val dependsOn: List<String>? = null,
+    )
+
+    @Serializable
+    data class Response(
+        val responses: List<Result>,
+    )
+
+    @Serializable
+    data class Result(
+        val id: String,
+        val status: Int,
+        val body: JsonElement? = null,
+    ) {
+        val isSuccess: Boolean
+            get() = status in 200..299
+
+        /** A request that was not attempted because a request it depends on failed */
+        val isFailedDependency: Boolean
+            get() = status == 424
+
+        inline fun <reified T> decode(): T = json.decodeFromJsonElement(body!!)
+
+        /** Same mapping as [org.tasks.http.HttpErrorHandler] applies to individual requests */
+        fun toException(): NetworkException = when (status) {
+            401 -> UnauthorizedException()
+            404 -> NotFoundException()
+            in 500..599 -> ServiceUnavailableException()
+            else -> HttpException(status, errorMessage)
+        }
+
+        private val errorMessage: String?
+            get() = try {
+                body?.let { json.decodeFromJsonElement<Error>(it) }?.error?.message
+            } catch (_: Exception) {
+                null
+            }
+    }
+
+    companion object {
+        const val MAX_REQUESTS = 20
+
+        val json = Json {
+            ignoreUnknownKeys = true
+        }
+    }
+}
@@ -8,12 +8,17 @@ import io.ktor.client.request.patch
 import io.ktor.client.request.post
 import io.ktor.client.request.setBody
 import io.ktor.http.ContentType
+import io.ktor.http.HttpHeaders
+import io.ktor.http.HttpMethod
 import io.ktor.http.contentType
+import kotlinx.serialization.json.JsonElement
+import kotlinx.serialization.json.encodeToJsonElement
 
 class MicrosoftService(
-    private val client: HttpClient
+    private val client: HttpClient,
+    private val rootUrl: String = "https://graph.microsoft.com/v1.0",
 ) {
-    private val baseUrl: String = "https://graph.microsoft.com/v1.0/me/todo"
+    private val baseUrl: String = "$rootUrl$TODO_PATH"
 
     suspend fun getLists(): TaskLists = client.get("$baseUrl/lists").body()
 
@@ -41,41 +46,73 @@ class MicrosoftService(
 
     suspend fun paginateTasks(nextPage: String) = client.get(nextPage)
 
-    suspend fun createTask(listId: String, body: Tasks.Task): Tasks.Task =
-        client
-            .post("$baseUrl/lists/$listId/tasks") {
-                contentType(ContentType.Application.Json)
-                setBody(body)
-            }
-            .body()
+    /**
+     * Sends [requests] in `$batch` calls of up to [Batch.MAX_REQUESTS], in order, passing each
+     * call's results to [onResults] before the next call is sent. A dependency on a request sent
+     * in an earlier call is dropped, that request has already completed.
+     */
+    suspend fun batch(
+        requests: List<Batch.Request>,
+        onResults: suspend (Map<String, Batch.Result>) -> Unit,
+    ) {
+        requests.chunked(Batch.MAX_REQUESTS).forEach { chunk ->
+            val ids = chunk.map { it.id }.toSet()
+            val body = Batch(
+                requests = chunk.map { request ->
+                    request.copy(
+                        dependsOn = request.dependsOn?.filter { it in ids }?.takeIf { it.isNotEmpty() }
+                    )
+                }
+            )
+            val results = client
+                .post("$rootUrl/\$batch") {
+                    contentType(ContentType.Application.Json)
+                    setBody(body)
+                }
+                .body<Batch.Response>()
+                .responses
+                .associateBy { it.id }
+            onResults(results)
+        }
+    }
 
-    suspend fun updateTask(listId: String, taskId: String, body: Tasks.Task): Tasks.Task =
-        client
-            .patch("$baseUrl/lists/$listId/tasks/$taskId") {
-                contentType(ContentType.Application.Json)
-                setBody(body)
-            }
-            .body()
+    fun createTask(listId: String, body: Tasks.Task) =
+        request(HttpMethod.Post, "/lists/$listId/tasks", Batch.json.encodeToJsonElement(body))
 
-    suspend fun deleteTask(listId: String, taskId: String) =
-        client.delete("$baseUrl/lists/$listId/tasks/$taskId")
+    fun updateTask(listId: String, taskId: String, body: Tasks.Task) =
+        request(HttpMethod.Patch, "/lists/$listId/tasks/$taskId", Batch.json.encodeToJsonElement(body))
 
-    suspend fun createChecklistItem(listId: String, taskId: String, body: Tasks.Task.ChecklistItem): Tasks.Task.ChecklistItem =
-        client
-            .post("$baseUrl/lists/$listId/tasks/$taskId/checklistItems") {
-                contentType(ContentType.Application.Json)
-                setBody(body)
-            }
-            .body()
+    fun deleteTask(listId: String, taskId: String) =
+        request(HttpMethod.Delete, "/lists/$listId/tasks/$taskId")
 
-    suspend fun updateChecklistItem(listId: String, taskId: String, body: Tasks.Task.ChecklistItem): Tasks.Task.ChecklistItem =
-        client
-            .patch("$baseUrl/lists/$listId/tasks/$taskId/checklistItems/${body.id}") {
-                contentType(ContentType.Application.Json)
-                setBody(body.copy(id = null, createdDateTime = null))
-            }
-            .body()
+    fun createChecklistItem(listId: String, taskId: String, body: Tasks.Task.ChecklistItem) =
+        request(
+            HttpMethod.Post,
+            "/lists/$listId/tasks/$taskId/checklistItems",
+            Batch.json.encodeToJsonElement(body),
+        )
+
+    fun updateChecklistItem(listId: String, taskId: String, body: Tasks.Task.ChecklistItem) =
+        request(
+            HttpMethod.Patch,
+            "/lists/$listId/tasks/$taskId/checklistItems/${body.id}",
+            Batch.json.encodeToJsonElement(body.copy(id = null, createdDateTime = null)),
+        )
+
+    fun deleteChecklistItem(listId: String, taskId: String, checklistItemId: String) =
+        request(HttpMethod.Delete, "/lists/$listId/tasks/$taskId/checklistItems/$checklistItemId")
+
+    /** Builds a [batch] request, the caller assigns its id */
+    private fun request(method: HttpMethod, path: String, body: JsonElement? = null) =
+        Batch.Request(
+            id = "",
+            method = method.value,
+            url = "$TODO_PATH$path",
+            body = body,
+            headers = body?.let { mapOf(HttpHeaders.ContentType to ContentType.Application.Json.toString()) },
+        )
 
-    suspend fun deleteChecklistItem(listId: String, taskId: String, checklistItemId: String) =
-        client.delete("$baseUrl/lists/$listId/tasks/$taskId/checklistItems/$checklistItemId")
-}
\ No newline at end of file
+    companion object {
+        private const val TODO_PATH = "/me/todo"
+    }
+}
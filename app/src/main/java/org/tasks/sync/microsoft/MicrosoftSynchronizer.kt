@@ -1,6 +1,8 @@
 package org.tasks.sync.microsoft
 
 import android.content.Context
+import androidx.room.immediateTransaction
+import androidx.room.useWriterConnection
 import at.bitfire.dav4jvm.exception.HttpException
 import at.bitfire.dav4jvm.exception.ServiceUnavailableException
 import at.bitfire.dav4jvm.exception.UnauthorizedException
@@ -18,6 +20,7 @@ import org.tasks.caldav.VtodoCache
 import org.tasks.data.dao.CaldavDao
 import org.tasks.data.dao.TagDao
 import org.tasks.data.dao.TagDataDao
+import org.tasks.data.db.Database
 import org.tasks.data.entity.CaldavAccount
 import org.tasks.data.entity.CaldavAccount.Companion.ERROR_UNAUTHORIZED
 import org.tasks.data.entity.CaldavCalendar
@@ -28,7 +31,6 @@ import org.tasks.data.entity.CaldavTask
 import org.tasks.data.entity.TagData
 import org.tasks.data.entity.Task
 import org.tasks.http.HttpClientFactory
-import org.tasks.http.NotFoundException
 import org.tasks.preferences.Preferences
 import org.tasks.sync.microsoft.Error.Companion.toMicrosoftError
 import org.tasks.sync.microsoft.MicrosoftConverter.applyRemote
@@ -59,6 +61,7 @@ class MicrosoftSynchronizer @Inject constructor(
     private val tagDataDao: TagDataDao,
     private val preferences: Preferences,
     private val vtodoCache: VtodoCache,
+    private val database: Database,
 ) {
     suspend fun sync(account: CaldavAccount) {
         Timber.d("Synchronizing $account")
@@ -140,80 +143,114 @@ class MicrosoftSynchronizer @Inject constructor(
         setError(account, "")
     }
 
+    /**
+     * Pushes deletions and tasks first, then checklist items once the tasks they belong to have
+     * remote ids. A batch cannot use an id created earlier in the same batch.
+     */
     private suspend fun pushLocalChanges(
         local: CaldavCalendar,
         microsoft: MicrosoftService,
     ) {
-        for (task in caldavDao.getMoved(local.uuid!!)) {
-            deleteRemoteResource(microsoft, local, task)
+        val (subtasks, tasks) = taskDao
+            .getCaldavTasksToPush(local.uuid!!)
+            .partition { it.parent > 0 && !it.isDeleted }
+        push(
+            microsoft,
+            caldavDao.getMoved(local.uuid!!).mapNotNull { deleteRemoteResource(microsoft, local, it) } +
+                    tasks.mapNotNull { pushTask(local, it, microsoft) }
+        )
+        push(microsoft, subtasks.mapNotNull { pushTask(local, it, microsoft) })
+    }
+
+    private class Push(
+        val request: Batch.Request,
+        /** Remote id of the task a checklist request modifies, these are applied in order */
+        val parent: String? = null,
+        /** @return the error to report, or null when the failure can be ignored */
+        val onFailure: suspend (Batch.Result) -> Exception? = { it.toException() },
+        val onSuccess: suspend (Batch.Result) -> Unit,
+    )
+
+    private suspend fun push(microsoft: MicrosoftService, pushes: List<Push>) {
+        if (pushes.isEmpty()) {
+            return
         }
-        for (task in taskDao.getCaldavTasksToPush(local.uuid!!).sortedBy { it.parent }) {
-            pushTask(local, task, microsoft)
+        val previous = HashMap<String, String>()
+        val requests = pushes.mapIndexed { index, push ->
+            val id = index.toString()
+            push.request.copy(
+                id = id,
+                dependsOn = push.parent?.let { previous.put(it, id) }?.let { listOf(it) },
+            )
+        }
+        var error: Exception? = null
+        microsoft.batch(requests) { results ->
+            results.values.sortedBy { it.id.toInt() }.forEach { result ->
+                val push = pushes[result.id.toInt()]
+                when {
+                    result.isSuccess -> push.onSuccess(result)
+                    result.isFailedDependency -> Timber.w("Skipping ${push.request.url}, dependency failed")
+                    else -> push.onFailure(result)?.let { error = error ?: it }
+                }
+            }
         }
+        error?.let { throw it }
     }
 
     private suspend fun deleteRemoteResource(
         microsoft: MicrosoftService,
         list: CaldavCalendar,
         task: CaldavTask,
-    ): Boolean {
+        onDeleted: suspend () -> Unit = {},
+    ): Push? {
         val listId = list.uuid
         val parentId = task.remoteParent
         val taskId = task.remoteId
-        val success = when {
-            task.lastSync == 0L -> true
-            listId.isNullOrBlank() -> false
-            taskId.isNullOrBlank() -> false
-            parentId.isNullOrBlank() -> {
-                try {
-                    microsoft.deleteTask(listId, taskId)
-                } catch (e: NotFoundException) {
-                    Timber.w(e, "task=$task")
-                } catch (e: org.tasks.http.HttpException) {
-                    when (e.code) {
-                        400 -> Timber.w(e, "task=$task")
-                        else -> {
-                            throw e
-                        }
-                    }
-                }
-                true
+        val deleted: suspend () -> Unit = {
+            vtodoCache.delete(list, task)
+            caldavDao.delete(task)
+            onDeleted()
+        }
+        return when {
+            task.lastSync == 0L -> {
+                deleted()
+                null
             }
-            else -> {
-                try {
+            listId.isNullOrBlank() -> null
+            taskId.isNullOrBlank() -> null
+            else -> Push(
+                request = if (parentId.isNullOrBlank()) {
+                    microsoft.deleteTask(listId, taskId)
+                } else {
                     microsoft.deleteChecklistItem(listId, parentId, taskId)
-                } catch (e: NotFoundException) {
-                    Timber.w(e, "task=$task")
-                } catch (e: org.tasks.http.HttpException) {
-                    when (e.code) {
-                        400 -> Timber.w(e, "task=$task")
-                        else -> {
-                            throw e
+                },
+                parent = parentId?.takeIf { it.isNotBlank() },
+                onFailure = { result ->
+                    when (result.status) {
+                        400, 404 -> {
+                            Timber.w("task=$task status=${result.status}")
+                            deleted()
+                            null
                         }
+                        else -> result.toException()
                     }
-                }
-                true
-            }
-        }
-        if (success) {
-            vtodoCache.delete(list, task)
-            caldavDao.delete(task)
+                },
+                onSuccess = { deleted() },
+            )
         }
-        return success
     }
 
     private suspend fun pushTask(
         list: CaldavCalendar,
         task: Task,
         microsoft: MicrosoftService,
-    ) {
-        val caldavTask = caldavDao.getTask(task.id) ?: return
+    ): Push? {
+        val caldavTask = caldavDao.getTask(task.id) ?: return null
         if (task.isDeleted) {
             Timber.d("Deleting $task")
-            if (deleteRemoteResource(microsoft, list, caldavTask)) {
+            return deleteRemoteResource(microsoft, list, caldavTask) {
                 taskDeleter.delete(taskDao.getChildren(task.id) + task.id)
             }
-            return
         }
         val isNew = caldavTask.lastSync == 0L
         if (task.parent == 0L) {
@@ -221,35 +258,41 @@ class MicrosoftSynchronizer @Inject constructor(
                 caldavTask = caldavTask,
                 tags = tagDataDao.getTagDataForTask(task.id),
             )
-            val result: Tasks.Task = if (isNew) {
+            val request = if (isNew) {
                 Timber.d("Uploading new task: $task")
                 microsoft.createTask(list.uuid!!, remoteTask)
             } else {
                 Timber.d("Updating existing task: $task")
                 microsoft.updateTask(list.uuid!!, caldavTask.remoteId!!, remoteTask)
             }
-            caldavTask.remoteId = result.id
-            caldavTask.obj = "${result.id}.json"
-            caldavTask.lastSync = task.modificationDate
-            vtodoCache.putVtodo(list, caldavTask, json.encodeToString(result))
+            return Push(request = request) { response ->
+                val result = response.decode<Tasks.Task>()
+                caldavTask.remoteId = result.id
+                caldavTask.obj = "${result.id}.json"
+                caldavTask.lastSync = task.modificationDate
+                vtodoCache.putVtodo(list, caldavTask, json.encodeToString(result))
+                caldavDao.update(caldavTask)
+            }
         } else {
-            val caldavParent = caldavDao.getTask(task.parent)?.remoteId ?: return
+            val caldavParent = caldavDao.getTask(task.parent)?.remoteId ?: return null
             val remoteTask = task.toChecklistItem(caldavTask.remoteId)
-            val result: Tasks.Task.ChecklistItem = if (isNew) {
+            val request = if (isNew) {
                 Timber.d("Uploading new checklist item: $task")
                 microsoft.createChecklistItem(list.uuid!!, caldavParent, remoteTask)
             } else {
                 Timber.d("Updating existing checklist item: $task")
                 microsoft.updateChecklistItem(list.uuid!!, caldavParent, remoteTask)
             }
-            caldavTask.remoteId = result.id
-            caldavTask.remoteParent = caldavParent
-            caldavTask.obj = "${result.id}.json"
-            caldavTask.lastSync = task.modificationDate
-            vtodoCache.putVtodo(list, caldavTask, json.encodeToString(result))
+            return Push(request = request, parent = caldavParent) { response ->
+                val result = response.decode<Tasks.Task.ChecklistItem>()
+                caldavTask.remoteId = result.id
+                caldavTask.remoteParent = caldavParent
+                caldavTask.obj = "${result.id}.json"
+                caldavTask.lastSync = task.modificationDate
+                vtodoCache.putVtodo(list, caldavTask, json.encodeToString(result))
+                caldavDao.update(caldavTask)
+            }
         }
-
-        caldavDao.update(caldavTask)
     }
 
     private suspend fun deltaSync(
@@ -259,18 +302,10 @@ class MicrosoftSynchronizer @Inject constructor(
         microsoft: MicrosoftService
     ) {
         Timber.d("delta update: $list")
-        val tasks = getTasks(account, list, remoteList, microsoft) ?: return
-        for (remote in tasks) {
-            if (remote.removed == null) {
-                updateTask(list, remote)
-            } else {
-                val caldavTasks = caldavDao.getTasksByRemoteId(list.uuid!!, listOf(remote.id!!))
-                val taskIds = caldavTasks.map { it.task }.flatMap { taskDao.getChildren(it) + it }
-                Timber.d("Deleting $remote, taskIds=$taskIds")
-                vtodoCache.delete(list, caldavTasks)
-                taskDeleter.delete(taskIds)
-            }
-        }
+        val pages = getTasks(account, list, remoteList, microsoft) ?: return
+        val removed = ArrayList<CaldavTask>()
+        pages.forEach { applyPage(list, it, removed) }
+        delete(list, removed)
         Timber.d("UPDATE $list")
         caldavDao.update(list)
         localBroadcastManager.broadcastRefresh()
@@ -303,13 +338,14 @@ class MicrosoftSynchronizer @Inject constructor(
         return taskLists
     }
 
+    /** @return every page of the delta, or null if it could not be read to the end */
     private suspend fun getTasks(
         account: CaldavAccount,
         local: CaldavCalendar,
         remoteList: TaskLists.TaskList,
         microsoft: MicrosoftService,
-    ): List<Tasks.Task>? {
-        val tasks = ArrayList<Tasks.Task>()
+    ): List<List<Tasks.Task>>? {
+        val pages = ArrayList<List<Tasks.Task>>()
         var nextPageToken: String? = null
         do {
             val response = if (nextPageToken == null) {
@@ -337,11 +373,11 @@ class MicrosoftSynchronizer @Inject constructor(
                 return null
             }
             val body = response.body<Tasks>()
-            tasks.addAll(body.value)
+            pages.add(body.value)
             nextPageToken = body.nextPage
             body.nextDelta?.let { local.ctag = it}
         } while (nextPageToken?.isNotBlank() == true)
-        return tasks
+        return pages
     }
 
     private suspend fun fullSync(
@@ -351,30 +387,108 @@ class MicrosoftSynchronizer @Inject constructor(
         microsoft: MicrosoftService,
     ) {
         Timber.d("full update: $list")
-        val tasks = getTasks(account, list, remoteList, microsoft) ?: return
-        tasks.forEach { updateTask(list, it) }
+        val pages = getTasks(account, list, remoteList, microsoft) ?: return
+        val removed = ArrayList<CaldavTask>()
+        pages.forEach { applyPage(list, it, removed) }
         caldavDao
             .getRemoteIds(list.uuid!!)
-            .subtract(tasks.map { it.id }.toSet())
+            .subtract(pages.flatten().map { it.id }.toSet())
             .takeIf { it.isNotEmpty() }
             ?.let {
                 Timber.d("DELETED $it")
-                val caldavTasks = caldavDao.getTasksByRemoteId(list.uuid!!, it.filterNotNull())
-                vtodoCache.delete(list, caldavTasks)
-                val taskIds = caldavTasks.map { it.id }.flatMap { taskDao.getChildren(it) + it }
-                taskDeleter.delete(taskIds)
+                removed.addAll(caldavDao.getTasksByRemoteId(list.uuid!!, it.filterNotNull()))
             }
+        delete(list, removed)
         Timber.d("UPDATE $list")
         caldavDao.update(list)
         localBroadcastManager.broadcastRefresh()
     }
 
-    private suspend fun updateTask(list: CaldavCalendar, remote: Tasks.Task) {
-        val existing = caldavDao.getTaskByRemoteId(list.uuid!!, remote.id!!)
-        val task = existing?.task?.let { taskDao.fetch(it) }
-            ?: taskCreator.createWithValues("").apply {
-                taskDao.createNew(this)
+    /**
+     * Applies a page of remote tasks in a single transaction. The local rows for every task and
+     * checklist item in the page are looked up up front. Save hooks and the vtodo cache are
+     * updated once the transaction is done.
+     *
+     * @param removed collects local tasks to delete once the list is done
+     */
+    private suspend fun applyPage(
+        list: CaldavCalendar,
+        page: List<Tasks.Task>,
+        removed: MutableList<CaldavTask>,
+    ) {
+        val remotes = page.associateBy { it.id!! }.values
+        val existing = caldavDao
+            .getTasksByRemoteId(
+                list.uuid!!,
+                remotes.flatMap { remote ->
+                    listOf(remote.id!!) + (remote.checklistItems?.mapNotNull { it.id } ?: emptyList())
+                }
+            )
+            .associateByTo(HashMap()) { it.remoteId!! }
+        val tasks = taskDao
+            .fetch(existing.values.map { it.task })
+            .associateBy { it.id }
+        val children = caldavDao
+            .getChildren(
+                remotes
+                    .filter { it.removed == null && it.checklistItems != null }
+                    .mapNotNull { existing[it.id]?.task }
+            )
+            .groupBy({ it.task.parent }, { it.caldavTask })
+        val applied = Page(existing, tasks, children, removed)
+        database.useWriterConnection { transactor ->
+            transactor.immediateTransaction {
+                for (remote in remotes) {
+                    if (remote.removed == null) {
+                        updateTask(list, remote, applied)
+                    } else {
+                        Timber.d("Deleting $remote")
+                        existing[remote.id]?.let { removed.add(it) }
+                    }
+                }
             }
+        }
+        applied.vtodos.forEach { (caldavTask, vtodo) -> vtodoCache.putVtodo(list, caldavTask, vtodo) }
+        taskDao.afterSave(applied.saved)
+    }
+
+    /** Local rows looked up for a page, and the work left for after its transaction */
+    private class Page(
+        val existing: MutableMap<String, CaldavTask>,
+        val tasks: Map<Long, Task>,
+        /** Synced subtasks of the page's existing tasks, by parent */
+        val children: Map<Long, List<CaldavTask>>,
+        val removed: MutableList<CaldavTask>,
+    ) {
+        val saved = ArrayList<Pair<Task, Task?>>()
+        val vtodos = ArrayList<Pair<CaldavTask, String>>()
+    }
+
+    /** @return a copy of the local task for [existing], or of a new task, and its original */
+    private suspend fun localTask(existing: CaldavTask?, page: Page): Pair<Task, Task> {
+        val original = existing?.task?.let { page.tasks[it] }
+            ?: taskCreator.createWithValues("").apply { taskDao.createNew(this) }
+        return original.copy() to original
+    }
+
+    /** Deletes [removed] and their subtasks */
+    private suspend fun delete(list: CaldavCalendar, removed: List<CaldavTask>) {
+        if (removed.isEmpty()) {
+            return
+        }
+        val taskIds = removed.map { it.task }
+        Timber.d("Deleting taskIds=$taskIds")
+        vtodoCache.delete(list, removed)
+        taskDeleter.delete(taskIds + taskDao.getChildren(taskIds))
+    }
+
+    private suspend fun updateTask(
+        list: CaldavCalendar,
+        remote: Tasks.Task,
+        page: Page,
+    ) {
+        val existing = page.existing[remote.id!!]
+        val (task, original) = localTask(existing, page)
         val caldavTask =
             existing
                 ?.copy(task = task.id)
@@ -393,8 +507,9 @@ class MicrosoftSynchronizer @Inject constructor(
         task.applyRemote(remote, preferences.defaultPriority)
         task.suppressSync()
         task.suppressRefresh()
-        taskDao.save(task)
-        vtodoCache.putVtodo(list, caldavTask, json.encodeToString(remote))
+        taskDao.update(task, original)
+        page.saved.add(task to original)
+        page.vtodos.add(caldavTask to json.encodeToString(remote))
         tagDao.applyTags(task, tagDataDao, getTags(remote.categories ?: emptyList()))
         remote.checklistItems?.let {
             syncChecklist(
@@ -402,12 +517,15 @@ class MicrosoftSynchronizer @Inject constructor(
                 parentId = task.id,
                 parentRemoteId = caldavTask.remoteId!!,
                 checklistItems = it,
+                isNew = existing == null,
+                page = page,
             )
         }
         caldavTask.etag = remote.etag
         caldavTask.lastSync = task.modificationDate
         if (caldavTask.id == Task.NO_ID) {
             caldavDao.insert(caldavTask)
+            page.existing[caldavTask.remoteId!!] = caldavTask
             Timber.d("NEW $caldavTask")
         } else {
             caldavDao.update(caldavTask)
@@ -420,18 +538,18 @@ class MicrosoftSynchronizer @Inject constructor(
         parentId: Long,
         parentRemoteId: String,
         checklistItems: List<Tasks.Task.ChecklistItem>,
+        isNew: Boolean,
+        page: Page,
     ) {
-        val existingSubtasks: List<CaldavTask> = taskDao.getChildren(parentId).let { caldavDao.getTasks(it) }
-        val remoteSubtaskIds = checklistItems.map { it.id }
-        existingSubtasks
-            .filter { it.remoteId?.isNotBlank() == true && !remoteSubtaskIds.contains(it.remoteId) }
-            .let { taskDeleter.delete(it.map { it.task }) }
+        if (!isNew) {
+            val remoteSubtaskIds = checklistItems.map { it.id }
+            page.children[parentId]
+                ?.filter { it.remoteId?.isNotBlank() == true && !remoteSubtaskIds.contains(it.remoteId) }
+                ?.let { page.removed.addAll(it) }
+        }
         checklistItems.forEach { item ->
-            val existing = caldavDao.getTaskByRemoteId(list.uuid!!, item.id!!)
-            val task = existing?.task?.let { taskDao.fetch(it) }
-                ?: taskCreator.createWithValues("").apply {
-                    taskDao.createNew(this)
-                }
+            val existing = page.existing[item.id!!]
+            val (task, original) = localTask(existing, page)
             val caldavTask =
                 existing
                     ?.copy(task = task.id)
@@ -454,12 +572,14 @@ class MicrosoftSynchronizer @Inject constructor(
             }
             task.suppressSync()
             task.suppressRefresh()
-            taskDao.save(task)
+            taskDao.update(task, original)
+            page.saved.add(task to original)
             if (!dirty) {
                 caldavTask.lastSync = task.modificationDate
             }
             if (caldavTask.id == Task.NO_ID) {
                 caldavDao.insert(caldavTask)
+                page.existing[caldavTask.remoteId!!] = caldavTask
                 Timber.d("NEW $caldavTask")
             } else {
                 caldavDao.update(caldavTask)
@@ -92,7 +92,7 @@ class SubtaskControlSet : TaskEditControlFragment() {
     override fun controlId() = TAG
 
     private fun openSubtask(task: Task) = lifecycleScope.launch {
-        mainViewModel.setTask(task)
+        mainViewModel.setTask(taskDao.withNotes(task))
     }
 
     private fun toggleSubtask(taskId: Long, collapsed: Boolean) = lifecycleScope.launch {
@@ -1,8 +1,6 @@
 package org.tasks.ui
 
-import android.content.BroadcastReceiver
 import android.content.Context
-import android.content.Intent
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.viewModelScope
 import com.todoroo.astrid.service.TaskDeleter
@@ -18,12 +16,12 @@ import kotlinx.coroutines.flow.map
 import kotlinx.coroutines.flow.onEach
 import kotlinx.coroutines.flow.update
 import kotlinx.coroutines.launch
-import org.tasks.LocalBroadcastManager
 import org.tasks.R
 import org.tasks.TasksApplication.Companion.IS_GENERIC
 import org.tasks.analytics.Firebase
 import org.tasks.billing.Inventory
 import org.tasks.compose.throttleLatest
+import org.tasks.data.InvalidationBus
 import org.tasks.data.TaskContainer
 import org.tasks.data.TaskListQuery.getQuery
 import org.tasks.data.dao.CaldavDao
@@ -31,6 +29,7 @@ import org.tasks.data.dao.DeletionDao
 import org.tasks.data.dao.TaskDao
 import org.tasks.data.entity.Task
 import org.tasks.data.fetchTasks
+import org.tasks.data.nextRefresh
 import org.tasks.db.QueryUtils
 import org.tasks.extensions.Context.canScheduleExactAlarms
 import org.tasks.filters.AstridOrderingFilter
@@ -46,6 +45,7 @@ import org.tasks.tasklist.SectionedDataSource
 import org.tasks.tasklist.TasksResults
 import org.tasks.time.DateTimeUtils2.currentTimeMillis
 import javax.inject.Inject
+import kotlin.math.min
 
 sealed interface Banner {
     data object NotificationsDisabled : Banner
@@ -63,7 +63,7 @@ class TaskListViewModel @Inject constructor(
     private val taskDao: TaskDao,
     private val taskDeleter: TaskDeleter,
     private val deletionDao: DeletionDao,
-    private val localBroadcastManager: LocalBroadcastManager,
+    private val invalidationBus: InvalidationBus,
     private val inventory: Inventory,
     private val firebase: Firebase,
     private val permissionChecker: PermissionChecker,
@@ -83,11 +83,19 @@ class TaskListViewModel @Inject constructor(
     private val _state = MutableStateFlow(State())
     val state = _state.asStateFlow()
 
-    private val refreshReceiver = object : BroadcastReceiver() {
-        override fun onReceive(context: Context?, intent: Intent?) {
-            invalidate()
-        }
-    }
+    /**
+     * The state and filter that [results] were queried for, and the time at which they could
+     * change without a write to the database
+     */
+    private data class Loaded(
+        val state: State,
+        val filter: Filter,
+        val nextRefresh: Long,
+        val results: TasksResults.Results? = null,
+    )
+
+    @Volatile
+    private var loaded: Loaded? = null
 
     fun setFilter(filter: Filter) {
         _state.update {
@@ -108,6 +116,40 @@ class TaskListViewModel @Inject constructor(
         }
     }
 
+    private fun isExpired() = currentTimeMillis() >= (loaded?.nextRefresh ?: 0)
+
+    /**
+     * Splices the rows for [tasks] into the current results, falling back to [invalidate] when
+     * the change moves tasks around or the results are out of date
+     */
+    private fun refresh(tasks: List<Long>) = viewModelScope.launch(Dispatchers.Default) {
+        val loaded = loaded
+        val results = loaded?.results
+        val query = loaded
+            ?.takeIf {
+                val state = _state.value
+                results != null &&
+                        state.tasks === results &&
+                        state.copy(tasks = TasksResults.Loading) == it.state &&
+                        tasks.size <= MAX_REFRESH
+            }
+            ?.let { getQuery(preferences, it.filter, tasks) }
+        val nextRefresh = query?.let { min(loaded!!.nextRefresh, taskDao.nextRefresh(loaded.filter)) }
+        val updated = query
+            ?.let { results!!.tasks.update(tasks, taskDao.fetchTasks(it)) }
+            ?.let { TasksResults.Results(it) }
+        val current = _state.value
+        if (updated != null &&
+            current.tasks === results &&
+            _state.compareAndSet(current, current.copy(tasks = updated))
+        ) {
+            this@TaskListViewModel.loaded =
+                loaded!!.copy(nextRefresh = nextRefresh!!, results = updated)
+        } else {
+            invalidate()
+        }
+    }
+
     suspend fun getTasksToClear(): List<Long> {
         val filter = _state.value.filter
         val deleteFilter = FilterImpl(
@@ -132,7 +174,18 @@ class TaskListViewModel @Inject constructor(
         taskDeleter.markDeleted(tasks)
 
     init {
-        localBroadcastManager.registerRefreshReceiver(refreshReceiver)
+        invalidationBus
+            .subscribe(InvalidationBus.TASK_LIST)
+            .onEach {
+                val tasks = it.changedTasks(InvalidationBus.TASK_LIST)
+                when {
+                    it.time && isExpired() -> invalidate()
+                    !it.affects(InvalidationBus.TASK_LIST) -> {}
+                    tasks == null || preferences.isSyncOngoing -> invalidate()
+                    else -> refresh(tasks.toList())
+                }
+            }
+            .launchIn(viewModelScope)
 
         _state
             .map { it.copy(tasks = TasksResults.Loading) }
@@ -144,9 +197,10 @@ class TaskListViewModel @Inject constructor(
                     it.searchQuery.isBlank() -> MyTasksFilter.create()
                     else -> applicationContext.createSearchQuery(it.searchQuery)
                 }
-                taskDao.fetchTasks(getQuery(preferences, filter))
+                val nextRefresh = taskDao.nextRefresh(filter)
+                Loaded(it, filter, nextRefresh) to taskDao.fetchTasks(getQuery(preferences, filter))
             }
-            .onEach { tasks ->
+            .onEach { (query, tasks) ->
                 _state.update {
                     it.copy(
                         tasks = TasksResults.Results(
@@ -160,7 +214,7 @@ class TaskListViewModel @Inject constructor(
                                 collapsed = it.collapsed,
                                 completedAtBottom = preferences.completedTasksAtBottom,
                             )
-                        )
+                        ).also { results -> loaded = query.copy(results = results) }
                     )
                 }
             }
@@ -168,10 +222,6 @@ class TaskListViewModel @Inject constructor(
             .launchIn(viewModelScope)
     }
 
-    override fun onCleared() {
-        localBroadcastManager.unregisterReceiver(refreshReceiver)
-    }
-
     fun clearCollapsed() {
         _state.update {
             it.copy(collapsed = setOf(SectionedDataSource.HEADER_COMPLETED))
@@ -232,6 +282,8 @@ class TaskListViewModel @Inject constructor(
     }
 
     companion object {
+        private const val MAX_REFRESH = 20
+
         fun Context.createSearchQuery(query: String): Filter =
             SearchFilter(getString(R.string.FLA_search_filter, query), query)
     }
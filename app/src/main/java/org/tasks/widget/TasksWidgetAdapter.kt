@@ -8,7 +8,7 @@ import com.todoroo.astrid.subtasks.SubtasksHelper
 import dagger.hilt.android.AndroidEntryPoint
 import dagger.hilt.android.qualifiers.ApplicationContext
 import kotlinx.coroutines.runBlocking
-import org.tasks.data.dao.TaskDao
+import org.tasks.data.FilterResultCache
 import org.tasks.markdown.MarkdownProvider
 import org.tasks.preferences.DefaultFilterProvider
 import org.tasks.preferences.Preferences
@@ -19,7 +19,7 @@ import javax.inject.Inject
 class TasksWidgetAdapter : RemoteViewsService() {
     @ApplicationContext @Inject lateinit var context: Context
     @Inject lateinit var defaultFilterProvider: DefaultFilterProvider
-    @Inject lateinit var taskDao: TaskDao
+    @Inject lateinit var filterResultCache: FilterResultCache
     @Inject lateinit var preferences: Preferences
     @Inject lateinit var subtasksHelper: SubtasksHelper
     @Inject lateinit var chipProvider: WidgetChipProvider
@@ -38,7 +38,7 @@ class TasksWidgetAdapter : RemoteViewsService() {
             filter,
             applicationContext,
             widgetId,
-            taskDao,
+            filterResultCache,
             chipProvider,
             markdownProvider.markdown(false),
             headerFormatter,
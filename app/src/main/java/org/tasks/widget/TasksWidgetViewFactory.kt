@@ -10,12 +10,13 @@ import com.todoroo.astrid.subtasks.SubtasksHelper
 import kotlinx.coroutines.runBlocking
 import org.tasks.BuildConfig
 import org.tasks.R
+import org.tasks.data.FilterResultCache
 import org.tasks.data.TaskContainer
 import org.tasks.data.TaskListQuery.getQuery
-import org.tasks.data.dao.TaskDao
 import org.tasks.data.hasNotes
 import org.tasks.data.isHidden
 import org.tasks.data.isOverdue
+import org.tasks.data.sql.BoundQuery
 import org.tasks.extensions.Context.is24HourFormat
 import org.tasks.extensions.setBackgroundResource
 import org.tasks.extensions.setColorFilter
@@ -45,7 +46,7 @@ internal class TasksWidgetViewFactory(
     private val filter: Filter,
     private val context: Context,
     private val widgetId: Int,
-    private val taskDao: TaskDao,
+    private val filterResultCache: FilterResultCache,
     private val chipProvider: WidgetChipProvider,
     private val markdown: Markdown,
     private val headerFormatter: HeaderFormatter,
@@ -70,7 +71,7 @@ internal class TasksWidgetViewFactory(
         runBlocking {
             val collapsed = widgetPreferences.collapsed
             tasks = SectionedDataSource(
-                taskDao.fetchTasks(getQuery(filter)),
+                filterResultCache.fetchTasks(getQuery(filter)),
                 disableGroups,
                 settings.groupMode,
                 widgetPreferences.subtaskMode,
@@ -271,7 +272,7 @@ internal class TasksWidgetViewFactory(
         }
     }
 
-    private suspend fun getQuery(filter: Filter): String {
+    private suspend fun getQuery(filter: Filter): BoundQuery {
         subtasksHelper.applySubtasksToWidgetFilter(filter, widgetPreferences)
         return getQuery(widgetPreferences, filter)
     }
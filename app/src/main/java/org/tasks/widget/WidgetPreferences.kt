@@ -265,6 +265,9 @@ class WidgetPreferences(
         get() = getBoolean(R.string.p_widget_show_completed, false)
     override val alwaysDisplayFullDate: Boolean
         get() = preferences.alwaysDisplayFullDate
+    override val showFullDescription: Boolean
+        get() = getBoolean(R.string.p_widget_show_description, true) &&
+                getBoolean(R.string.p_widget_show_full_description, false)
     override var completedTasksAtBottom: Boolean
         get() = preferences.completedTasksAtBottom
         set(value) {
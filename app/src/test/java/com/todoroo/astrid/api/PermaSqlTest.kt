@@ -0,0 +1,72 @@
+package com.todoroo.astrid.api
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.tasks.Freeze
+import org.tasks.Freeze.Companion.freezeAt
+import org.tasks.time.DateTime
+
+class PermaSqlTest {
+    private val now = DateTime(2021, 2, 4, 14, 56, 34, 126)
+
+    @Before
+    fun setUp() {
+        freezeAt(now)
+    }
+
+    @After
+    fun tearDown() {
+        Freeze.thaw()
+    }
+
+    @Test
+    fun bindPlaceholdersInOrder() {
+        val query = PermaSql.bindPlaceholdersForQuery("dueDate <= EOD() AND hideUntil < NOW() AND x > EODTT()")
+
+        assertEquals("dueDate <= ? AND hideUntil < ? AND x > ?", query.sql)
+        assertEquals(
+            listOf(
+                DateTime(2021, 2, 4, 23, 59, 59, 0).millis,
+                now.millis,
+                DateTime(2021, 2, 6, 23, 59, 59, 0).millis,
+            ),
+            query.args
+        )
+    }
+
+    @Test
+    fun sqlDoesNotChangeOverTime() {
+        val sql = "dueDate <= EOD()"
+        val first = PermaSql.bindPlaceholdersForQuery(sql)
+        val second = freezeAt(now.plusDays(1)) { PermaSql.bindPlaceholdersForQuery(sql) }
+
+        assertEquals(first.sql, second.sql)
+        assertEquals(first.args.single() as Long + 24 * 60 * 60 * 1000, second.args.single())
+    }
+
+    @Test
+    fun replaceInsideLiterals() {
+        val query = PermaSql.bindPlaceholdersForQuery("title LIKE '%NOW()%' AND dueDate < NOW()")
+
+        assertEquals("title LIKE '%${now.millis}%' AND dueDate < ?", query.sql)
+        assertEquals(listOf(now.millis), query.args)
+    }
+
+    @Test
+    fun ignoreEscapedQuotes() {
+        val query = PermaSql.bindPlaceholdersForQuery("title = 'it''s' AND dueDate < NOON()")
+
+        assertEquals("title = 'it''s' AND dueDate < ?", query.sql)
+        assertEquals(listOf(DateTime(2021, 2, 4, 12, 0, 0, 0).millis), query.args)
+    }
+
+    @Test
+    fun noPlaceholders() {
+        val query = PermaSql.bindPlaceholdersForQuery("SELECT 1")
+
+        assertEquals("SELECT 1", query.sql)
+        assertEquals(emptyList<Any?>(), query.args)
+    }
+}
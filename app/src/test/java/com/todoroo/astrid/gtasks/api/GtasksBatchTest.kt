@@ -0,0 +1,122 @@
+package com.todoroo.astrid.gtasks.api
+
+import com.google.api.client.http.HttpResponseException
+import com.google.api.client.http.LowLevelHttpRequest
+import com.google.api.client.http.LowLevelHttpResponse
+import com.google.api.client.testing.http.MockHttpTransport
+import com.google.api.client.testing.http.MockLowLevelHttpRequest
+import com.google.api.client.testing.http.MockLowLevelHttpResponse
+import com.google.api.services.tasks.model.Task
+import kotlinx.coroutines.test.runTest
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.times
+import org.mockito.Mockito.verify
+
+/** Runs [GtasksInvoker.batch] against a stand-in for the Google Tasks batch endpoint */
+class GtasksBatchTest {
+    private val credentials = mock(HttpCredentialsAdapter::class.java)
+    private val batches = ArrayList<List<String>>()
+    private val results = ArrayList<Pair<Int, Result<Any?>>>()
+    private val unauthorized = ArrayList<String>()
+    private var failAt = -1
+
+    private val transport = object : MockHttpTransport() {
+        override fun buildRequest(method: String, url: String): LowLevelHttpRequest =
+            object : MockLowLevelHttpRequest(url) {
+                override fun execute(): LowLevelHttpResponse = respond(contentAsString)
+            }
+    }
+
+    private val invoker = GtasksInvoker(credentials, transport)
+
+    @Test
+    fun sendRequestsInBatchesOfFifty() = runTest {
+        batch(120)
+
+        assertEquals(listOf(50, 50, 20), batches.map { it.size })
+        assertEquals((0 until 120).toList(), results.map { it.first })
+        assertEquals("task119", (results.last().second.getOrNull() as Task).id)
+    }
+
+    @Test
+    fun keepResultsOfEarlierBatches() = runTest {
+        failAt = 1
+
+        val error = runCatching { batch(120) }.exceptionOrNull()
+
+        assertTrue(error is HttpResponseException)
+        assertEquals(2, batches.size)
+        assertEquals((0 until 50).toList(), results.map { it.first })
+    }
+
+    @Test
+    fun retryUnauthorizedWithinBatch() = runTest {
+        unauthorized.add("task1")
+
+        batch(60)
+
+        verify(credentials, times(1)).invalidateToken()
+        assertEquals(listOf(50, 1, 10), batches.map { it.size })
+        assertEquals(listOf("task1"), batches[1])
+        assertEquals((0 until 60).toList(), results.map { it.first })
+        assertTrue(results.all { it.second.isSuccess })
+    }
+
+    @Test
+    fun failuresAreResults() = runTest {
+        unauthorized.add("task0")
+        unauthorized.add("task0")
+
+        batch(1)
+
+        assertTrue(results.single().second.exceptionOrNull() is HttpResponseException)
+    }
+
+    private suspend fun batch(count: Int) =
+        invoker.batch(
+            (0 until count).map {
+                invoker
+                    .createGtaskRequest("list", Task().setTitle("task$it"), null, null)
+                    .setDisableGZipContent(true)
+            }
+        ) { index, result ->
+            results.add(index to result)
+        }
+
+    private fun respond(content: String): MockLowLevelHttpResponse {
+        val titles = TITLE.findAll(content).map { it.groupValues[1] }.toList()
+        batches.add(titles)
+        if (batches.size - 1 == failAt) {
+            return MockLowLevelHttpResponse().setStatusCode(503)
+        }
+        val body = buildString {
+            titles.forEachIndexed { index, title ->
+                val (status, json) = if (unauthorized.remove(title)) {
+                    "401 Unauthorized" to """{"error":{"code":401,"message":"Unauthorized"}}"""
+                } else {
+                    "200 OK" to """{"id":"$title","title":"$title"}"""
+                }
+                append("--$BOUNDARY\r\n")
+                append("Content-Type: application/http\r\n")
+                append("Content-Transfer-Encoding: binary\r\n")
+                append("Content-ID: <response-$index>\r\n\r\n")
+                append("HTTP/1.1 $status\r\n")
+                append("Content-Type: application/json; charset=UTF-8\r\n")
+                append("Content-Length: ${json.length}\r\n\r\n")
+                append("$json\r\n")
+            }
+            append("--$BOUNDARY--\r\n")
+        }
+        return MockLowLevelHttpResponse()
+            .setContentType("multipart/mixed; boundary=$BOUNDARY")
+            .setContent(body)
+    }
+
+    companion object {
+        private const val BOUNDARY = "batch_boundary"
+        private val TITLE = Regex("\"title\":\"(task\\d+)\"")
+    }
+}
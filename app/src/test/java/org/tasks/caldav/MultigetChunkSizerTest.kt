@@ -0,0 +1,53 @@
+package org.tasks.caldav
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class MultigetChunkSizerTest {
+    @Test
+    fun startWithInitialSize() {
+        assertEquals(30, MultigetChunkSizer().size)
+    }
+
+    @Test
+    fun growWhenFastAndSmall() {
+        val sizer = MultigetChunkSizer()
+        sizer.update(elapsedMillis = 200, bytes = 50_000)
+        assertEquals(60, sizer.size)
+    }
+
+    @Test
+    fun shrinkWhenSlow() {
+        val sizer = MultigetChunkSizer()
+        sizer.update(elapsedMillis = 5000, bytes = 50_000)
+        assertEquals(15, sizer.size)
+    }
+
+    @Test
+    fun shrinkWhenResponseTooLarge() {
+        val sizer = MultigetChunkSizer()
+        sizer.update(elapsedMillis = 200, bytes = 2_000_000)
+        assertEquals(15, sizer.size)
+    }
+
+    @Test
+    fun keepSizeWithinTarget() {
+        val sizer = MultigetChunkSizer()
+        sizer.update(elapsedMillis = 1500, bytes = 50_000)
+        assertEquals(30, sizer.size)
+    }
+
+    @Test
+    fun clampToMaximum() {
+        val sizer = MultigetChunkSizer()
+        repeat(10) { sizer.update(elapsedMillis = 100, bytes = 1000) }
+        assertEquals(240, sizer.size)
+    }
+
+    @Test
+    fun clampToMinimum() {
+        val sizer = MultigetChunkSizer()
+        repeat(10) { sizer.update(elapsedMillis = 10_000, bytes = 1000) }
+        assertEquals(10, sizer.size)
+    }
+}
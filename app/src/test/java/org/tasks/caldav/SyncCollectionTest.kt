@@ -0,0 +1,108 @@
+package org.tasks.caldav
+
+import at.bitfire.dav4jvm.Response
+import at.bitfire.dav4jvm.XmlUtils
+import at.bitfire.dav4jvm.property.CalendarData
+import okhttp3.HttpUrl.Companion.toHttpUrl
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Test
+import org.tasks.caldav.CaldavSynchronizer.Companion.vtodos
+import org.tasks.caldav.iCalendar.Companion.fromVtodo
+import org.xmlpull.v1.XmlPullParser
+import java.io.StringReader
+
+class SyncCollectionTest {
+    @Test
+    fun skipEventsInMixedCalendar() {
+        val responses = parse(MIXED)
+
+        assertEquals(3, responses.size)
+        assertEquals(listOf("task.ics", "missing.ics"), responses.vtodos().map { it.hrefName() })
+    }
+
+    @Test
+    fun parseRemainingVtodo() {
+        val vtodo = parse(MIXED).vtodos().first()[CalendarData::class.java]
+
+        assertNotNull(fromVtodo(vtodo!!.iCalendar!!))
+    }
+
+    private fun parse(xml: String): List<Response> {
+        val responses = ArrayList<Response>()
+        val parser = XmlUtils.newPullParser()
+        parser.setInput(StringReader(xml))
+        var eventType = parser.eventType
+        while (eventType != XmlPullParser.END_DOCUMENT) {
+            if (eventType == XmlPullParser.START_TAG &&
+                parser.depth == 2 &&
+                parser.namespace == XmlUtils.NS_WEBDAV &&
+                parser.name == "response"
+            ) {
+                Response.parse(parser, LOCATION.toHttpUrl()) { response, _ ->
+                    responses.add(response)
+                }
+            }
+            eventType = parser.next()
+        }
+        return responses
+    }
+
+    companion object {
+        private const val LOCATION = "https://example.com/calendars/user/personal/"
+
+        private val MIXED = """
+            <?xml version="1.0" encoding="utf-8"?>
+            <d:multistatus xmlns:d="DAV:" xmlns:cal="urn:ietf:params:xml:ns:caldav">
+              <d:response>
+                <d:href>/calendars/user/personal/event.ics</d:href>
+                <d:propstat>
+                  <d:prop>
+                    <d:getetag>"1"</d:getetag>
+                    <cal:calendar-data>BEGIN:VCALENDAR&#13;
+            VERSION:2.0&#13;
+            PRODID:test&#13;
+            BEGIN:VEVENT&#13;
+            UID:event&#13;
+            DTSTAMP:20240101T000000Z&#13;
+            DTSTART:20240101T100000Z&#13;
+            SUMMARY:Meeting&#13;
+            END:VEVENT&#13;
+            END:VCALENDAR&#13;
+            </cal:calendar-data>
+                  </d:prop>
+                  <d:status>HTTP/1.1 200 OK</d:status>
+                </d:propstat>
+              </d:response>
+              <d:response>
+                <d:href>/calendars/user/personal/task.ics</d:href>
+                <d:propstat>
+                  <d:prop>
+                    <d:getetag>"2"</d:getetag>
+                    <cal:calendar-data>BEGIN:VCALENDAR&#13;
+            VERSION:2.0&#13;
+            PRODID:test&#13;
+            BEGIN:VTODO&#13;
+            UID:task&#13;
+            DTSTAMP:20240101T000000Z&#13;
+            SUMMARY:Task&#13;
+            END:VTODO&#13;
+            END:VCALENDAR&#13;
+            </cal:calendar-data>
+                  </d:prop>
+                  <d:status>HTTP/1.1 200 OK</d:status>
+                </d:propstat>
+              </d:response>
+              <d:response>
+                <d:href>/calendars/user/personal/missing.ics</d:href>
+                <d:propstat>
+                  <d:prop>
+                    <d:getetag>"3"</d:getetag>
+                  </d:prop>
+                  <d:status>HTTP/1.1 200 OK</d:status>
+                </d:propstat>
+              </d:response>
+            </d:multistatus>
+        """.trimIndent()
+    }
+}
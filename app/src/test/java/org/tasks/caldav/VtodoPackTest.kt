@@ -0,0 +1,144 @@
+package org.tasks.caldav
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.RandomAccessFile
+import java.util.Random
+
+class VtodoPackTest {
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private val file: File
+        get() = File(folder.root, "calendar.pack")
+
+    @Test
+    fun readWrittenValue() {
+        val pack = VtodoPack(file)
+        pack.write("a.ics", VTODO)
+        assertEquals(VTODO, pack.read("a.ics"))
+    }
+
+    @Test
+    fun readMissingValue() {
+        assertNull(VtodoPack(file).read("a.ics"))
+    }
+
+    @Test
+    fun overwriteValue() {
+        val pack = VtodoPack(file)
+        pack.write("a.ics", VTODO)
+        pack.write("a.ics", "updated")
+        assertEquals("updated", pack.read("a.ics"))
+    }
+
+    @Test
+    fun reloadFromDisk() {
+        VtodoPack(file).apply {
+            write("a.ics", VTODO)
+            write("b.ics", "b")
+            write("a.ics", "updated")
+            delete(listOf("b.ics"))
+        }
+        val pack = VtodoPack(file)
+        assertEquals("updated", pack.read("a.ics"))
+        assertNull(pack.read("b.ics"))
+    }
+
+    @Test
+    fun batchedRead() {
+        val pack = VtodoPack(file)
+        pack.write(listOf("a.ics" to "a", "b.ics" to "b", "c.ics" to "c"))
+        assertEquals(
+            mapOf("a.ics" to "a", "c.ics" to "c"),
+            pack.read(listOf("a.ics", "c.ics", "d.ics"))
+        )
+    }
+
+    @Test
+    fun deleteFileWhenEmpty() {
+        val pack = VtodoPack(file)
+        pack.write("a.ics", VTODO)
+        pack.delete(listOf("a.ics"))
+        assertFalse(file.exists())
+    }
+
+    @Test
+    fun truncateIncompleteRecord() {
+        VtodoPack(file).apply {
+            write("a.ics", "a")
+            write("b.ics", "b")
+        }
+        RandomAccessFile(file, "rw").use { it.setLength(it.length() - 2) }
+        val pack = VtodoPack(file)
+        assertEquals("a", pack.read("a.ics"))
+        assertNull(pack.read("b.ics"))
+        pack.write("c.ics", "c")
+        assertEquals("c", VtodoPack(file).read("c.ics"))
+    }
+
+    @Test
+    fun truncateNegativeKeyLength() {
+        val offset = writeTwoRecords()
+        RandomAccessFile(file, "rw").use {
+            it.seek(offset)
+            it.writeInt(-5)
+        }
+        val pack = VtodoPack(file)
+        assertEquals("a", pack.read("a.ics"))
+        assertNull(pack.read("b.ics"))
+        assertEquals(offset, file.length())
+    }
+
+    @Test
+    fun truncateDataLengthPastEndOfFile() {
+        val offset = writeTwoRecords()
+        RandomAccessFile(file, "rw").use {
+            it.seek(offset + 4 + "b.ics".length)
+            it.writeInt(Int.MAX_VALUE)
+        }
+        val pack = VtodoPack(file)
+        assertEquals("a", pack.read("a.ics"))
+        assertNull(pack.read("b.ics"))
+        pack.write("c.ics", "c")
+        assertEquals("c", VtodoPack(file).read("c.ics"))
+    }
+
+    @Test
+    fun compactStaleRecords() {
+        val pack = VtodoPack(file)
+        val random = Random(0)
+        val data = (0 until 20_000).map { 'A' + random.nextInt(26) }.joinToString("")
+        repeat(50) { pack.write("a.ics", "$it$data") }
+        assertTrue(file.length() < 128 * 1024)
+        assertEquals("49$data", VtodoPack(file).read("a.ics"))
+    }
+
+    /** @return the offset of the second record */
+    private fun writeTwoRecords(): Long {
+        val pack = VtodoPack(file)
+        pack.write("a.ics", "a")
+        val offset = file.length()
+        pack.write("b.ics", "b")
+        return offset
+    }
+
+    companion object {
+        private val VTODO = """
+            BEGIN:VCALENDAR
+            VERSION:2.0
+            PRODID:+//IDN tasks.org//android-140500//EN
+            BEGIN:VTODO
+            UID:5983193468216892342
+            SUMMARY:Test
+            END:VTODO
+            END:VCALENDAR
+        """.trimIndent()
+    }
+}
@@ -0,0 +1,80 @@
+package org.tasks.caldav
+
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Ignore
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import timber.log.Timber
+import kotlin.system.measureTimeMillis
+
+/**
+ * Compares the file-per-object layout with the packed layout. Correctness of the packed layout
+ * is covered by [VtodoPackTest]; this only logs timings and is not part of the unit tests.
+ * To run it, remove the [Ignore] locally, plant a [Timber.Tree] that writes to the console,
+ * raise [count] to 20000 for a realistic calendar size and run
+ * `./gradlew :app:testGenericDebugUnitTest --tests '*VtodoStorageBenchmark' -i`
+ */
+@Ignore("Manual benchmark")
+class VtodoStorageBenchmark {
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private val count = 1000
+    private val objects = (0 until count).map { "$it.ics" }
+
+    @Test
+    fun fileStorage() = benchmark("file", FileVtodoStorage(folder.newFolder("file")))
+
+    @Test
+    fun packedStorage() = benchmark("packed", PackedVtodoStorage(folder.newFolder("packed")))
+
+    private fun benchmark(name: String, storage: VtodoStorage) = runBlocking {
+        val write = measureTimeMillis {
+            objects.forEach { storage.write(ACCOUNT, CALENDAR, it, vtodo(it)) }
+        }
+        val size = folder.root.resolve(name).walkBottomUp().filter { it.isFile }.sumOf { it.length() }
+        val read = measureTimeMillis {
+            objects.forEach { assertEquals(vtodo(it), storage.read(ACCOUNT, CALENDAR, it)) }
+        }
+        val batch = measureTimeMillis {
+            assertEquals(count, storage.read(ACCOUNT, CALENDAR, objects).size)
+        }
+        val move = measureTimeMillis {
+            objects.take(count / 10).forEach { storage.move(ACCOUNT, CALENDAR, ACCOUNT, OTHER, it) }
+        }
+        val delete = measureTimeMillis {
+            storage.deleteCalendar(ACCOUNT, CALENDAR)
+            storage.deleteCalendar(ACCOUNT, OTHER)
+        }
+        Timber.i(
+            "$name: count=$count bytes=$size write=${write}ms read=${read}ms " +
+                    "batch=${batch}ms move=${move}ms delete=${delete}ms"
+        )
+    }
+
+    companion object {
+        private const val ACCOUNT = "account"
+        private const val CALENDAR = "calendar"
+        private const val OTHER = "other"
+
+        private fun vtodo(obj: String) = """
+            BEGIN:VCALENDAR
+            VERSION:2.0
+            PRODID:+//IDN tasks.org//android-140500//EN
+            BEGIN:VTODO
+            DTSTAMP:20250101T000000Z
+            UID:${obj.removeSuffix(".ics")}
+            CREATED:20250101T000000Z
+            LAST-MODIFIED:20250101T000000Z
+            SUMMARY:Task $obj
+            DESCRIPTION:Notes for $obj
+            PRIORITY:9
+            STATUS:NEEDS-ACTION
+            X-APPLE-SORT-ORDER:$obj
+            END:VTODO
+            END:VCALENDAR
+        """.trimIndent()
+    }
+}
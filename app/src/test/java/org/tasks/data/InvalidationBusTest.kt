@@ -0,0 +1,101 @@
+package org.tasks.data
+
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.test.runTest
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.tasks.data.InvalidationBus.Companion.coalesce
+import org.tasks.data.InvalidationBus.Invalidation
+
+class InvalidationBusTest {
+    @Test
+    fun coalesceBurst() = runTest {
+        val invalidations = flow {
+            repeat(500) { emit(Invalidation(tables = setOf("tasks"), tasks = setOf(it.toLong()))) }
+        }
+            .coalesce(16)
+            .toList()
+
+        assertEquals(1, invalidations.size)
+        assertEquals((0L until 500L).toSet(), invalidations.single().tasks)
+    }
+
+    @Test
+    fun separateFrames() = runTest {
+        val invalidations = flow {
+            emit(Invalidation(tables = setOf("tasks"), tasks = setOf(1L)))
+            delay(20)
+            emit(Invalidation(tables = setOf("tags")))
+        }
+            .coalesce(16)
+            .toList()
+
+        assertEquals(
+            listOf(
+                Invalidation(tables = setOf("tasks"), tasks = setOf(1L)),
+                Invalidation(tables = setOf("tags")),
+            ),
+            invalidations
+        )
+    }
+
+    @Test
+    fun unreportedWriteDropsReportedTasks() {
+        val merged = Invalidation(tables = setOf("tasks")) +
+                Invalidation(tables = setOf("tasks"), tasks = setOf(1L))
+
+        assertEquals(Invalidation(tables = setOf("tasks")), merged)
+        assertNull(merged.changedTasks(setOf("tasks")))
+    }
+
+    @Test
+    fun reportedWritesMerge() {
+        val merged = Invalidation(tables = setOf("tasks"), tasks = setOf(1L)) +
+                Invalidation(tables = setOf("tasks"), tasks = setOf(2L))
+
+        assertEquals(setOf(1L, 2L), merged.changedTasks(setOf("tasks")))
+    }
+
+    @Test
+    fun invalidateAllDropsTasks() {
+        val merged = Invalidation(tables = setOf("tasks"), tasks = setOf(1L)) + Invalidation()
+
+        assertNull(merged.tables)
+        assertNull(merged.tasks)
+    }
+
+    @Test
+    fun tickIsTimeOnly() {
+        val tick = Invalidation(tables = emptySet(), tasks = emptySet(), time = true)
+
+        assertTrue(tick.timeOnly)
+        assertFalse(tick.affects(setOf("tasks")))
+        assertFalse((tick + Invalidation(tables = setOf("tasks"), tasks = emptySet())).timeOnly)
+    }
+
+    @Test
+    fun mergedWriteKeepsTime() {
+        val merged = Invalidation(tables = setOf("tasks"), tasks = setOf(1L)) +
+                Invalidation(tables = emptySet(), tasks = emptySet(), time = true)
+
+        assertEquals(Invalidation(tables = setOf("tasks"), tasks = setOf(1L), time = true), merged)
+    }
+
+    @Test
+    fun invalidateAllIncludesTime() {
+        assertTrue(Invalidation().time)
+        assertFalse(Invalidation(tables = setOf("tasks"), tasks = emptySet()).time)
+    }
+
+    @Test
+    fun affectsSubscribedTables() {
+        assertTrue(Invalidation(tables = setOf("tags")).affects(setOf("tasks", "tags")))
+        assertFalse(Invalidation(tables = setOf("tags")).affects(setOf("tasks")))
+        assertTrue(Invalidation().affects(setOf("tasks")))
+    }
+}
@@ -0,0 +1,100 @@
+package org.tasks.gtasks
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.tasks.data.entity.CaldavTask
+import org.tasks.gtasks.GoogleTaskSynchronizer.Companion.placements
+import org.tasks.gtasks.GoogleTaskSynchronizer.Companion.runs
+import org.tasks.gtasks.GoogleTaskSynchronizer.Placement
+import org.tasks.gtasks.GoogleTaskSynchronizer.Run
+
+class GoogleTaskPlacementTest {
+    @Test
+    fun singleTaskGoesAfterAnchor() {
+        assertEquals(listOf(Placement(0, -1)), placements(1))
+    }
+
+    @Test
+    fun splitRunInHalf() {
+        assertEquals(
+            listOf(Placement(1, -1), Placement(0, -1), Placement(1, 1)),
+            placements(3)
+        )
+    }
+
+    @Test
+    fun previousPlacedInEarlierWave() {
+        val placements = placements(100)
+        placements.forEach { (wave, after) ->
+            assertTrue(after < 0 || placements[after].wave < wave)
+        }
+    }
+
+    @Test
+    fun eachTaskAnchorsOncePerWave() {
+        placements(100)
+            .groupBy { it.wave }
+            .values
+            .forEach { wave -> assertEquals(wave.size, wave.map { it.after }.toSet().size) }
+    }
+
+    @Test
+    fun logarithmicWaves() {
+        assertEquals(7, placements(100).maxOf { it.wave } + 1)
+    }
+
+    @Test
+    fun keepOrder() {
+        val placements = placements(20)
+        val order = mutableListOf<Int>()
+        placements.indices
+            .sortedBy { placements[it].wave }
+            .forEach { index ->
+                val after = placements[index].after
+                order.add(if (after < 0) 0 else order.indexOf(after) + 1, index)
+            }
+        assertEquals((0 until 20).toList(), order)
+    }
+
+    @Test
+    fun splitRunsAtSiblings() {
+        val siblings = listOf(sibling(1), sibling(2, "a"), sibling(3), sibling(4, "b"))
+
+        assertEquals(
+            listOf(Run(null, listOf(1L)), Run("a", listOf(3L))),
+            runs(siblings, members(1, 3))
+        )
+    }
+
+    @Test
+    fun siblingWithoutRemoteIdDoesNotSplitRun() {
+        val siblings = listOf(sibling(1, "a"), sibling(2), sibling(3, ""), sibling(4), sibling(5))
+
+        assertEquals(listOf(Run("a", listOf(2L, 5L))), runs(siblings, members(2, 5)))
+    }
+
+    @Test
+    fun runsHaveDistinctAnchors() {
+        val siblings = (1L..100L).map { sibling(it, if (it % 3 == 0L) "remote$it" else null) }
+
+        val anchors = runs(siblings, members(*(1L..100L step 2).toList().toLongArray()))
+            .map { it.anchor }
+
+        assertEquals(anchors.size, anchors.toSet().size)
+    }
+
+    @Test
+    fun leaveMissingMembers() {
+        val members = members(1, 5)
+
+        runs(listOf(sibling(1)), members)
+
+        assertEquals(setOf(5L), members.keys)
+    }
+
+    private fun sibling(task: Long, remoteId: String? = null) =
+        CaldavTask(task = task, calendar = "list", remoteId = remoteId)
+
+    private fun members(vararg tasks: Long) = tasks.associateWith { it }.toMutableMap()
+}
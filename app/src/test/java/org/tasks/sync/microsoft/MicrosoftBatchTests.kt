@@ -0,0 +1,142 @@
+package org.tasks.sync.microsoft
+
+import io.ktor.client.HttpClient
+import io.ktor.client.engine.mock.MockEngine
+import io.ktor.client.engine.mock.respond
+import io.ktor.client.engine.mock.respondError
+import io.ktor.client.engine.mock.toByteArray
+import io.ktor.client.plugins.ServerResponseException
+import io.ktor.client.plugins.contentnegotiation.ContentNegotiation
+import io.ktor.http.ContentType
+import io.ktor.http.HttpHeaders
+import io.ktor.http.HttpMethod
+import io.ktor.http.HttpStatusCode
+import io.ktor.http.headersOf
+import io.ktor.serialization.kotlinx.json.json
+import kotlinx.coroutines.test.runTest
+import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.JsonPrimitive
+import kotlinx.serialization.json.buildJsonObject
+import kotlinx.serialization.json.jsonObject
+import kotlinx.serialization.json.jsonPrimitive
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/** Runs [MicrosoftService.batch] against a stand-in for the Graph `$batch` endpoint */
+class MicrosoftBatchTests {
+    private val batches = ArrayList<Batch>()
+    private val results = ArrayList<Map<String, Batch.Result>>()
+    private var failAt = -1
+
+    private val service = MicrosoftService(
+        client = HttpClient(
+            MockEngine { request ->
+                assertEquals("$ROOT/\$batch", request.url.toString())
+                assertEquals(HttpMethod.Post, request.method)
+                val batch = json.decodeFromString<Batch>(request.body.toByteArray().decodeToString())
+                batches.add(batch)
+                if (batches.size - 1 == failAt) {
+                    return@MockEngine respondError(HttpStatusCode.ServiceUnavailable)
+                }
+                val response = Batch.Response(
+                    responses = batch.requests.reversed().map {
+                        Batch.Result(
+                            id = it.id,
+                            status = if (it.method == "DELETE") 204 else 201,
+                            body = buildJsonObject { put("id", JsonPrimitive("remote-${it.id}")) },
+                        )
+                    }
+                )
+                respond(
+                    content = json.encodeToString(response),
+                    headers = headersOf(HttpHeaders.ContentType, ContentType.Application.Json.toString()),
+                )
+            }
+        ) {
+            expectSuccess = true
+            install(ContentNegotiation) {
+                json(json)
+            }
+        },
+        rootUrl = ROOT,
+    )
+
+    @Test
+    fun sendRequestsInBatchesOfTwenty() = runTest {
+        batch(requests(45))
+
+        assertEquals(listOf(20, 20, 5), batches.map { it.requests.size })
+        assertEquals(listOf(20, 20, 5), results.map { it.size })
+    }
+
+    @Test
+    fun keepResultsOfEarlierBatches() = runTest {
+        failAt = 1
+
+        val error = runCatching { batch(requests(45)) }.exceptionOrNull()
+
+        assertTrue(error is ServerResponseException)
+
+        assertEquals(2, batches.size)
+        assertEquals((0 until 20).map { it.toString() }.toSet(), results.single().keys)
+    }
+
+    @Test
+    fun mapResultsById() = runTest {
+        batch(requests(3))
+
+        assertEquals("remote-1", results.single()["1"]!!.decode<Tasks.Task>().id)
+    }
+
+    @Test
+    fun keepDependenciesWithinBatch() = runTest {
+        batch(
+            requests(22).mapIndexed { index, request ->
+                request.copy(dependsOn = if (index > 0) listOf((index - 1).toString()) else null)
+            }
+        )
+
+        assertEquals(listOf("18"), batches[0].requests[19].dependsOn)
+        assertNull(batches[1].requests[0].dependsOn)
+        assertEquals(listOf("20"), batches[1].requests[1].dependsOn)
+    }
+
+    @Test
+    fun relativeUrlWithJsonBody() = runTest {
+        batch(listOf(service.createTask("list", Tasks.Task(title = "title")).copy(id = "0")))
+
+        val request = batches.single().requests.single()
+        assertEquals("POST", request.method)
+        assertEquals("/me/todo/lists/list/tasks", request.url)
+        assertEquals(
+            ContentType.Application.Json.toString(),
+            request.headers!![HttpHeaders.ContentType]
+        )
+        assertEquals("title", request.body!!.jsonObject["title"]!!.jsonPrimitive.content)
+    }
+
+    @Test
+    fun deleteHasNoBody() = runTest {
+        batch(listOf(service.deleteChecklistItem("list", "task", "item").copy(id = "0")))
+
+        val request = batches.single().requests.single()
+        assertEquals("DELETE", request.method)
+        assertEquals("/me/todo/lists/list/tasks/task/checklistItems/item", request.url)
+        assertNull(request.body)
+        assertNull(request.headers)
+    }
+
+    private suspend fun batch(requests: List<Batch.Request>) =
+        service.batch(requests) { results.add(it) }
+
+    private fun requests(count: Int) = (0 until count).map {
+        service.updateTask("list", "task$it", Tasks.Task(title = "task $it")).copy(id = it.toString())
+    }
+
+    companion object {
+        private const val ROOT = "http://localhost/v1.0"
+        private val json = Json { ignoreUnknownKeys = true }
+    }
+}
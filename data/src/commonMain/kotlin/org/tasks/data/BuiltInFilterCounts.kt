@@ -0,0 +1,7 @@
+package org.tasks.data
+
+data class BuiltInFilterCounts(
+    val snoozed: Int,
+    val timers: Int,
+    val notifications: Int,
+)
@@ -0,0 +1,14 @@
+package org.tasks.data
+
+import androidx.room.ColumnInfo
+
+data class CaldavObject(
+    @ColumnInfo(name = "cd_task") val task: Long,
+    @ColumnInfo(name = "cd_object") val obj: String,
+    @ColumnInfo(name = "cd_etag") val etag: String?,
+    @ColumnInfo(name = "cd_last_sync") val lastSync: Long,
+    @ColumnInfo(name = "cd_deleted") val deleted: Long,
+) {
+    val isRemote: Boolean
+        get() = deleted == 0L && lastSync > 0
+}
@@ -0,0 +1,14 @@
+package org.tasks.data
+
+/** A visible, incomplete task counted towards a list, tag or place */
+data class FilterMembership(
+    val task: Long,
+    val type: Int,
+    val key: String,
+) {
+    companion object {
+        const val TYPE_LIST = 0
+        const val TYPE_TAG = 1
+        const val TYPE_PLACE = 2
+    }
+}
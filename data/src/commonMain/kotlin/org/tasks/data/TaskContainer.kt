@@ -19,6 +19,8 @@ data class TaskContainer(
     @ColumnInfo(name = "sort_group") val sortGroup: Long? = null,
     @ColumnInfo(name = "primary_sort") val primarySort: Long = 0,
     @ColumnInfo(name = "secondary_sort") val secondarySort: Long = 0,
+    /** [Task.notes] only holds the start of the notes, see [Task.isNotesPreview] */
+    @ColumnInfo(name = "notes_truncated") val notesTruncated: Boolean = false,
     var indent: Int = 0,
     var targetIndent: Int = 0,
 ){
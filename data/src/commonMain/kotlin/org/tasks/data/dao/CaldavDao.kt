@@ -10,6 +10,7 @@ import androidx.room.Update
 import co.touchlab.kermit.Logger
 import kotlinx.coroutines.flow.Flow
 import org.tasks.data.CaldavFilters
+import org.tasks.data.CaldavObject
 import org.tasks.data.CaldavTaskContainer
 import org.tasks.data.NO_ORDER
 import org.tasks.data.TaskContainer
@@ -206,6 +207,16 @@ SELECT EXISTS(SELECT 1
     @Query("SELECT * FROM caldav_tasks WHERE cd_task in (:taskIds) AND cd_deleted = 0")
     internal abstract suspend fun getTasksInternal(taskIds: List<Long>): List<CaldavTask>
 
+    /** @return the subtasks of [parents] that belong to a calendar, with their tasks */
+    suspend fun getChildren(parents: List<Long>): List<CaldavTaskContainer> =
+            parents.chunkedMap { getChildrenInternal(it) }
+
+    @Query("SELECT task.*, caldav_task.* FROM tasks AS task "
+            + "INNER JOIN caldav_tasks AS caldav_task ON _id = cd_task "
+            + "WHERE parent IN (:parents) "
+            + "AND cd_deleted = 0")
+    internal abstract suspend fun getChildrenInternal(parents: List<Long>): List<CaldavTaskContainer>
+
     @Query("SELECT task.*, caldav_task.* FROM tasks AS task "
             + "INNER JOIN caldav_tasks AS caldav_task ON _id = cd_task "
             + "WHERE cd_calendar = :calendar "
@@ -231,6 +242,9 @@ SELECT EXISTS(SELECT 1
     @Query("SELECT cd_object FROM caldav_tasks WHERE cd_calendar = :calendar AND cd_deleted = 0 AND cd_last_sync > 0")
     abstract suspend fun getRemoteObjects(calendar: String): List<String>
 
+    @Query("SELECT cd_task, cd_object, cd_etag, cd_last_sync, cd_deleted FROM caldav_tasks WHERE cd_calendar = :calendar AND cd_object IS NOT NULL")
+    abstract suspend fun getObjects(calendar: String): List<CaldavObject>
+
     @Query("SELECT cd_remote_id FROM caldav_tasks WHERE cd_calendar = :calendar AND cd_deleted = 0 AND cd_last_sync > 0")
     abstract suspend fun getRemoteIds(calendar: String): List<String>
 
@@ -280,6 +294,15 @@ GROUP BY caldav_lists.cdl_uuid
     """)
     abstract suspend fun getCaldavFilters(uuid: String, now: Long = currentTimeMillis()): List<CaldavFilters>
 
+    /** Lists for all accounts, without task counts */
+    @Query("""
+SELECT caldav_lists.*, 0 AS count, COUNT(principal_access.id) AS principals
+FROM caldav_lists
+         LEFT JOIN principal_access ON caldav_lists.cdl_id = principal_access.list
+GROUP BY caldav_lists.cdl_uuid
+    """)
+    abstract suspend fun getAllCaldavFilters(): List<CaldavFilters>
+
     @Query("""
         WITH parent_map AS (
             SELECT
@@ -333,8 +356,12 @@ GROUP BY caldav_lists.cdl_uuid
             WHERE cd_deleted = 0
                 AND cd_calendar = :calendar
         )
+            AND parent != IFNULL(
+                (SELECT parent_id FROM parent_map WHERE task_id = tasks._id),
+                0
+            )
     """)
-    abstract suspend fun updateParents(calendar: String)
+    abstract suspend fun updateParents(calendar: String): Int
 
     @Transaction
     open suspend fun move(
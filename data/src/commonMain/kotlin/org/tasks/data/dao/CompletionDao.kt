@@ -4,6 +4,7 @@ import androidx.room.Dao
 import androidx.room.Transaction
 import co.touchlab.kermit.Logger
 import org.tasks.data.db.Database
+import org.tasks.data.db.TaskWriteLog
 import org.tasks.data.entity.Task
 import org.tasks.time.DateTimeUtils2.currentTimeMillis
 
@@ -20,12 +21,13 @@ abstract class CompletionDao(private val db: Database) {
         val updated = tasks
             .map {
                 it.copy(
+                    notes = if (it.isNotesPreview) db.taskDao().getNotes(it.id) else it.notes,
                     completionDate = completionDate,
                     modificationDate = modified,
                 )
             }
         db.alarmDao().deleteSnoozed(tasks.map { it.id })
-        db.taskDao().updateInternal(updated)
+        TaskWriteLog.reported(db) { db.taskDao().updateInternal(updated) }
         afterSave(updated)
     }
 }
\ No newline at end of file
@@ -7,6 +7,7 @@ import androidx.room.Query
 import androidx.room.Transaction
 import androidx.room.Update
 import co.touchlab.kermit.Logger
+import org.tasks.data.db.SuspendDbUtils.chunkedMap
 import org.tasks.data.entity.CaldavAccount.Companion.TYPE_GOOGLE_TASKS
 import org.tasks.data.entity.CaldavTask
 import org.tasks.data.entity.Task
@@ -83,6 +84,12 @@ abstract class GoogleTaskDao {
     @Query("SELECT * FROM caldav_tasks WHERE cd_remote_id = :remoteId LIMIT 1")
     abstract suspend fun getByRemoteId(remoteId: String): CaldavTask?
 
+    suspend fun getByRemoteId(remoteIds: List<String>): List<CaldavTask> =
+        remoteIds.chunkedMap { getByRemoteIdInternal(it) }
+
+    @Query("SELECT * FROM caldav_tasks WHERE cd_remote_id IN (:remoteIds)")
+    internal abstract suspend fun getByRemoteIdInternal(remoteIds: List<String>): List<CaldavTask>
+
     @Query("SELECT * FROM caldav_tasks WHERE cd_task = :taskId AND cd_deleted > 0")
     abstract suspend fun getDeletedByTaskId(taskId: Long): List<CaldavTask>
 
@@ -108,6 +115,20 @@ ORDER BY `order` DESC
     )
     abstract suspend fun getPrevious(listId: String, parent: Long, order: Long): String?
 
+    @Query(
+        """
+SELECT caldav_tasks.*
+FROM caldav_tasks
+         INNER JOIN tasks ON tasks._id = cd_task
+WHERE deleted = 0
+  AND cd_deleted = 0
+  AND cd_calendar = :listId
+  AND parent = :parent
+ORDER BY `order` ASC
+    """
+    )
+    abstract suspend fun getSiblings(listId: String, parent: Long): List<CaldavTask>
+
     @Query("SELECT cd_remote_id FROM caldav_tasks WHERE cd_task = :task")
     abstract suspend fun getRemoteId(task: Long): String?
 
@@ -165,10 +186,35 @@ WHERE cd_remote_id = :id
     """)
     abstract suspend fun updatePosition(id: String, parent: String?, position: String)
 
-    suspend fun reposition(caldavDao: CaldavDao, listId: String) {
-        Logger.d("GoogleTaskDao") { "reposition listId=$listId" }
-        caldavDao.updateParents(listId)
-        val orderedTasks = getByRemoteOrder(listId)
+    @Query(
+        """
+SELECT tasks.*
+FROM tasks
+         INNER JOIN caldav_tasks ON tasks._id = cd_task
+WHERE cd_calendar = :listId
+  AND parent = :parent
+  AND tasks.deleted = 0
+ORDER BY gt_remote_order ASC
+    """
+    )
+    internal abstract suspend fun getByRemoteOrder(listId: String, parent: Long): List<Task>
+
+    /**
+     * Renumbers local order to follow remote order. When [parents] is given only those sibling
+     * groups are renumbered, unless tasks in the list had to be reparented
+     */
+    @Transaction
+    open suspend fun reposition(caldavDao: CaldavDao, listId: String, parents: Set<Long>? = null) {
+        Logger.d("GoogleTaskDao") { "reposition listId=$listId parents=$parents" }
+        val reparented = caldavDao.updateParents(listId) > 0
+        if (parents == null || reparented) {
+            reposition(getByRemoteOrder(listId))
+        } else {
+            parents.forEach { reposition(getByRemoteOrder(listId, it)) }
+        }
+    }
+
+    private suspend fun reposition(orderedTasks: List<Task>) {
         var subtasks = 0L
         var parent = 0L
         for (task in orderedTasks) {
@@ -8,19 +8,38 @@ import androidx.room.RoomRawQuery
 import androidx.room.Update
 import co.touchlab.kermit.Logger
 import org.tasks.IS_DEBUG
+import org.tasks.data.BuiltInFilterCounts
+import org.tasks.data.FilterMembership
 import org.tasks.data.TaskContainer
 import org.tasks.data.UUIDHelper
 import org.tasks.data.db.Database
 import org.tasks.data.db.SuspendDbUtils.chunkedMap
 import org.tasks.data.db.SuspendDbUtils.eachChunk
+import org.tasks.data.db.TaskWriteLog
 import org.tasks.data.entity.Alarm
 import org.tasks.data.entity.Task
+import org.tasks.data.sql.BoundQuery
 import org.tasks.data.sql.Criterion
+import org.tasks.data.sql.Field
 import org.tasks.data.sql.Functions
 import org.tasks.time.DateTimeUtils2
 
 private const val MAX_TIME = 9999999999999
 
+private const val FILTER_MEMBERSHIPS = """
+SELECT DISTINCT cd_task AS task, ${FilterMembership.TYPE_LIST} AS type, cd_calendar AS `key`
+FROM caldav_tasks INNER JOIN counted ON counted._id = cd_task
+WHERE cd_deleted = 0 AND cd_calendar IS NOT NULL
+UNION ALL
+SELECT tags.task AS task, ${FilterMembership.TYPE_TAG} AS type, tag_uid AS `key`
+FROM tags INNER JOIN counted ON counted._id = tags.task
+WHERE tag_uid IS NOT NULL
+UNION ALL
+SELECT geofences.task AS task, ${FilterMembership.TYPE_PLACE} AS type, place AS `key`
+FROM geofences INNER JOIN counted ON counted._id = geofences.task
+WHERE place IS NOT NULL
+"""
+
 @Dao
 abstract class TaskDao(private val database: Database) {
 
@@ -58,6 +77,31 @@ FROM (
     @Query("SELECT tasks.* FROM tasks INNER JOIN notification ON tasks._id = notification.task")
     abstract suspend fun activeNotifications(): List<Task>
 
+    @Query("""
+SELECT
+    (SELECT COUNT(1) FROM tasks INNER JOIN alarms ON tasks._id = alarms.task WHERE deleted = 0 AND completed = 0 AND type = ${Alarm.TYPE_SNOOZE}) AS snoozed,
+    (SELECT COUNT(1) FROM tasks WHERE timerStart > 0 AND deleted = 0) AS timers,
+    (SELECT COUNT(1) FROM tasks INNER JOIN notification ON tasks._id = notification.task) AS notifications
+    """)
+    abstract suspend fun getBuiltInFilterCounts(): BuiltInFilterCounts
+
+    @Query("""
+WITH counted AS (SELECT _id FROM tasks WHERE deleted = 0 AND completed = 0 AND hideUntil < :now)
+$FILTER_MEMBERSHIPS
+    """)
+    abstract suspend fun getFilterMemberships(now: Long = DateTimeUtils2.currentTimeMillis()): List<FilterMembership>
+
+    suspend fun getFilterMemberships(
+        tasks: List<Long>,
+        now: Long = DateTimeUtils2.currentTimeMillis(),
+    ): List<FilterMembership> = tasks.chunkedMap { getFilterMembershipsInternal(it, now) }
+
+    @Query("""
+WITH counted AS (SELECT _id FROM tasks WHERE _id IN (:tasks) AND deleted = 0 AND completed = 0 AND hideUntil < :now)
+$FILTER_MEMBERSHIPS
+    """)
+    internal abstract suspend fun getFilterMembershipsInternal(tasks: List<Long>, now: Long): List<FilterMembership>
+
     @Query("SELECT * FROM tasks WHERE remoteId = :remoteId")
     abstract suspend fun fetch(remoteId: String): Task?
 
@@ -108,28 +152,39 @@ FROM (
             + "WHERE completed > 0 AND calendarUri IS NOT NULL AND calendarUri != ''")
     abstract suspend fun clearCompletedCalendarEvents(): Int
 
-    suspend fun fetchTasks(query: String): List<TaskContainer> {
+    suspend fun fetchTasks(query: String): List<TaskContainer> = fetchTasks(BoundQuery(query))
+
+    suspend fun fetchTasks(query: BoundQuery): List<TaskContainer> {
         val start = DateTimeUtils2.currentTimeMillis()
-        val result = fetchRaw(RoomRawQuery(query))
+        val result = fetchRaw(RoomRawQuery(query.sql, query::bind))
+        result.forEach { if (it.notesTruncated) it.task.markNotesPreview() }
         val end = DateTimeUtils2.currentTimeMillis()
-        Logger.v("TaskDao") { "${end - start}ms: ${query.replace(Regex("\\s+"), " ").trim()}" }
+        Logger.v("TaskDao") { "${end - start}ms: ${query.sql.replace(Regex("\\s+"), " ").trim()} ${query.args}" }
         return result
     }
 
     @RawQuery
     internal abstract suspend fun fetchRaw(query: RoomRawQuery): List<TaskContainer>
 
-    suspend fun count(query: String): Int {
+    suspend fun count(query: String): Int = count(BoundQuery(query))
+
+    suspend fun count(query: BoundQuery): Int {
         val start = DateTimeUtils2.currentTimeMillis()
-        val result = countRaw(RoomRawQuery(query))
+        val result = countRaw(RoomRawQuery(query.sql, query::bind))
         val end = DateTimeUtils2.currentTimeMillis()
-        Logger.v("TaskDao") { "${end - start}ms: ${query.replace(Regex("\\s+"), " ").trim()}" }
+        Logger.v("TaskDao") { "${end - start}ms: ${query.sql.replace(Regex("\\s+"), " ").trim()} ${query.args}" }
         return result
     }
 
     @RawQuery
     internal abstract suspend fun countRaw(query: RoomRawQuery): Int
 
+    suspend fun nextRefresh(query: BoundQuery): Long =
+        nextRefreshRaw(RoomRawQuery(query.sql, query::bind))
+
+    @RawQuery
+    internal abstract suspend fun nextRefreshRaw(query: RoomRawQuery): Long
+
     suspend fun touch(ids: List<Long>, now: Long = DateTimeUtils2.currentTimeMillis()) =
         ids.eachChunk { internalTouch(it, now) }
 
@@ -151,30 +206,33 @@ FROM (
     suspend fun getChildren(id: Long): List<Long> = getChildren(listOf(id))
 
     @Query("""
-WITH RECURSIVE recursive_tasks (task) AS (
-    SELECT _id
-    FROM tasks
-    WHERE parent IN (:ids)
-    UNION ALL
-    SELECT _id
-    FROM tasks
-             INNER JOIN recursive_tasks ON recursive_tasks.task = tasks.parent
-    WHERE tasks.deleted = 0)
-SELECT task
-FROM recursive_tasks
+SELECT tree.descendant
+FROM task_tree AS tree
+WHERE tree.ancestor IN (:ids)
+  AND tree.depth > 0
+  AND NOT EXISTS (
+    SELECT 1
+    FROM task_tree AS path
+             INNER JOIN tasks ON tasks._id = path.ancestor
+    WHERE path.descendant = tree.descendant
+      AND path.depth <= tree.depth - 2
+      AND tasks.deleted > 0)
+ORDER BY tree.depth, tree.descendant
     """)
     abstract suspend fun getChildren(ids: List<Long>): List<Long>
 
     @Query("""
-WITH RECURSIVE recursive_tasks (task, parent) AS (
-    SELECT _id, parent FROM tasks WHERE _id = :parent
-    UNION ALL
-    SELECT _id, tasks.parent FROM tasks
-        INNER JOIN recursive_tasks ON recursive_tasks.parent = tasks._id
-    WHERE tasks.deleted = 0
-)
-SELECT task
-FROM recursive_tasks
+SELECT tree.ancestor
+FROM task_tree AS tree
+WHERE tree.descendant = :parent
+  AND NOT EXISTS (
+    SELECT 1
+    FROM task_tree AS path
+             INNER JOIN tasks ON tasks._id = path.ancestor
+    WHERE path.descendant = :parent
+      AND path.depth BETWEEN 1 AND tree.depth
+      AND tasks.deleted > 0)
+ORDER BY tree.depth
 """)
     abstract suspend fun getParents(parent: Long): List<Long>
 
@@ -185,15 +243,25 @@ FROM recursive_tasks
     abstract suspend fun insert(task: Task): Long
 
     suspend fun update(task: Task, original: Task? = null): Boolean {
+        if (task.isNotesPreview) {
+            task.notes = getNotes(task.id)
+        }
         if (!task.insignificantChange(original)) {
             task.modificationDate = DateTimeUtils2.currentTimeMillis()
         }
         return updateInternal(task) == 1
     }
 
+    /** Same as [update], for a write that is reported with [task] once it is done */
+    suspend fun updateReported(task: Task, original: Task? = null): Boolean =
+        TaskWriteLog.reported(database) { update(task, original) }
+
     @Update
     internal abstract suspend fun updateInternal(task: Task): Int
 
+    @Query("SELECT notes FROM tasks WHERE _id = :id")
+    internal abstract suspend fun getNotes(id: Long): String?
+
     @Update
     abstract suspend fun updateInternal(tasks: List<Task>)
 
@@ -231,5 +299,13 @@ WHERE cd_id IS NULL
             Task.DELETION_DATE.lte(0),
             Task.HIDE_UNTIL.lte(Functions.now())
         )
+
+        /** @return the next due date or hide until date after NOW(), for use with [nextRefresh] */
+        @JvmStatic fun nextRefresh(): Field = Field(
+            "COALESCE(MIN(MIN(" +
+                    "CASE WHEN tasks.dueDate > NOW() THEN tasks.dueDate ELSE $MAX_TIME END, " +
+                    "CASE WHEN tasks.hideUntil > NOW() THEN tasks.hideUntil ELSE $MAX_TIME END" +
+                    ")), $MAX_TIME)"
+        )
     }
 }
\ No newline at end of file
@@ -0,0 +1,73 @@
+package org.tasks.data.db
+
+import androidx.sqlite.SQLiteConnection
+import androidx.sqlite.SQLiteDriver
+import androidx.sqlite.SQLiteStatement
+
+/**
+ * Keeps the most recently used compiled statements of each connection, keyed by their SQL.
+ * The framework driver already does this, the bundled driver prepares every statement again.
+ * Closing a statement resets it and returns it to the cache. A statement that is still in use
+ * is never handed out twice, a second request for the same SQL prepares a new one.
+ */
+class CachingSQLiteDriver(
+    private val driver: SQLiteDriver,
+    private val size: Int = DEFAULT_SIZE,
+) : SQLiteDriver by driver {
+    override fun open(fileName: String): SQLiteConnection =
+        CachingConnection(driver.open(fileName), size)
+
+    private class CachingConnection(
+        private val connection: SQLiteConnection,
+        private val size: Int,
+    ) : SQLiteConnection by connection {
+        private val cache = LinkedHashMap<String, SQLiteStatement>(size, 0.75f, true)
+
+        override fun prepare(sql: String): SQLiteStatement =
+            CachedStatement(sql, cache.remove(sql) ?: connection.prepare(sql))
+
+        override fun close() {
+            cache.values.forEach { it.close() }
+            cache.clear()
+            connection.close()
+        }
+
+        private fun release(sql: String, statement: SQLiteStatement) {
+            val reusable = try {
+                statement.reset()
+                statement.clearBindings()
+                true
+            } catch (e: Exception) {
+                false
+            }
+            if (!reusable || cache.containsKey(sql)) {
+                statement.close()
+                return
+            }
+            cache[sql] = statement
+            if (cache.size > size) {
+                val eldest = cache.keys.first()
+                cache.remove(eldest)?.close()
+            }
+        }
+
+        private inner class CachedStatement(
+            private val sql: String,
+            private val statement: SQLiteStatement,
+        ) : SQLiteStatement by statement {
+            private var closed = false
+
+            override fun close() {
+                if (!closed) {
+                    closed = true
+                    release(sql, statement)
+                }
+            }
+        }
+    }
+
+    companion object {
+        /** Same as the framework's default statement cache size */
+        const val DEFAULT_SIZE = 25
+    }
+}
@@ -36,6 +36,7 @@ import org.tasks.data.entity.TagData
 import org.tasks.data.entity.Task
 import org.tasks.data.entity.TaskAttachment
 import org.tasks.data.entity.TaskListMetadata
+import org.tasks.data.entity.TaskTree
 import org.tasks.data.entity.UserActivity
 
 @Database(
@@ -57,12 +58,13 @@ import org.tasks.data.entity.UserActivity
         Principal::class,
         PrincipalAccess::class,
         Attachment::class,
+        TaskTree::class,
     ],
     autoMigrations = [
         AutoMigration(from = 83, to = 84, spec = AutoMigrate83to84::class),
         AutoMigration(from = 88, to = 89, spec = AutoMigrate88to89::class),
     ],
-    version = 89
+    version = 94
 )
 abstract class Database : RoomDatabase() {
     abstract fun notificationDao(): NotificationDao
@@ -0,0 +1,86 @@
+package org.tasks.data.db
+
+import androidx.room.RoomDatabase
+import androidx.sqlite.SQLiteConnection
+import androidx.sqlite.execSQL
+
+/**
+ * Triggers keeping [org.tasks.data.entity.TaskTree] consistent with `tasks.parent`, so that
+ * every statement touching the hierarchy, including bulk updates, is reflected immediately.
+ */
+object TaskHierarchy {
+    private const val TABLE_NAME = "task_tree"
+
+    /** Adds every ancestor of [parent] (and [parent] itself) to each node below [task] */
+    private fun attach(task: String, parent: String) = """
+        INSERT OR IGNORE INTO $TABLE_NAME (ancestor, descendant, depth)
+        SELECT above.ancestor, below.descendant, above.depth + below.depth + 1
+        FROM $TABLE_NAME AS above, $TABLE_NAME AS below
+        WHERE above.descendant = $parent AND below.ancestor = $task;
+    """
+
+    /** Removes the links between [task]'s subtree and the nodes above it */
+    private fun detach(task: String, includeTask: Boolean) = """
+        DELETE FROM $TABLE_NAME
+        WHERE descendant IN (SELECT descendant FROM $TABLE_NAME WHERE ancestor = $task)
+          AND ancestor NOT IN (
+            SELECT descendant FROM $TABLE_NAME
+            WHERE ancestor = $task ${if (includeTask) "AND descendant != $task" else ""}
+          );
+    """
+
+    private val TRIGGERS = mapOf(
+        "task_tree_insert" to """
+            AFTER INSERT ON tasks BEGIN
+                INSERT OR IGNORE INTO $TABLE_NAME (ancestor, descendant, depth) VALUES (NEW._id, NEW._id, 0);
+                INSERT OR IGNORE INTO $TABLE_NAME (ancestor, descendant, depth)
+                SELECT NEW._id, below.descendant, below.depth + 1
+                FROM tasks
+                INNER JOIN $TABLE_NAME AS below ON below.ancestor = tasks._id
+                WHERE tasks.parent = NEW._id AND tasks._id != NEW._id;
+                ${attach("NEW._id", "NEW.parent")}
+            END
+        """,
+        "task_tree_update" to """
+            AFTER UPDATE OF parent ON tasks WHEN OLD.parent != NEW.parent BEGIN
+                ${detach("NEW._id", includeTask = false)}
+                ${attach("NEW._id", "NEW.parent")}
+            END
+        """,
+        "task_tree_delete" to """
+            AFTER DELETE ON tasks BEGIN
+                ${detach("OLD._id", includeTask = true)}
+            END
+        """,
+    )
+
+    /** Drops and recreates the triggers, then rebuilds the closure from `tasks.parent` */
+    fun rebuild(connection: SQLiteConnection) {
+        TRIGGERS.keys.forEach { connection.execSQL("DROP TRIGGER IF EXISTS `$it`") }
+        connection.execSQL("DELETE FROM `$TABLE_NAME`")
+        connection.execSQL("""
+            WITH RECURSIVE tree (ancestor, descendant, depth) AS (
+                SELECT _id, _id, 0 FROM tasks
+                UNION ALL
+                SELECT tree.ancestor, tasks._id, tree.depth + 1
+                FROM tasks
+                INNER JOIN tree ON tasks.parent = tree.descendant
+            )
+            INSERT OR IGNORE INTO $TABLE_NAME (ancestor, descendant, depth)
+            SELECT ancestor, descendant, depth FROM tree
+        """.trimIndent())
+        TRIGGERS.forEach { (name, body) -> connection.execSQL("CREATE TRIGGER `$name` $body") }
+    }
+
+    /** Room creates the table but not its triggers, install them when they are missing */
+    val callback = object : RoomDatabase.Callback() {
+        override fun onOpen(connection: SQLiteConnection) {
+            val exists = connection
+                .prepare("SELECT 1 FROM sqlite_master WHERE type = 'trigger' AND name = 'task_tree_insert'")
+                .use { it.step() }
+            if (!exists) {
+                rebuild(connection)
+            }
+        }
+    }
+}
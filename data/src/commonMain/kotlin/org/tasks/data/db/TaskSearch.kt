@@ -0,0 +1,98 @@
+package org.tasks.data.db
+
+import androidx.room.RoomDatabase
+import androidx.sqlite.SQLiteConnection
+import androidx.sqlite.execSQL
+
+/**
+ * FTS4 index over the text that [org.tasks.filters.SearchFilter] matches against. Each row is
+ * keyed by the task id and kept current by triggers on every table that contributes to it.
+ */
+object TaskSearch {
+    const val TABLE_NAME = "task_search"
+
+    @JvmField val TABLE = Table(TABLE_NAME)
+    @JvmField val ROWID = TABLE.column("rowid")
+
+    private const val COLUMNS = "rowid, title, notes, tags, comments, places, lists"
+
+    private const val SELECT = """
+        SELECT tasks._id,
+               tasks.title,
+               tasks.notes,
+               (SELECT group_concat(tags.name, ' ') FROM tags WHERE tags.task = tasks._id),
+               (SELECT group_concat(userActivity.message, ' ') FROM userActivity WHERE userActivity.target_id = tasks.remoteId),
+               (SELECT group_concat(ifnull(places.name, '') || ' ' || ifnull(places.address, ''), ' ') FROM geofences INNER JOIN places ON places.uid = geofences.place WHERE geofences.task = tasks._id),
+               (SELECT group_concat(caldav_lists.cdl_name, ' ') FROM caldav_tasks INNER JOIN caldav_lists ON caldav_lists.cdl_uuid = caldav_tasks.cd_calendar WHERE caldav_tasks.cd_task = tasks._id AND caldav_tasks.cd_deleted = 0)
+        FROM tasks
+    """
+
+    private fun reindex(where: String) = """
+        DELETE FROM $TABLE_NAME WHERE rowid IN (SELECT _id FROM tasks WHERE $where);
+        INSERT INTO $TABLE_NAME ($COLUMNS) $SELECT WHERE $where;
+    """
+
+    private val TRIGGERS = mapOf(
+        "task_search_task_insert" to
+                "AFTER INSERT ON tasks BEGIN ${reindex("tasks._id = NEW._id")} END",
+        "task_search_task_update" to
+                "AFTER UPDATE OF title, notes, remoteId ON tasks BEGIN ${reindex("tasks._id = NEW._id")} END",
+        "task_search_task_delete" to
+                "AFTER DELETE ON tasks BEGIN DELETE FROM $TABLE_NAME WHERE rowid = OLD._id; END",
+        "task_search_tag_insert" to
+                "AFTER INSERT ON tags BEGIN ${reindex("tasks._id = NEW.task")} END",
+        "task_search_tag_update" to
+                "AFTER UPDATE OF name, task ON tags BEGIN ${reindex("tasks._id IN (OLD.task, NEW.task)")} END",
+        "task_search_tag_delete" to
+                "AFTER DELETE ON tags BEGIN ${reindex("tasks._id = OLD.task")} END",
+        "task_search_comment_insert" to
+                "AFTER INSERT ON userActivity BEGIN ${reindex("tasks.remoteId = NEW.target_id")} END",
+        "task_search_comment_update" to
+                "AFTER UPDATE OF message, target_id ON userActivity BEGIN ${reindex("tasks.remoteId IN (OLD.target_id, NEW.target_id)")} END",
+        "task_search_comment_delete" to
+                "AFTER DELETE ON userActivity BEGIN ${reindex("tasks.remoteId = OLD.target_id")} END",
+        "task_search_geofence_insert" to
+                "AFTER INSERT ON geofences BEGIN ${reindex("tasks._id = NEW.task")} END",
+        "task_search_geofence_update" to
+                "AFTER UPDATE OF task, place ON geofences BEGIN ${reindex("tasks._id IN (OLD.task, NEW.task)")} END",
+        "task_search_geofence_delete" to
+                "AFTER DELETE ON geofences BEGIN ${reindex("tasks._id = OLD.task")} END",
+        "task_search_place_update" to
+                "AFTER UPDATE OF name, address ON places BEGIN ${reindex("tasks._id IN (SELECT task FROM geofences WHERE place = NEW.uid)")} END",
+        "task_search_caldav_task_insert" to
+                "AFTER INSERT ON caldav_tasks BEGIN ${reindex("tasks._id = NEW.cd_task")} END",
+        "task_search_caldav_task_update" to
+                "AFTER UPDATE OF cd_task, cd_calendar, cd_deleted ON caldav_tasks BEGIN ${reindex("tasks._id IN (OLD.cd_task, NEW.cd_task)")} END",
+        "task_search_caldav_task_delete" to
+                "AFTER DELETE ON caldav_tasks BEGIN ${reindex("tasks._id = OLD.cd_task")} END",
+        "task_search_caldav_list_update" to
+                "AFTER UPDATE OF cdl_name ON caldav_lists BEGIN ${reindex("tasks._id IN (SELECT cd_task FROM caldav_tasks WHERE cd_calendar = NEW.cdl_uuid)")} END",
+    )
+
+    /** Drops and recreates the index and its triggers, then repopulates it from scratch */
+    fun rebuild(connection: SQLiteConnection) {
+        TRIGGERS.keys.forEach { connection.execSQL("DROP TRIGGER IF EXISTS `$it`") }
+        connection.execSQL("DROP TABLE IF EXISTS `$TABLE_NAME`")
+        connection.execSQL(
+            "CREATE VIRTUAL TABLE `$TABLE_NAME` USING fts4(title, notes, tags, comments, places, lists, tokenize=unicode61)"
+        )
+        TRIGGERS.forEach { (name, body) -> connection.execSQL("CREATE TRIGGER `$name` $body") }
+        connection.execSQL("INSERT INTO $TABLE_NAME ($COLUMNS) $SELECT")
+        connection.execSQL("INSERT INTO $TABLE_NAME ($TABLE_NAME) VALUES ('optimize')")
+    }
+
+    /**
+     * Room only creates the tables it knows about, so the index is created when a fresh or
+     * destructively migrated database is opened. Upgrades are handled by a regular migration.
+     */
+    val callback = object : RoomDatabase.Callback() {
+        override fun onOpen(connection: SQLiteConnection) {
+            val exists = connection
+                .prepare("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = '$TABLE_NAME'")
+                .use { it.step() }
+            if (!exists) {
+                rebuild(connection)
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package org.tasks.data.db
+
+import androidx.room.RoomDatabase
+import androidx.sqlite.SQLiteConnection
+import androidx.sqlite.execSQL
+
+/**
+ * Triggers keeping `tasks.sort_title` equal to the case folded title, so alphabetical ordering
+ * reads an indexed column instead of evaluating `UPPER(title)` for every row.
+ */
+object TaskSortKey {
+    private const val KEY = "UPPER(NEW.title)"
+
+    private fun update(event: String) = """
+        $event ON tasks WHEN NEW.sort_title IS NOT $KEY BEGIN
+            UPDATE tasks SET sort_title = $KEY WHERE _id = NEW._id;
+        END
+    """
+
+    private val TRIGGERS = mapOf(
+        "task_sort_title_insert" to update("AFTER INSERT"),
+        "task_sort_title_update" to update("AFTER UPDATE OF title, sort_title"),
+    )
+
+    /** Drops and recreates the triggers, then recomputes every sort key */
+    fun rebuild(connection: SQLiteConnection) {
+        TRIGGERS.keys.forEach { connection.execSQL("DROP TRIGGER IF EXISTS `$it`") }
+        connection.execSQL("UPDATE tasks SET sort_title = UPPER(title) WHERE sort_title IS NOT UPPER(title)")
+        TRIGGERS.forEach { (name, body) -> connection.execSQL("CREATE TRIGGER `$name` $body") }
+    }
+
+    /** Room creates the column but not its triggers, install them when they are missing */
+    val callback = object : RoomDatabase.Callback() {
+        override fun onOpen(connection: SQLiteConnection) {
+            val exists = connection
+                .prepare("SELECT 1 FROM sqlite_master WHERE type = 'trigger' AND name = 'task_sort_title_insert'")
+                .use { it.step() }
+            if (!exists) {
+                rebuild(connection)
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package org.tasks.data.db
+
+import androidx.room.RoomDatabase
+import androidx.room.immediateTransaction
+import androidx.room.useReaderConnection
+import androidx.room.useWriterConnection
+import androidx.sqlite.SQLiteConnection
+import androidx.sqlite.execSQL
+
+/**
+ * Counts writes to tasks that are not reported with the tasks they changed. Room's invalidation
+ * tracker only says that the tasks table was written to, comparing two readings of the count
+ * tells whether anything other than reported writes happened in between.
+ */
+object TaskWriteLog {
+    private const val TABLE = "task_write_log"
+
+    private const val COUNT = """
+        WHEN (SELECT reporting FROM $TABLE) = 0 BEGIN
+            UPDATE $TABLE SET unreported = unreported + 1;
+        END
+    """
+
+    private val TRIGGERS = mapOf(
+        "task_write_log_insert" to "AFTER INSERT ON tasks $COUNT",
+        "task_write_log_update" to "AFTER UPDATE ON tasks $COUNT",
+        "task_write_log_delete" to "AFTER DELETE ON tasks $COUNT",
+    )
+
+    /** Drops and recreates the log and its triggers */
+    fun rebuild(connection: SQLiteConnection) {
+        TRIGGERS.keys.forEach { connection.execSQL("DROP TRIGGER IF EXISTS `$it`") }
+        connection.execSQL("DROP TABLE IF EXISTS `$TABLE`")
+        connection.execSQL("CREATE TABLE `$TABLE` (`reporting` INTEGER NOT NULL, `unreported` INTEGER NOT NULL)")
+        connection.execSQL("INSERT INTO `$TABLE` VALUES (0, 0)")
+        TRIGGERS.forEach { (name, body) -> connection.execSQL("CREATE TRIGGER `$name` $body") }
+    }
+
+    /** Runs [block] in a write transaction, its writes to tasks are not counted */
+    suspend fun <T> reported(database: RoomDatabase, block: suspend () -> T): T =
+        database.useWriterConnection { transactor ->
+            transactor.immediateTransaction {
+                usePrepared("UPDATE $TABLE SET reporting = 1") { it.step() }
+                block().also {
+                    usePrepared("UPDATE $TABLE SET reporting = 0") { it.step() }
+                }
+            }
+        }
+
+    /** Number of unreported writes so far */
+    suspend fun unreported(database: RoomDatabase): Long =
+        database.useReaderConnection { transactor ->
+            transactor.usePrepared("SELECT unreported FROM $TABLE") {
+                it.step()
+                it.getLong(0)
+            }
+        }
+
+    /** The log isn't a Room entity, install it when it is missing */
+    val callback = object : RoomDatabase.Callback() {
+        override fun onOpen(connection: SQLiteConnection) {
+            val exists = connection
+                .prepare("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = '$TABLE'")
+                .use { it.step() }
+            if (!exists) {
+                rebuild(connection)
+            }
+        }
+    }
+}
@@ -3,6 +3,7 @@ package org.tasks.data.entity
 import androidx.room.ColumnInfo
 import androidx.room.Entity
 import androidx.room.ForeignKey
+import androidx.room.Index
 import androidx.room.PrimaryKey
 import kotlinx.serialization.Serializable
 import kotlinx.serialization.Transient
@@ -23,6 +24,10 @@ import java.util.concurrent.TimeUnit
             childColumns = ["task"],
             onDelete = ForeignKey.CASCADE
         )
+    ],
+    indices = [
+        Index(value = ["task", "type"]),
+        Index(value = ["type", "time"]),
     ]
 )
 data class Alarm(
@@ -30,7 +35,7 @@ data class Alarm(
     @ColumnInfo(name = "_id")
     @Transient
     val id: Long = 0,
-    @ColumnInfo(name = "task", index = true)
+    @ColumnInfo(name = "task")
     @Transient
     val task: Long = 0,
     @ColumnInfo(name = "time")
@@ -2,6 +2,7 @@ package org.tasks.data.entity
 
 import androidx.room.ColumnInfo
 import androidx.room.Entity
+import androidx.room.Index
 import androidx.room.PrimaryKey
 import kotlinx.serialization.Serializable
 import kotlinx.serialization.Transient
@@ -13,7 +14,10 @@ import org.tasks.data.db.Table
 
 @Serializable
 @CommonParcelize
-@Entity(tableName = "caldav_lists")
+@Entity(
+    tableName = "caldav_lists",
+    indices = [Index(value = ["cdl_uuid"])],
+)
 data class CaldavCalendar(
     @PrimaryKey(autoGenerate = true)
     @Transient
@@ -3,6 +3,7 @@ package org.tasks.data.entity
 import androidx.room.ColumnInfo
 import androidx.room.Entity
 import androidx.room.ForeignKey
+import androidx.room.Index
 import androidx.room.PrimaryKey
 import kotlinx.serialization.Serializable
 import kotlinx.serialization.Transient
@@ -19,7 +20,8 @@ import org.tasks.data.db.Table
             childColumns = ["task"],
             onDelete = ForeignKey.CASCADE,
         ),
-    ]
+    ],
+    indices = [Index(value = ["tag_uid", "task"])],
 )
 data class Tag(
     @PrimaryKey(autoGenerate = true)
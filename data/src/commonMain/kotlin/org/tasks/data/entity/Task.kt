@@ -30,7 +30,12 @@ const val FORCE_MICROSOFT_SYNC = "force_microsoft_sync"
         tableName = Task.TABLE_NAME,
         indices = [
             Index(name = "t_rid", value = ["remoteId"], unique = true),
-            Index(name = "active_and_visible", value = ["completed", "deleted", "hideUntil"])])
+            Index(name = "active_and_visible", value = ["completed", "deleted", "hideUntil"]),
+            Index(value = ["parent"]),
+            Index(value = ["dueDate"]),
+            Index(value = ["modified"]),
+            Index(value = ["timerStart"]),
+            Index(value = ["sort_title"])])
 data class Task @OptIn(ExperimentalSerializationApi::class) constructor(
     @PrimaryKey(autoGenerate = true)
     @ColumnInfo(name = "_id")
@@ -85,6 +90,10 @@ data class Task @OptIn(ExperimentalSerializationApi::class) constructor(
     var order: Long? = null,
     @ColumnInfo(name = "read_only", defaultValue = "0")
     var readOnly: Boolean = false,
+    /** Case folded [title] kept current by [org.tasks.data.db.TaskSortKey] */
+    @ColumnInfo(name = "sort_title")
+    @Transient
+    var sortTitle: String? = null,
     @Ignore
     @Transient
     private var transitoryData: @CommonRawValue HashMap<String, Any>? = null,
@@ -237,6 +246,16 @@ data class Task @OptIn(ExperimentalSerializationApi::class) constructor(
 
     fun isSuppressRefresh() = checkTransitory(TRANS_SUPPRESS_REFRESH)
 
+    /** [notes] only holds the start of the notes, as loaded for a task list */
+    @Synchronized
+    fun markNotesPreview() {
+        putTransitory(TRANS_NOTES_PREVIEW, notes ?: "")
+    }
+
+    /** True while [notes] holds the unmodified start of the notes */
+    val isNotesPreview: Boolean
+        get() = getTransitory<String>(TRANS_NOTES_PREVIEW)?.let { it == notes } ?: false
+
     fun defaultReminders(flags: Int) {
         putTransitory(TRANS_REMINDERS, flags)
     }
@@ -302,6 +321,7 @@ data class Task @OptIn(ExperimentalSerializationApi::class) constructor(
         // --- properties
         @JvmField val ID = TABLE.column("_id")
         @JvmField val TITLE = TABLE.column("title")
+        val SORT_TITLE = TABLE.column("sort_title")
         val IMPORTANCE = TABLE.column("importance")
         val DUE_DATE = TABLE.column("dueDate")
         val HIDE_UNTIL = TABLE.column("hideUntil")
@@ -356,6 +376,7 @@ data class Task @OptIn(ExperimentalSerializationApi::class) constructor(
         const val URGENCY_IN_TWO_WEEKS = 5
 
         private const val TRANS_SUPPRESS_REFRESH = "suppress-refresh"
+        private const val TRANS_NOTES_PREVIEW = "notes-preview"
         const val TRANS_REMINDERS = "reminders"
         const val TRANS_RANDOM = "random"
 
@@ -0,0 +1,20 @@
+package org.tasks.data.entity
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.Index
+
+/**
+ * Closure of [Task.parent]: one row for every task and each of its ancestors, including a row
+ * with depth 0 pairing each task with itself. Maintained by [org.tasks.data.db.TaskHierarchy].
+ */
+@Entity(
+    tableName = "task_tree",
+    primaryKeys = ["ancestor", "descendant"],
+    indices = [Index(value = ["descendant"])],
+)
+data class TaskTree(
+    @ColumnInfo(name = "ancestor") val ancestor: Long,
+    @ColumnInfo(name = "descendant") val descendant: Long,
+    @ColumnInfo(name = "depth") val depth: Int,
+)
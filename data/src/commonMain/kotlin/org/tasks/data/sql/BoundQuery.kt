@@ -0,0 +1,27 @@
+package org.tasks.data.sql
+
+import androidx.sqlite.SQLiteStatement
+
+/**
+ * SQL text with positional `?` arguments. Values that change between refreshes belong in
+ * [args] so that the same filter always produces the same [sql] and its compiled statement
+ * can be reused.
+ */
+data class BoundQuery(
+    val sql: String,
+    val args: List<Any?> = emptyList(),
+) {
+    fun bind(statement: SQLiteStatement) {
+        args.forEachIndexed { index, arg ->
+            when (arg) {
+                null -> statement.bindNull(index + 1)
+                is Long -> statement.bindLong(index + 1, arg)
+                is Int -> statement.bindLong(index + 1, arg.toLong())
+                is Boolean -> statement.bindLong(index + 1, if (arg) 1 else 0)
+                is Double -> statement.bindDouble(index + 1, arg)
+                is String -> statement.bindText(index + 1, arg)
+                else -> throw IllegalArgumentException("Unsupported argument: $arg")
+            }
+        }
+    }
+}
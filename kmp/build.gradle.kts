@@ -39,6 +39,10 @@ kotlin {
             implementation(libs.kotlinx.immutable)
             implementation(libs.kotlinx.serialization)
         }
+        jvmTest.dependencies {
+            implementation(libs.junit)
+            implementation(libs.androidx.sqlite)
+        }
     }
     task("testClasses")
 }
@@ -5,6 +5,7 @@
  */
 package com.todoroo.astrid.api
 
+import org.tasks.data.sql.BoundQuery
 import org.tasks.time.DateTimeUtils2.currentTimeMillis
 import org.tasks.time.ONE_DAY
 import org.tasks.time.endOfDay
@@ -84,6 +85,32 @@ object PermaSql {
         return value
     }
 
+    /**
+     * Replace placeholders with bind arguments so the SQL text does not change over time.
+     * Placeholders inside string literals are substituted in place, as before.
+     */
+    fun bindPlaceholdersForQuery(value: String): BoundQuery {
+        if (!PLACEHOLDER.containsMatchIn(value)) {
+            return BoundQuery(value)
+        }
+        val now = currentTimeMillis()
+        val args = ArrayList<Any?>()
+        val sql = value
+            .split('\'')
+            .mapIndexed { index, segment ->
+                if (index % 2 == 0) {
+                    PLACEHOLDER.replace(segment) {
+                        args.add(valueOf(it.value, now))
+                        "?"
+                    }
+                } else {
+                    replacePlaceholdersForQuery(segment)
+                }
+            }
+            .joinToString("'")
+        return BoundQuery(sql, args)
+    }
+
     fun replacePlaceholdersForNewTask(value: String): String {
         var value = value
         if (value.contains(VALUE_NOW)) {
@@ -110,6 +137,29 @@ object PermaSql {
         return value
     }
 
+    private val PLACEHOLDER = Regex("(?<![A-Za-z_])(EODTT|EOD[YTWM]?|NOONTT|NOON[YTWM]?|NOW)\\(\\)")
+
+    private fun valueOf(placeholder: String, now: Long): Long {
+        val eod = now.endOfDay()
+        val noon = now.noon()
+        return when (placeholder) {
+            VALUE_NOW -> now
+            VALUE_EOD_YESTERDAY -> eod - ONE_DAY
+            VALUE_EOD -> eod
+            VALUE_EOD_TOMORROW -> eod + ONE_DAY
+            VALUE_EOD_DAY_AFTER -> eod + 2 * ONE_DAY
+            VALUE_EOD_NEXT_WEEK -> eod + 7 * ONE_DAY
+            VALUE_EOD_NEXT_MONTH -> eod + 30 * ONE_DAY
+            VALUE_NOON_YESTERDAY -> noon - ONE_DAY
+            VALUE_NOON -> noon
+            VALUE_NOON_TOMORROW -> noon + ONE_DAY
+            VALUE_NOON_DAY_AFTER -> noon + 2 * ONE_DAY
+            VALUE_NOON_NEXT_WEEK -> noon + 7 * ONE_DAY
+            VALUE_NOON_NEXT_MONTH -> noon + 30 * ONE_DAY
+            else -> throw IllegalArgumentException(placeholder)
+        }
+    }
+
     private fun replaceEodValues(
         value: String,
         dateTime: Long = currentTimeMillis().endOfDay()
@@ -52,7 +52,7 @@ object SortHelper {
             + ADJUSTED_START_DATE.replace("hideUntil", "tasks.hideUntil")
             + " END)+tasks.importance * 1000)")
 
-    private val ORDER_TITLE = asc(upper(Task.TITLE))
+    private val ORDER_TITLE = asc(Task.SORT_TITLE)
     private val ORDER_LIST = asc(upper(CaldavCalendar.ORDER))
         .addSecondaryExpression(asc(CaldavCalendar.NAME))
 
@@ -146,10 +146,17 @@ object SortHelper {
         return "datetime($column / 1000, 'unixepoch', 'localtime', 'start of day')"
     }
 
+    /** @return true if the key from [orderSelectForSortTypeRecursive] depends on the current time */
+    fun isTimeDependent(sortType: Int): Boolean = when (sortType) {
+        GROUP_NONE, SORT_ALPHA, SORT_DUE, SORT_START, SORT_IMPORTANCE, SORT_MODIFIED, SORT_CREATED,
+        SORT_GTASKS, SORT_CALDAV, SORT_LIST, SORT_COMPLETED -> false
+        else -> true
+    }
+
     fun orderSelectForSortTypeRecursive(sortType: Int, grouping: Boolean): String {
         return when (sortType) {
             GROUP_NONE -> "1"
-            SORT_ALPHA -> "UPPER(tasks.title)"
+            SORT_ALPHA -> "tasks.sort_title"
             SORT_DUE -> if (grouping) sortGroup(GROUP_DUE_DATE) else SORT_DUE_DATE
             SORT_START -> if (grouping) sortGroup(GROUP_START_DATE) else SORT_START_DATE
             SORT_IMPORTANCE -> "tasks.importance"
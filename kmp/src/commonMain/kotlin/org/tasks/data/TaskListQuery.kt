@@ -1,14 +1,18 @@
 package org.tasks.data
 
 import co.touchlab.kermit.Logger
+import com.todoroo.astrid.api.PermaSql
 import org.tasks.data.TaskListQueryNonRecursive.getNonRecursiveQuery
 import org.tasks.data.TaskListQueryRecursive.getRecursiveQuery
+import org.tasks.data.TaskListQueryRecursive.getRowsQuery
+import org.tasks.data.TaskListQueryRecursive.isTimeDependent
 import org.tasks.data.entity.CaldavAccount
 import org.tasks.data.entity.CaldavCalendar
 import org.tasks.data.entity.CaldavTask
 import org.tasks.data.entity.Geofence
 import org.tasks.data.entity.Place
 import org.tasks.data.entity.Task
+import org.tasks.data.sql.BoundQuery
 import org.tasks.data.sql.Criterion
 import org.tasks.data.sql.Field.Companion.field
 import org.tasks.data.sql.Join
@@ -19,6 +23,20 @@ import org.tasks.time.DateTimeUtils2.currentTimeMillis
 
 object TaskListQuery {
     private const val CALDAV_METADATA_JOIN = "for_caldav"
+
+    /**
+     * Characters of notes loaded for each row unless [QueryPreferences.showFullDescription],
+     * see [TaskContainer.notesTruncated]
+     */
+    const val NOTES_PREVIEW = 1000
+
+    /** Every column of the tasks table except notes, which are loaded as a preview */
+    internal val TASK_COLUMNS = listOf(
+        "_id", "title", "importance", "dueDate", "hideUntil", "created", "modified", "completed",
+        "deleted", "estimatedSeconds", "elapsedSeconds", "timerStart", "notificationFlags",
+        "lastNotified", "recurrence", "repeat_from", "calendarUri", "remoteId", "collapsed",
+        "parent", "order", "read_only", "sort_title",
+    )
     private val JOIN_CALDAV = Criterion.and(
             Task.ID.eq(field("$CALDAV_METADATA_JOIN.cd_task")),
             field("$CALDAV_METADATA_JOIN.cd_deleted").eq(0))
@@ -29,20 +47,30 @@ object TaskListQuery {
         ${Join.left(Geofence.TABLE, Geofence.TASK.eq(Task.ID))}
         ${Join.left(Place.TABLE, Place.UID.eq(Geofence.PLACE))}
     """.trimIndent()
-    val FIELDS = listOf(
-            field("tasks.*"),
+    private val NOTES = listOf(
+            field("tasks.notes"),
+            field("0").`as`("notes_truncated"))
+    private val NOTES_PREVIEWS = listOf(
+            field("SUBSTR(tasks.notes, 1, $NOTES_PREVIEW)").`as`("notes"),
+            field("LENGTH(tasks.notes) > $NOTES_PREVIEW").`as`("notes_truncated"))
+    private val JOINED_FIELDS = listOf(
             field("$CALDAV_METADATA_JOIN.*"),
             field("${CaldavAccount.ACCOUNT_TYPE}").`as`("accountType"),
             field("geofences.*"),
             field("places.*"))
 
+    fun fields(preferences: QueryPreferences) =
+        TASK_COLUMNS.map { field("tasks.`$it`") } +
+                (if (preferences.showFullDescription) NOTES else NOTES_PREVIEWS) +
+                JOINED_FIELDS
+
     @JvmStatic
     fun getQuery(
         preferences: QueryPreferences,
         filter: Filter,
-    ): String {
+    ): BoundQuery {
         val start = currentTimeMillis()
-        return when {
+        val query = when {
             filter.supportsManualSort() && preferences.isManualSort ->
                 getRecursiveQuery(filter, preferences)
 
@@ -53,6 +81,26 @@ object TaskListQuery {
                 getRecursiveQuery(filter, preferences)
 
             else -> getNonRecursiveQuery(filter, preferences)
-        }.also { Logger.v("TaskListQuery") { "Building query took ${currentTimeMillis() - start}ms" } }
+        }
+        return PermaSql.bindPlaceholdersForQuery(query)
+            .also { Logger.v("TaskListQuery") { "Building query took ${currentTimeMillis() - start}ms" } }
+    }
+
+    /**
+     * @return the rows [getQuery] would return for [tasks], or null when their position depends
+     * on a manual or legacy ordering that can't be checked from the rows alone, or on the time
+     * the list was loaded
+     */
+    fun getQuery(
+        preferences: QueryPreferences,
+        filter: Filter,
+        tasks: List<Long>,
+    ): BoundQuery? = when {
+        filter.supportsManualSort() && preferences.isManualSort -> null
+        filter is AstridOrderingFilter && preferences.isAstridSort -> null
+        isTimeDependent(filter, preferences) -> null
+        filter.supportsSorting() ->
+            PermaSql.bindPlaceholdersForQuery(getRowsQuery(filter, preferences, tasks))
+        else -> null
     }
 }
@@ -1,6 +1,5 @@
 package org.tasks.data
 
-import com.todoroo.astrid.api.PermaSql
 import com.todoroo.astrid.core.SortHelper
 import org.tasks.data.entity.Tag
 import org.tasks.data.entity.Task
@@ -23,8 +22,8 @@ internal object TaskListQueryNonRecursive {
     private val TAGS =
             field("group_concat(distinct($TAGS_METADATA_JOIN.tag_uid))")
                     .`as`("tags")
-    private val FIELDS =
-        TaskListQuery.FIELDS.plus(listOf(
+    private fun fields(preferences: QueryPreferences) =
+        TaskListQuery.fields(preferences).plus(listOf(
             TAGS,
             field("tasks.completed > 0").`as`("parentComplete")
         )).toTypedArray()
@@ -52,8 +51,8 @@ internal object TaskListQueryNonRecursive {
             else ->
                 "$query GROUP BY ${Task.ID}"
         }
-        return Query.select(*FIELDS.plus(sortGroup))
-            .withQueryTemplate(PermaSql.replacePlaceholdersForQuery(groupedQuery))
+        return Query.select(*fields(preferences).plus(sortGroup))
+            .withQueryTemplate(groupedQuery)
             .from(Task.TABLE)
             .toString()
     }
@@ -1,6 +1,5 @@
 package org.tasks.data
 
-import com.todoroo.astrid.api.PermaSql
 import com.todoroo.astrid.core.SortHelper
 import org.tasks.data.dao.TaskDao.TaskCriteria.activeAndVisible
 import org.tasks.data.db.Table
@@ -19,36 +18,89 @@ internal object TaskListQueryRecursive {
     private val RECURSIVE_TASK = field("$RECURSIVE.task")
     private val SUBTASK_QUERY =
             QueryTemplate()
-                .join(Join.inner(RECURSIVE, Task.PARENT.eq(RECURSIVE_TASK)))
+                .join(
+                    Join.inner(
+                        RECURSIVE,
+                        Criterion.and(
+                            Task.PARENT.eq(RECURSIVE_TASK),
+                            field("$RECURSIVE.collapsed").eq(0),
+                        )
+                    )
+                )
                 .where(activeAndVisible())
                 .toString()
 
-    fun getRecursiveQuery(
-        filter: Filter,
-        preferences: QueryPreferences,
-    ): String {
-        val parentQuery = when (filter) {
-            is CaldavFilter -> newCaldavQuery(filter.uuid)
-            else -> PermaSql.replacePlaceholdersForQuery(filter.sql!!)
-        }
-        val manualSort = preferences.isManualSort
-        val groupPreference = preferences.groupMode
+    /**
+     * Roots that are also reached through the subtasks of another root, because every task from
+     * that root down to this one is active and visible
+     */
+    private val NESTED_ROOT = """
+        EXISTS (
+            SELECT 1
+            FROM task_tree AS up
+            WHERE up.descendant = roots.task
+              AND up.depth > 0
+              AND up.ancestor IN (SELECT task FROM roots)
+              AND NOT EXISTS (
+                SELECT 1
+                FROM task_tree AS path
+                    INNER JOIN tasks ON tasks._id = path.ancestor
+                WHERE path.descendant = up.descendant
+                  AND path.depth < up.depth
+                  AND NOT (${activeAndVisible()})
+              )
+        )
+    """.trimIndent()
+
+    /** Subtasks that would be listed under [parent], including those below a collapsed task */
+    private fun countChildren(parent: String) =
+        "(SELECT COUNT(*) FROM tasks WHERE tasks.parent = $parent AND ${activeAndVisible()})"
+
+    /** The group, sort and subtask modes that [filter] is listed with */
+    private class Modes(filter: Filter, preferences: QueryPreferences) {
         val groupMode = when {
-            filter is CaldavFilter && (manualSort || groupPreference == SortHelper.SORT_LIST) ->
+            filter is CaldavFilter &&
+                    (preferences.isManualSort || preferences.groupMode == SortHelper.SORT_LIST) ->
                 SortHelper.GROUP_NONE
-            else -> groupPreference
+            else -> preferences.groupMode
         }
         val sortMode = when {
-            !manualSort || filter !is CaldavFilter -> preferences.sortMode
+            !preferences.isManualSort || filter !is CaldavFilter -> preferences.sortMode
             filter.isGoogleTasks -> SortHelper.SORT_GTASKS
             else -> SortHelper.SORT_CALDAV
         }
-        val subtaskPreference = preferences.subtaskMode
         val subtaskMode = when {
             sortMode == SortHelper.SORT_GTASKS || sortMode == SortHelper.SORT_CALDAV -> sortMode
-            subtaskPreference == SortHelper.SORT_MANUAL -> SortHelper.SORT_CALDAV
-            else -> subtaskPreference
+            preferences.subtaskMode == SortHelper.SORT_MANUAL -> SortHelper.SORT_CALDAV
+            else -> preferences.subtaskMode
+        }
+        val listJoin = if (groupMode == SortHelper.SORT_LIST) {
+            """
+                INNER JOIN caldav_tasks ON cd_task = tasks._id AND cd_deleted = 0
+                INNER JOIN caldav_lists ON cd_calendar = cdl_uuid
+            """.trimIndent()
+        } else {
+            ""
         }
+    }
+
+    private fun parentQuery(filter: Filter) = when (filter) {
+        is CaldavFilter -> newCaldavQuery(filter.uuid)
+        else -> filter.sql!!
+    }
+
+    private fun parentCompleted(preferences: QueryPreferences) =
+        if (preferences.completedTasksAtBottom) "tasks.completed > 0" else "0"
+
+    fun getRecursiveQuery(
+        filter: Filter,
+        preferences: QueryPreferences,
+    ): String {
+        val parentQuery = parentQuery(filter)
+        val modes = Modes(filter, preferences)
+        val groupMode = modes.groupMode
+        val sortMode = modes.sortMode
+        val subtaskMode = modes.subtaskMode
         val completedMode = preferences.completedMode
         val groupAscending =
             preferences.groupAscending && groupMode != SortHelper.GROUP_NONE
@@ -57,14 +109,21 @@ internal object TaskListQueryRecursive {
         val subtaskAscending =
             preferences.subtaskAscending && subtaskMode != SortHelper.SORT_GTASKS && subtaskMode != SortHelper.SORT_CALDAV
         val completedAtBottom = preferences.completedTasksAtBottom
-        val parentCompleted = if (completedAtBottom) "tasks.completed > 0" else "0"
+        val parentCompleted = parentCompleted(preferences)
         val completionSort = if (completedAtBottom) {
             "(CASE WHEN tasks.completed > 0 THEN ${SortHelper.orderSelectForSortTypeRecursive(completedMode, false)} ELSE 0 END)"
         } else {
             "0"
         }
+        val listJoin = modes.listJoin
         val query = """
-            WITH RECURSIVE recursive_tasks AS (
+            WITH RECURSIVE roots AS (
+                SELECT tasks._id AS task
+                FROM tasks
+                $listJoin
+                $parentQuery
+            ),
+            recursive_tasks AS (
                 SELECT 
                     tasks._id AS task,
                     $parentCompleted AS parent_complete,
@@ -72,25 +131,16 @@ internal object TaskListQueryRecursive {
                     $completionSort AS completion_sort,
                     0 AS parent,
                     tasks.collapsed AS collapsed,
-                    0 AS hidden,
                     0 AS indent,
-                    UPPER(tasks.title) AS sort_title,
+                    tasks.sort_title AS sort_title,
                     ${SortHelper.orderSelectForSortTypeRecursive(groupMode, true)} AS primary_group,
                     ${SortHelper.orderSelectForSortTypeRecursive(sortMode, false)} AS primary_sort,
                     NULL as secondary_sort,
                     ${SortHelper.getSortGroup(groupMode)} AS sort_group
-                FROM tasks
-                ${
-                    if (groupMode == SortHelper.SORT_LIST) {
-                        """
-                            INNER JOIN caldav_tasks ON cd_task = tasks._id AND cd_deleted = 0
-                            INNER JOIN caldav_lists ON cd_calendar = cdl_uuid
-                        """.trimIndent()
-                    } else {
-                        ""
-                    }
-                }
-                $parentQuery
+                FROM roots
+                    CROSS JOIN tasks ON tasks._id = roots.task
+                    $listJoin
+                WHERE NOT $NESTED_ROOT
                 UNION ALL SELECT
                     tasks._id AS task,
                     recursive_tasks.parent_complete AS parent_complete,
@@ -98,9 +148,8 @@ internal object TaskListQueryRecursive {
                     $completionSort AS completion_sort,
                     recursive_tasks.task AS parent,
                     tasks.collapsed AS collapsed,
-                    CASE WHEN recursive_tasks.collapsed > 0 OR recursive_tasks.hidden > 0 THEN 1 ELSE 0 END AS hidden,
                     recursive_tasks.indent+1 AS indent,
-                    UPPER(tasks.title) AS sort_title,
+                    tasks.sort_title AS sort_title,
                     recursive_tasks.primary_group AS primary_group,
                     recursive_tasks.primary_sort AS primary_sort,
                     ${SortHelper.orderSelectForSortTypeRecursive(subtaskMode, false)} AS secondary_sort,
@@ -115,37 +164,23 @@ internal object TaskListQueryRecursive {
                     ${SortHelper.orderForGroupTypeRecursive(groupMode, groupAscending)},
                     ${SortHelper.orderForSortTypeRecursive(sortMode, sortAscending, subtaskMode, subtaskAscending)}
             ),
-            max_indent AS (
+            sequenced AS (
                 SELECT
                     *,
-                    MAX(recursive_tasks.indent) OVER (PARTITION BY task) AS max_indent,
                     ROW_NUMBER() OVER () AS sequence
                 FROM recursive_tasks
-            ),
-            child_counts AS (
-                SELECT parent,
-                COUNT(*) AS children
-                FROM max_indent
-                WHERE
-                    parent > 0
-                    AND indent = max_indent
-                GROUP BY parent
             )
             SELECT
-                ${TaskListQuery.FIELDS.joinToString(",\n") { it.toStringInSelect() }},
+                ${TaskListQuery.fields(preferences).joinToString(",\n") { it.toStringInSelect() }},
                 group_concat(distinct(tag_uid)) AS tags,
                 indent,
                 sort_group,
-                children,
+                ${countChildren("sequenced.task")} AS children,
                 primary_sort,
                 secondary_sort,
                 parent_complete
-            FROM tasks
-                INNER JOIN max_indent
-                    ON tasks._id = max_indent.task
-                    AND indent = max_indent
-                    AND hidden = 0
-                LEFT JOIN child_counts ON child_counts.parent = tasks._id
+            FROM sequenced
+                CROSS JOIN tasks ON tasks._id = sequenced.task
                 LEFT JOIN tags ON tags.task = tasks._id
                 ${TaskListQuery.JOINS}
             GROUP BY tasks._id
@@ -155,6 +190,59 @@ internal object TaskListQueryRecursive {
         return SortHelper.adjustQueryForFlags(preferences, query)
     }
 
+    /**
+     * True when the list is sorted by a key that depends on the current time, so rows queried
+     * later may not sort the same way as the rows already loaded
+     */
+    fun isTimeDependent(filter: Filter, preferences: QueryPreferences): Boolean {
+        val modes = Modes(filter, preferences)
+        return SortHelper.isTimeDependent(modes.sortMode) ||
+                SortHelper.isTimeDependent(modes.subtaskMode)
+    }
+
+    /**
+     * The rows [getRecursiveQuery] would return for [tasks], computed from each task alone
+     * instead of walking the whole list. Top level tasks get the same row as in the full list
+     * when they belong to it, the filter is only evaluated for [tasks]. Subtasks are returned
+     * whether they are listed or not, with their depth in task_tree as indent, so that they are
+     * never taken for top level rows.
+     */
+    fun getRowsQuery(
+        filter: Filter,
+        preferences: QueryPreferences,
+        tasks: List<Long>,
+    ): String {
+        val modes = Modes(filter, preferences)
+        val query = """
+            SELECT
+                ${TaskListQuery.fields(preferences).joinToString(",\n") { it.toStringInSelect() }},
+                group_concat(distinct(tag_uid)) AS tags,
+                IFNULL((SELECT MAX(depth) FROM task_tree WHERE descendant = tasks._id), 0) AS indent,
+                ${SortHelper.getSortGroup(modes.groupMode)} AS sort_group,
+                ${countChildren("tasks._id")} AS children,
+                ${SortHelper.orderSelectForSortTypeRecursive(modes.sortMode, false)} AS primary_sort,
+                NULL AS secondary_sort,
+                ${parentCompleted(preferences)} AS parent_complete
+            FROM tasks
+                LEFT JOIN tags ON tags.task = tasks._id
+                ${TaskListQuery.JOINS}
+            WHERE ${Task.ID.`in`(tasks)}
+              AND (tasks.parent > 0 OR tasks._id IN (
+                SELECT task
+                FROM (
+                    SELECT tasks._id AS task
+                    FROM tasks
+                    ${modes.listJoin}
+                    ${parentQuery(filter)}
+                )
+                WHERE task IN (${tasks.joinToString()})
+              ))
+            GROUP BY tasks._id
+        """.trimIndent()
+
+        return SortHelper.adjustQueryForFlags(preferences, query)
+    }
+
     private fun newCaldavQuery(list: String) =
             QueryTemplate()
                     .join(
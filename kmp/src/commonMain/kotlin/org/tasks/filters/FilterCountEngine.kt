@@ -0,0 +1,106 @@
+package org.tasks.filters
+
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import org.tasks.data.BuiltInFilterCounts
+import org.tasks.data.FilterMembership
+import org.tasks.data.FilterMembership.Companion.TYPE_LIST
+import org.tasks.data.FilterMembership.Companion.TYPE_PLACE
+import org.tasks.data.FilterMembership.Companion.TYPE_TAG
+import org.tasks.data.dao.TaskDao
+import org.tasks.time.DateTimeUtils2.currentTimeMillis
+import kotlin.math.min
+
+/**
+ * Task counts for the list, tag and place filters in the drawer. Counts are built from a single
+ * query and kept up to date by re-reading only the tasks reported as changed. Counts are rebuilt
+ * once the current time passes the next hide until or due date.
+ */
+class FilterCountEngine(
+    private val taskDao: TaskDao,
+) {
+    data class Counts(
+        val lists: Map<String, Int> = emptyMap(),
+        val tags: Map<String, Int> = emptyMap(),
+        val places: Map<String, Int> = emptyMap(),
+        val builtIn: BuiltInFilterCounts = BuiltInFilterCounts(0, 0, 0),
+    )
+
+    private data class Key(val type: Int, val key: String)
+
+    private val mutex = Mutex()
+    private var memberships: HashMap<Long, List<Key>>? = null
+    private val counts = HashMap<Key, Int>()
+    private val changed = HashSet<Long>()
+    private var builtIn: BuiltInFilterCounts? = null
+    private var nextRefresh = 0L
+
+    suspend fun getCounts(): Counts = mutex.withLock {
+        val now = currentTimeMillis()
+        val memberships = memberships?.takeIf { now < nextRefresh } ?: rebuild(now)
+        if (changed.isNotEmpty()) {
+            val ids = changed.toList()
+            changed.clear()
+            nextRefresh = min(nextRefresh, taskDao.nextRefresh(now))
+            val updated = taskDao
+                .getFilterMemberships(ids, now)
+                .groupBy({ it.task }, { it.toKey() })
+            ids.forEach { id ->
+                memberships.remove(id)?.forEach { add(it, -1) }
+                updated[id]?.let {
+                    memberships[id] = it
+                    it.forEach { key -> add(key, 1) }
+                }
+            }
+        }
+        val builtIn = builtIn ?: taskDao.getBuiltInFilterCounts().also { builtIn = it }
+        Counts(
+            lists = countsFor(TYPE_LIST),
+            tags = countsFor(TYPE_TAG),
+            places = countsFor(TYPE_PLACE),
+            builtIn = builtIn,
+        )
+    }
+
+    /** Discards all counts */
+    suspend fun invalidate() = mutex.withLock {
+        memberships = null
+        changed.clear()
+        builtIn = null
+    }
+
+    /** Re-reads [tasks] the next time counts are requested */
+    suspend fun invalidate(tasks: Collection<Long>) = mutex.withLock {
+        if (memberships != null) {
+            changed.addAll(tasks)
+        }
+        builtIn = null
+    }
+
+    private suspend fun rebuild(now: Long): HashMap<Long, List<Key>> {
+        counts.clear()
+        changed.clear()
+        nextRefresh = taskDao.nextRefresh(now)
+        val memberships = HashMap<Long, List<Key>>()
+        memberships.putAll(taskDao.getFilterMemberships(now).groupBy({ it.task }, { it.toKey() }))
+        memberships.values.forEach { keys -> keys.forEach { add(it, 1) } }
+        this.memberships = memberships
+        return memberships
+    }
+
+    private fun add(key: Key, delta: Int) {
+        val count = (counts[key] ?: 0) + delta
+        if (count > 0) {
+            counts[key] = count
+        } else {
+            counts.remove(key)
+        }
+    }
+
+    private fun countsFor(type: Int): Map<String, Int> =
+        counts.entries
+            .filter { it.key.type == type }
+            .associate { it.key.key to it.value }
+
+    private fun FilterMembership.toKey() = Key(type, key)
+}
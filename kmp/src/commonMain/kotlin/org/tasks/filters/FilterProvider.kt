@@ -2,20 +2,16 @@ package org.tasks.filters
 
 import org.jetbrains.compose.resources.getString
 import org.tasks.compose.drawer.DrawerConfiguration
-import org.tasks.data.LocationFilters
+import org.tasks.data.CaldavFilters
 import org.tasks.data.NO_ORDER
-import org.tasks.data.TagFilters
 import org.tasks.data.dao.CaldavDao
 import org.tasks.data.dao.FilterDao
 import org.tasks.data.dao.LocationDao
 import org.tasks.data.dao.TagDataDao
-import org.tasks.data.dao.TaskDao
 import org.tasks.data.entity.CaldavAccount
 import org.tasks.data.entity.CaldavAccount.Companion.TYPE_LOCAL
 import org.tasks.data.entity.CaldavAccount.Companion.TYPE_OPENTASKS
 import org.tasks.data.setupLocalAccount
-import org.tasks.data.toLocationFilter
-import org.tasks.data.toTagFilter
 import org.tasks.filters.NavigationDrawerSubheader.SubheaderType
 import org.tasks.kmp.IS_DEBUG
 import org.tasks.preferences.TasksPreferences
@@ -35,17 +31,17 @@ class FilterProvider(
     private val caldavDao: CaldavDao,
     private val configuration: DrawerConfiguration,
     private val locationDao: LocationDao,
-    private val taskDao: TaskDao,
+    private val filterCountEngine: FilterCountEngine,
     private val tasksPreferences: TasksPreferences,
 ) {
     suspend fun listPickerItems(): List<FilterListItem> =
-            caldavFilters(showCreate = false, forceExpand = false)
+            caldavFilters(filterCountEngine.getCounts(), showCreate = false, forceExpand = false)
 
     suspend fun drawerItems(): List<FilterListItem> =
         getAllFilters(showCreate = true, hideUnused = true)
 
     suspend fun allLists(): List<Filter> =
-        caldavFilters(showCreate = false, forceExpand = true)
+        caldavFilters(filterCountEngine.getCounts(), showCreate = false, forceExpand = true)
             .filterIsInstance<Filter>()
 
     suspend fun allFilters(): List<Filter> =
@@ -89,6 +85,7 @@ class FilterProvider(
             }
 
     private suspend fun addFilters(
+        counts: FilterCountEngine.Counts,
         showCreate: Boolean,
         showBuiltIn: Boolean,
         forceExpand: Boolean,
@@ -109,12 +106,13 @@ class FilterProvider(
                 )
                         .apply { if (collapsed) return this }
                         .plusAllIf(showBuiltIn) {
-                            builtInFilters()
+                            builtInFilters(counts)
                         }
                         .plus(filterDao.getFilters().map(::CustomFilter).sort())
             }
 
     private suspend fun addTags(
+        counts: FilterCountEngine.Counts,
         showCreate: Boolean,
         hideUnused: Boolean,
         forceExpand: Boolean,
@@ -134,15 +132,16 @@ class FilterProvider(
                     )
                 )
                         .apply { if (collapsed) return this }
-                        .plus(tagDataDao.getTagFilters()
+                        .plus(tagDataDao.tagDataOrderedByName()
+                                    .map { TagFilter(it, it.remoteId?.let { uid -> counts.tags[uid] } ?: 0) }
                                     .filterIf(hideUnused && configuration.hideUnusedTags) {
                                         it.count > 0
                                     }
-                                    .map(TagFilters::toTagFilter)
                                     .sort())
             }
 
     private suspend fun addPlaces(
+        counts: FilterCountEngine.Counts,
         showCreate: Boolean,
         hideUnused: Boolean,
         forceExpand: Boolean,
@@ -162,11 +161,11 @@ class FilterProvider(
                     )
                 )
                         .apply { if (collapsed) return this }
-                        .plus(locationDao.getPlaceFilters()
+                        .plus(locationDao.getPlaces()
+                                    .map { PlaceFilter(it, it.uid?.let { uid -> counts.places[uid] } ?: 0) }
                                     .filterIf(hideUnused && configuration.hideUnusedPlaces) {
                                         it.count > 0
                                     }
-                                    .map(LocationFilters::toLocationFilter)
                                     .sort())
             }
 
@@ -175,37 +174,46 @@ class FilterProvider(
         showBuiltIn: Boolean = true,
         hideUnused: Boolean = false,
         forceExpand: Boolean = false,
-    ): List<FilterListItem> =
-            if (showBuiltIn) {
-                arrayListOf(MyTasksFilter.create())
-            } else {
-                ArrayList<FilterListItem>()
-            }
-                    .asSequence()
-                    .plus(addFilters(showCreate, showBuiltIn, forceExpand))
-                    .plus(addTags(showCreate, hideUnused, forceExpand))
-                    .plus(addPlaces(showCreate, hideUnused, forceExpand))
-                    .plus(caldavFilters(showCreate, forceExpand))
-                    .toList()
-                    .plusAllIf(IS_DEBUG) { getDebugFilters() }
+    ): List<FilterListItem> {
+        val counts = filterCountEngine.getCounts()
+        return if (showBuiltIn) {
+            arrayListOf(MyTasksFilter.create())
+        } else {
+            ArrayList<FilterListItem>()
+        }
+                .asSequence()
+                .plus(addFilters(counts, showCreate, showBuiltIn, forceExpand))
+                .plus(addTags(counts, showCreate, hideUnused, forceExpand))
+                .plus(addPlaces(counts, showCreate, hideUnused, forceExpand))
+                .plus(caldavFilters(counts, showCreate, forceExpand))
+                .toList()
+                .plusAllIf(IS_DEBUG) { getDebugFilters() }
+    }
 
     private suspend fun caldavFilters(
+        counts: FilterCountEngine.Counts,
         showCreate: Boolean,
         forceExpand: Boolean,
-    ): List<FilterListItem> =
-            caldavDao.getAccounts()
-                    .ifEmpty { listOf(caldavDao.setupLocalAccount()) }
-                    .filter { it.accountType != TYPE_LOCAL || configuration.localListsEnabled }
-                .flatMap {
-                    caldavFilter(
-                        it,
-                        showCreate && it.accountType != TYPE_OPENTASKS,
-                        forceExpand,
-                    )
-                }
+    ): List<FilterListItem> {
+        val accounts = caldavDao.getAccounts()
+            .ifEmpty { listOf(caldavDao.setupLocalAccount()) }
+            .filter { it.accountType != TYPE_LOCAL || configuration.localListsEnabled }
+        val lists = caldavDao.getAllCaldavFilters().groupBy { it.caldavCalendar.account }
+        return accounts.flatMap {
+            caldavFilter(
+                it,
+                lists[it.uuid] ?: emptyList(),
+                counts,
+                showCreate && it.accountType != TYPE_OPENTASKS,
+                forceExpand,
+            )
+        }
+    }
 
     private suspend fun caldavFilter(
         account: CaldavAccount,
+        lists: List<CaldavFilters>,
+        counts: FilterCountEngine.Counts,
         showCreate: Boolean,
         forceExpand: Boolean,
     ): List<FilterListItem> {
@@ -228,20 +236,19 @@ class FilterProvider(
             )
         )
             .apply { if (collapsed) return this }
-            .plus(caldavDao
-                .getCaldavFilters(account.uuid!!)
+            .plus(lists
                 .map {
                     CaldavFilter(
                         calendar = it.caldavCalendar,
                         account = account,
                         principals = it.principals,
-                        count = it.count,
+                        count = it.caldavCalendar.uuid?.let { uuid -> counts.lists[uuid] } ?: 0,
                     )
                 }
                 .sort())
     }
 
-    private suspend fun builtInFilters(): List<Filter> {
+    private suspend fun builtInFilters(counts: FilterCountEngine.Counts): List<Filter> {
         val filters: MutableList<Filter> = ArrayList()
         if (configuration.todayFilter) {
             filters.add(TodayFilter.create())
@@ -249,13 +256,13 @@ class FilterProvider(
         if (configuration.recentlyModifiedFilter) {
             filters.add(RecentlyModifiedFilter.create())
         }
-        if (taskDao.snoozedReminders() > 0) {
+        if (counts.builtIn.snoozed > 0) {
             filters.add(SnoozedFilter.create())
         }
-        if (taskDao.activeTimers() > 0) {
+        if (counts.builtIn.timers > 0) {
             filters.add(TimerFilter.create())
         }
-        if (taskDao.hasNotifications() > 0) {
+        if (counts.builtIn.notifications > 0) {
             filters.add(NotificationsFilter.create())
         }
         return filters
@@ -288,7 +295,7 @@ class FilterProvider(
         private suspend fun <T> Collection<T>.plusAllIf(predicate: Boolean, item: suspend () -> Iterable<T>): List<T> =
                 plus(if (predicate) item() else emptyList())
 
-        private fun <T> Iterable<T>.filterIf(predicate: Boolean, predicate2: (T) -> Boolean): Iterable<T> =
+        private fun <T> List<T>.filterIf(predicate: Boolean, predicate2: (T) -> Boolean): List<T> =
                 if (predicate) filter(predicate2) else this
     }
 }
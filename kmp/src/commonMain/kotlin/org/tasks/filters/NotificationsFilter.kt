@@ -4,7 +4,7 @@ import org.jetbrains.compose.resources.getString
 import org.tasks.CommonParcelize
 import org.tasks.data.entity.Notification
 import org.tasks.data.entity.Task
-import org.tasks.data.sql.Join
+import org.tasks.data.sql.Query
 import org.tasks.data.sql.QueryTemplate
 import org.tasks.themes.TasksIcons
 import tasks.kmp.generated.resources.Res
@@ -19,7 +19,7 @@ data class NotificationsFilter(
 
     override val sql: String
         get() = QueryTemplate()
-            .join(Join.inner(Notification.TABLE, Task.ID.eq(Notification.TASK)))
+            .where(Task.ID.`in`(Query.select(Notification.TASK).from(Notification.TABLE)))
             .toString()
 
     override fun supportsHiddenTasks(): Boolean = false
@@ -1,6 +1,7 @@
 package org.tasks.filters
 
 import org.tasks.CommonParcelize
+import org.tasks.data.db.TaskSearch
 import org.tasks.data.entity.CaldavCalendar
 import org.tasks.data.entity.CaldavTask
 import org.tasks.data.entity.Geofence
@@ -9,6 +10,7 @@ import org.tasks.data.entity.Tag
 import org.tasks.data.entity.Task
 import org.tasks.data.entity.UserActivity
 import org.tasks.data.sql.Criterion
+import org.tasks.data.sql.Field.Companion.field
 import org.tasks.data.sql.Join
 import org.tasks.data.sql.Query
 import org.tasks.data.sql.QueryTemplate
@@ -20,49 +22,17 @@ data class SearchFilter(
 ) : Filter {
     override val sql: String
         get() {
-            val matcher = "%$query%"
+            val terms = query
+                .split(NON_WORD)
+                .filter { it.isNotEmpty() }
+                .joinToString(" ") { "${it.lowercase()}*" }
+            val matches = if (terms.isEmpty()) {
+                like("%$query%")
+            } else {
+                Task.ID.`in`(match(terms))
+            }
             return QueryTemplate()
-                .where(
-                    Criterion.and(
-                        Task.DELETION_DATE.eq(0),
-                        Criterion.or(
-                            Task.NOTES.like(matcher),
-                            Task.TITLE.like(matcher),
-                            Task.ID.`in`(
-                                Query.select(Tag.TASK)
-                                    .from(Tag.TABLE)
-                                    .where(Tag.NAME.like(matcher))
-                            ),
-                            Task.UUID.`in`(
-                                Query.select(UserActivity.TASK)
-                                    .from(UserActivity.TABLE)
-                                    .where(UserActivity.MESSAGE.like(matcher))
-                            ),
-                            Task.ID.`in`(
-                                Query.select(Geofence.TASK)
-                                    .from(Geofence.TABLE)
-                                    .join(Join.inner(Place.TABLE, Place.UID.eq(Geofence.PLACE)))
-                                    .where(
-                                        Criterion.or(
-                                            Place.NAME.like(matcher),
-                                            Place.ADDRESS.like(matcher)
-                                        )
-                                    )
-                            ),
-                            Task.ID.`in`(
-                                Query.select(CaldavTask.TASK)
-                                    .from(CaldavTask.TABLE)
-                                    .join(
-                                        Join.inner(
-                                            CaldavCalendar.TABLE,
-                                            CaldavCalendar.UUID.eq(CaldavTask.CALENDAR)
-                                        )
-                                    )
-                                    .where(CaldavCalendar.NAME.like(matcher))
-                            ),
-                        )
-                    )
-                )
+                .where(Criterion.and(Task.DELETION_DATE.eq(0), matches))
                 .toString()
         }
 
@@ -71,4 +41,52 @@ data class SearchFilter(
     }
 
     override fun supportsHiddenTasks() = false
-}
\ No newline at end of file
+
+    companion object {
+        private val NON_WORD = Regex("[^\\p{L}\\p{N}]+")
+        private val MATCH_ALL = field(TaskSearch.TABLE_NAME)
+
+        private fun match(terms: String) =
+            Query.select(TaskSearch.ROWID)
+                .from(TaskSearch.TABLE)
+                .where(MATCH_ALL.match(terms))
+
+        /** Fallback for queries without any indexable words */
+        private fun like(matcher: String) = Criterion.or(
+            Task.NOTES.like(matcher),
+            Task.TITLE.like(matcher),
+            Task.ID.`in`(
+                Query.select(Tag.TASK)
+                    .from(Tag.TABLE)
+                    .where(Tag.NAME.like(matcher))
+            ),
+            Task.UUID.`in`(
+                Query.select(UserActivity.TASK)
+                    .from(UserActivity.TABLE)
+                    .where(UserActivity.MESSAGE.like(matcher))
+            ),
+            Task.ID.`in`(
+                Query.select(Geofence.TASK)
+                    .from(Geofence.TABLE)
+                    .join(Join.inner(Place.TABLE, Place.UID.eq(Geofence.PLACE)))
+                    .where(
+                        Criterion.or(
+                            Place.NAME.like(matcher),
+                            Place.ADDRESS.like(matcher)
+                        )
+                    )
+            ),
+            Task.ID.`in`(
+                Query.select(CaldavTask.TASK)
+                    .from(CaldavTask.TABLE)
+                    .join(
+                        Join.inner(
+                            CaldavCalendar.TABLE,
+                            CaldavCalendar.UUID.eq(CaldavTask.CALENDAR)
+                        )
+                    )
+                    .where(CaldavCalendar.NAME.like(matcher))
+            ),
+        )
+    }
+}
@@ -27,5 +27,8 @@ interface QueryPreferences {
 
     val alwaysDisplayFullDate: Boolean
 
+    /** Notes are shown in full, lists load them whole instead of a preview */
+    val showFullDescription: Boolean
+
     var completedTasksAtBottom: Boolean
 }
\ No newline at end of file
@@ -0,0 +1,77 @@
+package org.tasks.tasklist
+
+/**
+ * Fenwick tree over non-negative ints. Updating a value and summing a prefix are O(log n),
+ * inserting or removing a value rebuilds the tree in O(n).
+ */
+internal class PrefixSums(values: List<Int> = emptyList()) {
+    private val values = values.toMutableList()
+    private var tree = IntArray(0)
+
+    init {
+        rebuild()
+    }
+
+    val size: Int
+        get() = values.size
+
+    operator fun get(index: Int): Int = values[index]
+
+    fun add(index: Int, delta: Int) {
+        values[index] += delta
+        var i = index + 1
+        while (i <= values.size) {
+            tree[i] += delta
+            i += i and -i
+        }
+    }
+
+    /** @return the sum of the first [count] values */
+    fun sum(count: Int): Int {
+        var result = 0
+        var i = count
+        while (i > 0) {
+            result += tree[i]
+            i -= i and -i
+        }
+        return result
+    }
+
+    /**
+     * @return the largest count for which [predicate] holds for the count and the sum of that
+     * many values. [predicate] must hold for zero and stop holding at some point, if ever.
+     */
+    fun search(predicate: (count: Int, sum: Int) -> Boolean): Int {
+        var count = 0
+        var sum = 0
+        var step = values.size.takeHighestOneBit()
+        while (step > 0) {
+            val next = count + step
+            if (next <= values.size && predicate(next, sum + tree[next])) {
+                count = next
+                sum += tree[next]
+            }
+            step = step shr 1
+        }
+        return count
+    }
+
+    fun insert(index: Int, value: Int) {
+        values.add(index, value)
+        rebuild()
+    }
+
+    fun removeAt(index: Int): Int = values.removeAt(index).also { rebuild() }
+
+    private fun rebuild() {
+        tree = IntArray(values.size + 1)
+        values.forEachIndexed { index, value ->
+            val i = index + 1
+            tree[i] += value
+            val parent = i + (i and -i)
+            if (parent <= values.size) {
+                tree[parent] += tree[i]
+            }
+        }
+    }
+}
@@ -4,8 +4,12 @@ import com.todoroo.astrid.core.SortHelper
 import org.tasks.data.TaskContainer
 import org.tasks.time.DateTimeUtils2.currentTimeMillis
 import org.tasks.time.startOfDay
-import java.util.TreeMap
 
+/**
+ * Task list with group headers. Header positions are kept as prefix sums of the section sizes,
+ * so mapping between list positions and task positions is O(log n) and single tasks can be
+ * added, removed or moved without regrouping the whole list.
+ */
 class SectionedDataSource(
     tasks: List<TaskContainer> = emptyList(),
     disableHeaders: Boolean = false,
@@ -13,92 +17,161 @@ class SectionedDataSource(
     val subtaskMode: Int = SortHelper.SORT_MANUAL,
     private val collapsed: Set<Long> = emptySet(),
     private val completedAtBottom: Boolean = true,
-): List<UiItem> {
+): AbstractList<UiItem>() {
     private val tasks = tasks.toMutableList()
 
     private val sections = if (disableHeaders || groupMode == SortHelper.GROUP_NONE) {
-        TreeMap<Int, AdapterSection>()
+        ArrayList<AdapterSection>()
     } else {
         getSections()
     }
 
+    /** Tasks shown above the first header */
+    private var lead = sections.firstOrNull()?.firstPosition ?: this.tasks.size
+
+    /** Size of each section, its header included */
+    private var sizes = PrefixSums(
+        sections.mapIndexed { index, section ->
+            (sections.getOrNull(index + 1)?.firstPosition ?: this.tasks.size) - section.firstPosition + 1
+        }
+    )
+
+    private constructor(other: SectionedDataSource) : this(
+        tasks = other.tasks,
+        disableHeaders = true,
+        groupMode = other.groupMode,
+        subtaskMode = other.subtaskMode,
+        collapsed = other.collapsed,
+        completedAtBottom = other.completedAtBottom,
+    ) {
+        sections.addAll(other.sections)
+        lead = other.lead
+        sizes = PrefixSums(List(other.sizes.size) { other.sizes[it] })
+    }
+
     fun getItem(position: Int): TaskContainer = tasks[sectionedPositionToPosition(position)]
 
     fun getHeaderValue(position: Int): Long = getSection(position).value
 
-    fun isHeader(position: Int) = sections[position] != null
+    fun isHeader(position: Int): Boolean {
+        val section = sectionAt(position)
+        return section >= 0 && headerPosition(section) == position
+    }
 
-    private fun sectionedPositionToPosition(sectionedPosition: Int): Int {
-        if (isHeader(sectionedPosition)) {
-            return getSection(sectionedPosition).firstPosition
+    /** @return the index of the last section starting at or before [position], or -1 */
+    private fun sectionAt(position: Int): Int =
+        if (position < lead || sections.isEmpty()) {
+            -1
+        } else {
+            sizes.search { _, sum -> sum <= position - lead }.coerceAtMost(sections.size - 1)
         }
 
-        var offset = 0
-        sections.forEach { (_, section) ->
-            if (section.sectionedPosition > sectionedPosition) {
-                return@forEach
-            }
-            --offset
+    private fun headerPosition(section: Int) = lead + sizes.sum(section)
+
+    private fun firstPosition(section: Int) = headerPosition(section) - section
+
+    private fun sectionedPositionToPosition(sectionedPosition: Int): Int {
+        val section = sectionAt(sectionedPosition)
+        return when {
+            section < 0 -> sectionedPosition
+            headerPosition(section) == sectionedPosition -> firstPosition(section)
+            else -> sectionedPosition - section - 1
         }
-        return sectionedPosition + offset
     }
 
+    private fun positionToSectionedPosition(position: Int): Int =
+        if (position < lead) {
+            position
+        } else {
+            position + sizes.search { count, sum -> sum - count <= position - lead } + 1
+        }
+
     val taskCount: Int
         get() = tasks.size
 
     override val size: Int
         get() = tasks.size + sections.size
 
-    override fun get(index: Int) =
-        sections[index]
-            ?.let { UiItem.Header(it.value, it.collapsed) }
-            ?: UiItem.Task(getItem(index))
-
-    override fun isEmpty() = size == 0
-
-    override fun iterator(): Iterator<UiItem> {
-        return object : Iterator<UiItem> {
-            private var index = 0
-            override fun hasNext() = index < size
-            override fun next(): UiItem = get(index++)
+    override fun get(index: Int): UiItem {
+        if (index < 0 || index >= size) {
+            throw IndexOutOfBoundsException("index: $index, size: $size")
+        }
+        val section = sectionAt(index)
+        return if (section >= 0 && headerPosition(section) == index) {
+            sections[section].let { UiItem.Header(it.value, it.collapsed) }
+        } else {
+            UiItem.Task(tasks[index - section - 1])
         }
     }
 
-    override fun listIterator(): ListIterator<UiItem> {
-        TODO("Not yet implemented")
-    }
-
-    override fun listIterator(index: Int): ListIterator<UiItem> {
-        TODO("Not yet implemented")
+    override fun indexOf(element: UiItem): Int = when (element) {
+        is UiItem.Header ->
+            sections
+                .indexOfFirst { it.value == element.value && it.collapsed == element.collapsed }
+                .let { if (it < 0) -1 else headerPosition(it) }
+        is UiItem.Task ->
+            tasks.indexOf(element.task).let { if (it < 0) -1 else positionToSectionedPosition(it) }
     }
 
-    override fun subList(fromIndex: Int, toIndex: Int): List<UiItem> {
-        return iterator().asSequence().drop(fromIndex).take(toIndex - fromIndex).toList()
+    override fun lastIndexOf(element: UiItem): Int = when (element) {
+        is UiItem.Header ->
+            sections
+                .indexOfLast { it.value == element.value && it.collapsed == element.collapsed }
+                .let { if (it < 0) -1 else headerPosition(it) }
+        is UiItem.Task ->
+            tasks.lastIndexOf(element.task).let { if (it < 0) -1 else positionToSectionedPosition(it) }
     }
 
-    override fun lastIndexOf(element: UiItem): Int {
-        TODO("Not yet implemented")
-    }
+    override fun contains(element: UiItem) = indexOf(element) >= 0
 
-    override fun indexOf(element: UiItem): Int {
-        TODO("Not yet implemented")
+    fun getSection(position: Int): AdapterSection {
+        val section = sectionAt(position)
+        require(section >= 0 && headerPosition(section) == position) { "Not a header: $position" }
+        return sections[section].copy(
+            firstPosition = firstPosition(section),
+            sectionedPosition = position,
+        )
     }
 
-    override fun containsAll(elements: Collection<UiItem>): Boolean {
-        TODO("Not yet implemented")
+    /** Inserts [task] at [position], in the section of the header above it */
+    fun add(position: Int, task: TaskContainer) {
+        val section = sectionAt(position - 1)
+        if (section < 0) {
+            tasks.add(position, task)
+            lead++
+        } else {
+            tasks.add(position - section - 1, task)
+            sizes.add(section, 1)
+        }
     }
 
-    override fun contains(element: UiItem): Boolean {
-        TODO("Not yet implemented")
+    /** Removes the task at [position], and its header if the section is left empty */
+    fun removeAt(position: Int): TaskContainer {
+        val section = sectionAt(position)
+        if (section < 0) {
+            lead--
+            return tasks.removeAt(position)
+        }
+        require(headerPosition(section) != position) { "Not a task: $position" }
+        val task = tasks.removeAt(position - section - 1)
+        sizes.add(section, -1)
+        if (sizes[section] == 1 && !sections[section].collapsed) {
+            sizes.removeAt(section)
+            sections.removeAt(section)
+        }
+        return task
     }
 
-    fun getSection(position: Int): AdapterSection = sections[position]!!
-
-    fun add(position: Int, task: TaskContainer) = tasks.add(sectionedPositionToPosition(position), task)
+    /** Moves the task at [from] so that it ends up at [to] */
+    fun move(from: Int, to: Int) = add(to, removeAt(from))
 
-    fun removeAt(position: Int): TaskContainer = tasks.removeAt(sectionedPositionToPosition(position))
+    /** Replaces the task at [position] without changing its section */
+    fun set(position: Int, task: TaskContainer): TaskContainer {
+        require(!isHeader(position)) { "Not a task: $position" }
+        return tasks.set(sectionedPositionToPosition(position), task)
+    }
 
-    private fun getSections(): TreeMap<Int, AdapterSection> {
+    private fun getSections(): ArrayList<AdapterSection> {
         val sections = ArrayList<AdapterSection>()
         val startOfToday = currentTimeMillis().startOfDay()
         for (i in tasks.indices) {
@@ -168,40 +241,72 @@ class SectionedDataSource(
             }
         }
 
-        return setSections(sections)
+        return sections
     }
 
-    private fun setSections(newSections: List<AdapterSection>): TreeMap<Int, AdapterSection> {
-        val sections = TreeMap<Int, AdapterSection>()
-        newSections.forEachIndexed { index, section ->
-            section.sectionedPosition = section.firstPosition + index
-            sections[section.sectionedPosition] = section
+    /** Moves the header at [position] by [offset], moving the tasks it passes to the other section */
+    fun moveSection(position: Int, offset: Int) {
+        val section = sectionAt(position)
+        if (section == 0) {
+            lead += offset
+        } else {
+            sizes.add(section - 1, offset)
         }
-        return sections
+        sizes.add(section, -offset)
     }
 
-    fun moveSection(toPosition: Int, offset: Int) {
-        val old = sections.remove(toPosition)!!
-        val newSectionedPosition = old.sectionedPosition + offset
-        val previousSection = if (isHeader(newSectionedPosition - 1)) sections[newSectionedPosition - 1] else null
-        val newFirstPosition = previousSection?.firstPosition ?: (old.firstPosition + offset)
-        val new = AdapterSection(newFirstPosition, old.value, newSectionedPosition, old.collapsed)
-        sections[new.sectionedPosition] = new
+    fun getNearestHeader(sectionedPosition: Int): Long {
+        val section = sectionAt(sectionedPosition)
+        return if (section < 0) -1 else sections[section].value
     }
 
-    tailrec fun getNearestHeader(sectionedPosition: Int): Long =
-        if (sectionedPosition < 0) {
-            -1
-        } else if (isHeader(sectionedPosition)) {
-            getHeaderValue(sectionedPosition)
-        } else {
-            getNearestHeader(sectionedPosition - 1)
-        }
+    fun getSectionValues(): List<Long> = sections.map { it.value }
 
-    fun getSectionValues(): List<Long> = sections.map { (_, header) -> header.value }
+    /**
+     * Applies a change to the tasks in [ids] without regrouping the list. [rows] is the result of
+     * the query that produced this list, restricted to [ids].
+     *
+     * Only changes that leave every task where it was can be applied: a task that moved, joined
+     * the list, or has a parent or subtasks needs the full query, and null is returned.
+     */
+    fun update(ids: Collection<Long>, rows: List<TaskContainer>): SectionedDataSource? {
+        val result = SectionedDataSource(this)
+        val updates = rows.associateBy { it.id }
+        for (id in ids) {
+            val row = updates[id]
+            val position = result.tasks.indexOfFirst { it.id == id }
+            when {
+                position < 0 && row == null -> continue
+                position < 0 -> return null
+                !result.tasks[position].isStandalone -> return null
+                row == null -> result.removeAt(result.positionToSectionedPosition(position))
+                row.isStandalone && row.hasSameOrder(result.tasks[position]) ->
+                    result.tasks[position] = row
+                else -> return null
+            }
+        }
+        return result
+    }
 
     companion object {
         const val HEADER_OVERDUE = -1L
         const val HEADER_COMPLETED = -2L
+
+        private val TaskContainer.isStandalone: Boolean
+            get() = indent == 0 && children == 0 && task.parent == 0L
+
+        private fun TaskContainer.hasSameOrder(other: TaskContainer): Boolean =
+            sortGroup == other.sortGroup &&
+                    primarySort == other.primarySort &&
+                    secondarySort == other.secondarySort &&
+                    parentComplete == other.parentComplete &&
+                    caldavTask?.calendar == other.caldavTask?.calendar &&
+                    task.title == other.task.title &&
+                    task.priority == other.task.priority &&
+                    task.dueDate == other.task.dueDate &&
+                    task.hideUntil == other.task.hideUntil &&
+                    task.creationDate == other.task.creationDate &&
+                    task.completionDate == other.task.completionDate &&
+                    task.order == other.task.order
     }
 }
\ No newline at end of file
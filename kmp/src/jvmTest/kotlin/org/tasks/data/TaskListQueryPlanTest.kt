@@ -0,0 +1,373 @@
+package org.tasks.data
+
+import androidx.sqlite.SQLiteConnection
+import androidx.sqlite.driver.bundled.BundledSQLiteDriver
+import androidx.sqlite.execSQL
+import com.todoroo.astrid.core.SortHelper
+import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.jsonArray
+import kotlinx.serialization.json.jsonObject
+import kotlinx.serialization.json.jsonPrimitive
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.fail
+import org.junit.Before
+import org.junit.Test
+import org.tasks.data.db.TaskHierarchy
+import org.tasks.data.db.TaskSearch
+import org.tasks.data.db.TaskSortKey
+import org.tasks.data.entity.CaldavAccount
+import org.tasks.data.entity.CaldavCalendar
+import org.tasks.data.entity.Place
+import org.tasks.data.entity.TagData
+import org.tasks.data.sql.BoundQuery
+import org.tasks.filters.CaldavFilter
+import org.tasks.filters.Filter
+import org.tasks.filters.MyTasksFilter
+import org.tasks.filters.NotificationsFilter
+import org.tasks.filters.PlaceFilter
+import org.tasks.filters.RecentlyModifiedFilter
+import org.tasks.filters.SearchFilter
+import org.tasks.filters.SnoozedFilter
+import org.tasks.filters.TagFilter
+import org.tasks.filters.TimerFilter
+import org.tasks.filters.TodayFilter
+import org.tasks.preferences.QueryPreferences
+import java.io.File
+
+/**
+ * Runs EXPLAIN QUERY PLAN for every built-in filter against the committed Room schema for
+ * [SCHEMA_VERSION] and a 100k task database, failing when a query falls back to scanning a base
+ * table or needs more temporary b-trees than the baseline for its query shape. The rows for
+ * single tasks are checked against the full list on the same database.
+ */
+class TaskListQueryPlanTest {
+    private lateinit var connection: SQLiteConnection
+
+    @Before
+    fun setUp() {
+        connection = BundledSQLiteDriver().open(":memory:")
+        createSchema()
+        populate()
+        TaskSearch.rebuild(connection)
+        TaskHierarchy.rebuild(connection)
+        TaskSortKey.rebuild(connection)
+        connection.execSQL("ANALYZE")
+    }
+
+    @After
+    fun tearDown() {
+        connection.close()
+    }
+
+    @Test
+    fun noUnexpectedScans() {
+        val failures = ArrayList<String>()
+        queries().forEach { (name, filter, query) ->
+            val allowed = ALLOWED_SCANS[filter::class.simpleName] ?: emptySet()
+            explain(query)
+                .mapNotNull { SCAN.matchEntire(it)?.groupValues?.get(1) }
+                .filter { it in tables && it !in allowed }
+                .forEach { failures.add("$name: SCAN $it") }
+        }
+        assertNoFailures(failures)
+    }
+
+    @Test
+    fun noExtraTempBTrees() {
+        val failures = ArrayList<String>()
+        queries().forEach { (name, _, query) ->
+            val plan = explain(query)
+            val baseline = if (plan.any { it.contains(RECURSIVE_TASKS) }) RECURSIVE else FLAT
+            plan
+                .filter { it.startsWith(TEMP_B_TREE) }
+                .groupingBy { it.removePrefix(TEMP_B_TREE) }
+                .eachCount()
+                .filter { (usage, count) -> count > (baseline[usage] ?: 0) }
+                .forEach { (usage, count) -> failures.add("$name: $count temp b-trees for $usage") }
+        }
+        assertNoFailures(failures)
+    }
+
+    @Test
+    fun rowsMatchFullList() {
+        listOf(
+            Preferences(sortMode = SortHelper.SORT_IMPORTANCE),
+            Preferences(sortMode = SortHelper.SORT_ALPHA, groupMode = SortHelper.SORT_LIST),
+            Preferences(
+                sortMode = SortHelper.SORT_DUE,
+                groupMode = SortHelper.SORT_IMPORTANCE,
+                completedTasksAtBottom = false,
+            ),
+        ).forEach { preferences ->
+            filters().forEach { filter ->
+                val rows = TaskListQuery.getQuery(preferences, filter, CHANGED)
+                    ?.let { values(it) }
+                    ?: return@forEach
+                assertEquals(
+                    "${filter::class.simpleName} $preferences",
+                    values(TaskListQuery.getQuery(preferences, filter))
+                        .filter { it["_id"]!!.toLong() in CHANGED }
+                        .filter(::isStandalone)
+                        .sortedBy { it["_id"]!!.toLong() },
+                    rows.filter(::isStandalone).sortedBy { it["_id"]!!.toLong() },
+                )
+            }
+        }
+    }
+
+    @Test
+    fun noRowsForTimeDependentSort() {
+        listOf(
+            Preferences(sortMode = SortHelper.SORT_AUTO),
+            Preferences(sortMode = SortHelper.SORT_ALPHA, subtaskMode = SortHelper.SORT_AUTO),
+        ).forEach { preferences ->
+            filters().forEach { filter ->
+                assertNull(
+                    "${filter::class.simpleName} $preferences",
+                    TaskListQuery.getQuery(preferences, filter, CHANGED),
+                )
+            }
+        }
+    }
+
+    @Test
+    fun listProjectionCoversTaskColumns() {
+        val columns = connection.prepare("PRAGMA table_info(tasks)").use { statement ->
+            buildSet { while (statement.step()) add(statement.getText(1)) }
+        }
+
+        assertEquals(columns - "notes", TaskListQuery.TASK_COLUMNS.toSet())
+    }
+
+    private fun isStandalone(row: Map<String, String?>) =
+        row["parent"] == "0" && row["children"] == "0"
+
+    private fun values(query: BoundQuery): List<Map<String, String?>> =
+        connection.prepare(query.sql).use { statement ->
+            query.bind(statement)
+            val columns = statement.getColumnNames()
+            val indices = ROW_COLUMNS.map { columns.indexOf(it) }
+            buildList {
+                while (statement.step()) {
+                    add(
+                        ROW_COLUMNS.zip(indices).associate { (column, index) ->
+                            column to if (statement.isNull(index)) null else statement.getText(index)
+                        }
+                    )
+                }
+            }
+        }
+
+    private fun queries() = sequence {
+        filters().forEach { filter ->
+            val name = filter::class.simpleName
+            SORT_MODES.forEach { sort ->
+                GROUP_MODES.forEach { group ->
+                    val preferences = Preferences(sortMode = sort, groupMode = group)
+                    yield(Triple("$name sort=$sort group=$group", filter, query(preferences, filter)))
+                    TaskListQuery.getQuery(preferences, filter, CHANGED)?.let {
+                        yield(Triple("$name sort=$sort group=$group rows", filter, it))
+                    }
+                }
+            }
+            if (filter.supportsManualSort()) {
+                val preferences = Preferences(isManualSort = true)
+                yield(Triple("$name manual", filter, query(preferences, filter)))
+            }
+        }
+    }
+
+    private fun query(preferences: QueryPreferences, filter: Filter) =
+        TaskListQuery.getQuery(preferences, filter)
+
+    private fun filters(): List<Filter> {
+        val caldav = CaldavAccount(uuid = "account0", accountType = CaldavAccount.TYPE_CALDAV)
+        val google = CaldavAccount(uuid = "account1", accountType = CaldavAccount.TYPE_GOOGLE_TASKS)
+        return listOf(
+            MyTasksFilter("My Tasks"),
+            TodayFilter("Today"),
+            RecentlyModifiedFilter("Recently modified"),
+            SnoozedFilter("Snoozed"),
+            NotificationsFilter("Notifications"),
+            TimerFilter("Timer"),
+            SearchFilter("Search", "task 42"),
+            TagFilter(TagData(remoteId = "tag1", name = "Tag 1")),
+            PlaceFilter(Place(uid = "place1", name = "Place 1")),
+            CaldavFilter(CaldavCalendar(account = caldav.uuid, uuid = "list0"), caldav),
+            CaldavFilter(CaldavCalendar(account = google.uuid, uuid = "list1"), google),
+        )
+    }
+
+    private fun explain(query: BoundQuery): List<String> =
+        connection.prepare("EXPLAIN QUERY PLAN ${query.sql}").use { statement ->
+            query.bind(statement)
+            buildList { while (statement.step()) add(statement.getText(3)) }
+        }
+
+    private val tables: Set<String> by lazy {
+        connection.prepare("SELECT name FROM sqlite_master WHERE type = 'table'").use { statement ->
+            buildSet { while (statement.step()) add(statement.getText(0)) }
+        }
+    }
+
+    private fun createSchema() {
+        val schema = File("$SCHEMA_DIR/$SCHEMA_VERSION.json")
+        val database = Json.parseToJsonElement(schema.readText()).jsonObject["database"]!!.jsonObject
+        database["entities"]!!.jsonArray.map { it.jsonObject }.forEach { entity ->
+            val table = entity["tableName"]!!.jsonPrimitive.content
+            connection.execSQL(entity["createSql"]!!.jsonPrimitive.content.replace(TABLE_NAME, table))
+            entity["indices"]?.jsonArray?.forEach { index ->
+                connection.execSQL(
+                    index.jsonObject["createSql"]!!.jsonPrimitive.content.replace(TABLE_NAME, table)
+                )
+            }
+        }
+    }
+
+    private fun populate() {
+        fun insert(count: Int, sql: String) = connection.execSQL(
+            "WITH RECURSIVE n(i) AS (SELECT 1 UNION ALL SELECT i + 1 FROM n WHERE i < $count) $sql"
+        )
+        insert(2, """
+            INSERT INTO caldav_accounts (cda_uuid, cda_name, cda_account_type, cda_collapsed, cda_server_type)
+            SELECT 'account' || (i - 1), 'Account ' || i, CASE i WHEN 1 THEN 0 ELSE 7 END, 0, 0 FROM n
+        """)
+        insert(LISTS, """
+            INSERT INTO caldav_lists (cdl_account, cdl_uuid, cdl_name, cdl_color, cdl_order, cdl_access, cdl_last_sync)
+            SELECT 'account' || (i % 2), 'list' || (i - 1), 'List ' || i, 0, i, 0, 0 FROM n
+        """)
+        insert(TAGS, "INSERT INTO tagdata (remoteId, name, td_order) SELECT 'tag' || i, 'Tag ' || i, i FROM n")
+        insert(PLACES, """
+            INSERT INTO places (uid, name, latitude, longitude, place_color, place_order)
+            SELECT 'place' || i, 'Place ' || i, i, i, 0, i FROM n
+        """)
+        insert(TASKS, """
+            INSERT INTO tasks (
+                _id, title, notes, importance, dueDate, hideUntil, created, modified, completed, deleted,
+                estimatedSeconds, elapsedSeconds, timerStart, notificationFlags, lastNotified, collapsed,
+                parent, remoteId
+            )
+            SELECT i, 'Task ' || i, 'Notes for task ' || i, i % 4,
+                   CASE WHEN i % 3 = 0 THEN $NOW + i * 60000 ELSE 0 END,
+                   CASE WHEN i % 7 = 0 THEN $NOW + i * 60000 ELSE 0 END,
+                   $NOW - i * 60000, $NOW - i * 1000,
+                   CASE WHEN i % 5 = 0 THEN $NOW - i * 1000 ELSE 0 END,
+                   CASE WHEN i % 50 = 0 THEN $NOW - i * 1000 ELSE 0 END,
+                   0, 0, CASE WHEN i % 1000 = 0 THEN $NOW ELSE 0 END, 0, 0, i % 20 = 0,
+                   CASE WHEN i % 10 > 0 THEN i - i % 10 ELSE 0 END, 'task' || i
+            FROM n
+        """)
+        insert(TASKS, """
+            INSERT INTO caldav_tasks (cd_task, cd_calendar, cd_remote_id, cd_object, cd_last_sync, cd_deleted, gt_moved, gt_remote_order)
+            SELECT i, 'list' || (i % $LISTS), 'remote' || i, 'task' || i || '.ics', 0, 0, 0, 0 FROM n
+        """)
+        insert(TASKS / 3, """
+            INSERT INTO tags (task, name, tag_uid, task_uid)
+            SELECT i * 3, 'Tag ' || (i % $TAGS + 1), 'tag' || (i % $TAGS + 1), 'task' || (i * 3) FROM n
+        """)
+        insert(TASKS / 4, "INSERT INTO alarms (task, time, type) SELECT i * 4, $NOW + i * 60000, i % 4 FROM n")
+        insert(TASKS / 20, """
+            INSERT INTO geofences (task, place, arrival, departure)
+            SELECT i * 20, 'place' || (i % $PLACES + 1), 1, 0 FROM n
+        """)
+        insert(TASKS / 100, """
+            INSERT INTO userActivity (remoteId, message, target_id, created_at)
+            SELECT 'comment' || i, 'Comment ' || i, 'task' || (i * 100), $NOW FROM n
+        """)
+        insert(TASKS / 500, """
+            INSERT INTO notification (task, timestamp, type) SELECT i * 500, $NOW, 0 FROM n
+        """)
+    }
+
+    private fun assertNoFailures(failures: List<String>) {
+        if (failures.isNotEmpty()) {
+            fail(failures.joinToString("\n"))
+        }
+    }
+
+    private data class Preferences(
+        override var sortMode: Int = SortHelper.SORT_AUTO,
+        override var groupMode: Int = SortHelper.GROUP_NONE,
+        override var completedMode: Int = SortHelper.SORT_COMPLETED,
+        override var subtaskMode: Int = SortHelper.SORT_MANUAL,
+        override var isManualSort: Boolean = false,
+        override var isAstridSort: Boolean = false,
+        override var sortAscending: Boolean = true,
+        override var groupAscending: Boolean = true,
+        override var completedAscending: Boolean = false,
+        override var subtaskAscending: Boolean = true,
+        override val showHidden: Boolean = false,
+        override val showCompleted: Boolean = false,
+        override val alwaysDisplayFullDate: Boolean = false,
+        override val showFullDescription: Boolean = false,
+        override var completedTasksAtBottom: Boolean = true,
+    ) : QueryPreferences
+
+    companion object {
+        private const val SCHEMA_DIR = "../data/schemas/org.tasks.data.db.Database"
+
+        /** Database version the query plans are checked against, bump with the schema */
+        private const val SCHEMA_VERSION = 94
+
+        private const val TABLE_NAME = "\${TABLE_NAME}"
+        private const val RECURSIVE_TASKS = "recursive_tasks"
+        private const val TEMP_B_TREE = "USE TEMP B-TREE FOR "
+        private const val NOW = 1_735_689_600_000L
+        private const val TASKS = 100_000
+        private const val LISTS = 20
+        private const val TAGS = 50
+        private const val PLACES = 10
+
+        /** Top level tasks with and without subtasks, completed, deleted, tagged and placed */
+        private val CHANGED = (1L..60L).toList()
+
+        /** Columns that place a row in the list */
+        private val ROW_COLUMNS = listOf(
+            "_id", "title", "parent", "tags", "indent", "sort_group", "children", "primary_sort",
+            "secondary_sort", "parent_complete",
+        )
+
+        private val SCAN = Regex("SCAN (\\w+)(?: AS \\w+)?(?: LEFT-JOIN)?")
+
+        private val SORT_MODES = listOf(
+            SortHelper.SORT_AUTO,
+            SortHelper.SORT_ALPHA,
+            SortHelper.SORT_DUE,
+            SortHelper.SORT_IMPORTANCE,
+            SortHelper.SORT_MODIFIED,
+            SortHelper.SORT_CREATED,
+            SortHelper.SORT_START,
+            SortHelper.SORT_LIST,
+        )
+
+        private val GROUP_MODES = listOf(
+            SortHelper.GROUP_NONE,
+            SortHelper.SORT_DUE,
+            SortHelper.SORT_START,
+            SortHelper.SORT_IMPORTANCE,
+            SortHelper.SORT_MODIFIED,
+            SortHelper.SORT_CREATED,
+            SortHelper.SORT_LIST,
+        )
+
+        /** Recently modified lists every task, walking the rowid order is cheaper than an index */
+        private val ALLOWED_SCANS = mapOf(
+            RecentlyModifiedFilter::class.simpleName to setOf("tasks"),
+        )
+
+        /** Sorting the recursive CTE and the outer query both need temporary b-trees */
+        private val RECURSIVE = mapOf(
+            "ORDER BY" to 2,
+            "GROUP BY" to 2,
+            "group_concat(DISTINCT)" to 1,
+        )
+
+        private val FLAT = mapOf(
+            "ORDER BY" to 1,
+            "GROUP BY" to 1,
+            "group_concat(DISTINCT)" to 1,
+        )
+    }
+}
@@ -0,0 +1,84 @@
+package org.tasks.data.db
+
+import androidx.sqlite.SQLiteConnection
+import androidx.sqlite.SQLiteDriver
+import androidx.sqlite.SQLiteStatement
+import androidx.sqlite.driver.bundled.BundledSQLiteDriver
+import androidx.sqlite.execSQL
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+
+class CachingSQLiteDriverTest {
+    private val prepared = ArrayList<String>()
+    private lateinit var connection: SQLiteConnection
+
+    @Before
+    fun setUp() {
+        val driver = BundledSQLiteDriver()
+        val counting = object : SQLiteDriver by driver {
+            override fun open(fileName: String): SQLiteConnection {
+                val connection = driver.open(fileName)
+                return object : SQLiteConnection by connection {
+                    override fun prepare(sql: String): SQLiteStatement {
+                        prepared.add(sql)
+                        return connection.prepare(sql)
+                    }
+                }
+            }
+        }
+        connection = CachingSQLiteDriver(counting, size = 2).open(":memory:")
+        connection.execSQL("CREATE TABLE tasks (_id INTEGER PRIMARY KEY, dueDate INTEGER)")
+        connection.execSQL("INSERT INTO tasks (dueDate) VALUES (1), (2), (3)")
+        prepared.clear()
+    }
+
+    @After
+    fun tearDown() {
+        connection.close()
+    }
+
+    @Test
+    fun reuseStatement() {
+        assertEquals(2L, count(2))
+        assertEquals(3L, count(3))
+
+        assertEquals(listOf(COUNT), prepared)
+    }
+
+    @Test
+    fun prepareWhileInUse() {
+        connection.prepare(COUNT).use { outer ->
+            outer.bindLong(1, 2)
+            assertEquals(1L, count(1))
+            outer.step()
+            assertEquals(2L, outer.getLong(0))
+        }
+
+        assertEquals(listOf(COUNT, COUNT), prepared)
+    }
+
+    @Test
+    fun evictLeastRecentlyUsed() {
+        connection.prepare("SELECT 1").use { it.step() }
+        connection.prepare("SELECT 2").use { it.step() }
+        connection.prepare("SELECT 1").use { it.step() }
+        connection.prepare("SELECT 3").use { it.step() }
+        connection.prepare("SELECT 1").use { it.step() }
+        connection.prepare("SELECT 2").use { it.step() }
+
+        assertEquals(listOf("SELECT 1", "SELECT 2", "SELECT 3", "SELECT 2"), prepared)
+    }
+
+    private fun count(dueDate: Long): Long =
+        connection.prepare(COUNT).use {
+            it.bindLong(1, dueDate)
+            it.step()
+            it.getLong(0)
+        }
+
+    companion object {
+        private const val COUNT = "SELECT COUNT(*) FROM tasks WHERE dueDate <= ?"
+    }
+}
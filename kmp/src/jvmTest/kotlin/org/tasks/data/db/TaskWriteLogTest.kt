@@ -0,0 +1,58 @@
+package org.tasks.data.db
+
+import androidx.sqlite.SQLiteConnection
+import androidx.sqlite.driver.bundled.BundledSQLiteDriver
+import androidx.sqlite.execSQL
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+
+class TaskWriteLogTest {
+    private lateinit var connection: SQLiteConnection
+
+    @Before
+    fun setUp() {
+        connection = BundledSQLiteDriver().open(":memory:")
+        connection.execSQL("CREATE TABLE tasks (_id INTEGER PRIMARY KEY, title TEXT)")
+        TaskWriteLog.rebuild(connection)
+    }
+
+    @After
+    fun tearDown() {
+        connection.close()
+    }
+
+    @Test
+    fun countUnreportedWrites() {
+        connection.execSQL("INSERT INTO tasks (title) VALUES ('a'), ('b')")
+        connection.execSQL("UPDATE tasks SET title = 'c' WHERE _id = 1")
+        connection.execSQL("DELETE FROM tasks WHERE _id = 2")
+
+        assertEquals(4, unreported())
+    }
+
+    @Test
+    fun ignoreReportedWrites() {
+        connection.execSQL("UPDATE task_write_log SET reporting = 1")
+        connection.execSQL("INSERT INTO tasks (title) VALUES ('a')")
+        connection.execSQL("UPDATE task_write_log SET reporting = 0")
+
+        assertEquals(0, unreported())
+    }
+
+    @Test
+    fun rebuildResetsCount() {
+        connection.execSQL("INSERT INTO tasks (title) VALUES ('a')")
+
+        TaskWriteLog.rebuild(connection)
+
+        assertEquals(0, unreported())
+    }
+
+    private fun unreported(): Long =
+        connection.prepare("SELECT unreported FROM task_write_log").use {
+            it.step()
+            it.getLong(0)
+        }
+}
@@ -0,0 +1,189 @@
+package org.tasks.tasklist
+
+import com.todoroo.astrid.core.SortHelper
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.tasks.data.TaskContainer
+import org.tasks.data.entity.Task
+
+class SectionedDataSourceTest {
+    private val containers = HashMap<Long, TaskContainer>()
+
+    @Test
+    fun noHeaders() {
+        val dataSource = SectionedDataSource(tasks(0L to 1L, 0L to 2L))
+
+        assertEquals(listOf(task(1), task(2)), dataSource)
+        assertFalse(dataSource.isHeader(0))
+    }
+
+    @Test
+    fun groupTasks() {
+        val dataSource = grouped(1L to 1L, 1L to 2L, 2L to 3L, 3L to 4L, 3L to 5L)
+
+        assertEquals(
+            listOf(header(1), task(1), task(2), header(2), task(3), header(3), task(4), task(5)),
+            dataSource
+        )
+        assertEquals(5, dataSource.taskCount)
+        assertEquals(listOf(1L, 2L, 3L), dataSource.getSectionValues())
+    }
+
+    @Test
+    fun mapPositions() {
+        val dataSource = grouped(1L to 1L, 1L to 2L, 2L to 3L, 3L to 4L, 3L to 5L)
+
+        assertEquals(3L, dataSource.getItem(4).id)
+        assertEquals(AdapterSection(2, 2L, 3), dataSource.getSection(3))
+        assertEquals(2L, dataSource.getNearestHeader(4))
+        assertEquals(6, dataSource.indexOf(task(4)))
+        assertEquals(5, dataSource.lastIndexOf(header(3)))
+        assertEquals(-1, dataSource.indexOf(task(6)))
+    }
+
+    @Test
+    fun subList() {
+        val dataSource = grouped(1L to 1L, 1L to 2L, 2L to 3L)
+
+        assertEquals(listOf(task(2), header(2)), dataSource.subList(2, 4))
+    }
+
+    @Test
+    fun collapsedSection() {
+        val dataSource = grouped(1L to 1L, 2L to 2L, 2L to 3L, 3L to 4L, collapsed = setOf(2L))
+
+        assertEquals(
+            listOf(header(1), task(1), header(2, collapsed = true), header(3), task(4)),
+            dataSource
+        )
+        assertEquals(4L, dataSource.getItem(4).id)
+    }
+
+    @Test
+    fun addTaskToSection() {
+        val dataSource = grouped(1L to 1L, 2L to 2L)
+
+        dataSource.add(2, container(3, 1L))
+
+        assertEquals(listOf(header(1), task(1), task(3), header(2), task(2)), dataSource)
+        assertTrue(dataSource.isHeader(3))
+    }
+
+    @Test
+    fun removeLastTaskInSection() {
+        val dataSource = grouped(1L to 1L, 2L to 2L, 3L to 3L)
+
+        assertEquals(2L, dataSource.removeAt(3).id)
+
+        assertEquals(listOf(header(1), task(1), header(3), task(3)), dataSource)
+    }
+
+    @Test
+    fun moveTaskBetweenSections() {
+        val dataSource = grouped(1L to 1L, 1L to 2L, 2L to 3L)
+
+        dataSource.move(1, 4)
+
+        assertEquals(listOf(header(1), task(2), header(2), task(3), task(1)), dataSource)
+    }
+
+    @Test
+    fun moveSection() {
+        val dataSource = grouped(1L to 1L, 1L to 2L, 2L to 3L)
+
+        dataSource.moveSection(3, -1)
+
+        assertEquals(listOf(header(1), task(1), header(2), task(2), task(3)), dataSource)
+    }
+
+    @Test
+    fun matchesRebuiltList() {
+        val groups = (1..500).map { (it / 7).toLong() to it.toLong() }
+        val dataSource = grouped(*groups.toTypedArray())
+        val expected = grouped(*groups.filterNot { it.second % 3 == 0L }.toTypedArray())
+
+        groups.filter { it.second % 3 == 0L }.reversed().forEach {
+            dataSource.removeAt(dataSource.indexOf(task(it.second)))
+        }
+
+        assertEquals(expected, dataSource)
+        expected.indices.forEach {
+            assertEquals(expected.isHeader(it), dataSource.isHeader(it))
+            assertEquals(expected.getNearestHeader(it), dataSource.getNearestHeader(it))
+        }
+    }
+
+    @Test
+    fun updateTaskInPlace() {
+        val dataSource = grouped(1L to 1L, 1L to 2L, 2L to 3L)
+        val updated = TaskContainer(task = Task(id = 2, notes = "notes"), sortGroup = 1L)
+
+        val result = dataSource.update(listOf(2L), listOf(updated))!!
+
+        assertEquals(listOf(header(1), task(1), UiItem.Task(updated), header(2), task(3)), result)
+        assertEquals(listOf(header(1), task(1), task(2), header(2), task(3)), dataSource)
+    }
+
+    @Test
+    fun updateRemovesTaskThatLeftList() {
+        val dataSource = grouped(1L to 1L, 2L to 2L, 3L to 3L)
+
+        val result = dataSource.update(listOf(2L), emptyList())!!
+
+        assertEquals(listOf(header(1), task(1), header(3), task(3)), result)
+        assertTrue(result.isHeader(2))
+    }
+
+    @Test
+    fun updateIgnoresTasksNotInList() {
+        val dataSource = grouped(1L to 1L)
+
+        assertEquals(dataSource, dataSource.update(listOf(2L), emptyList()))
+    }
+
+    @Test
+    fun updateFallsBackWhenTaskMoves() {
+        val dataSource = grouped(1L to 1L, 2L to 2L)
+        val moved = TaskContainer(task = Task(id = 1), sortGroup = 2L)
+
+        assertNull(dataSource.update(listOf(1L), listOf(moved)))
+    }
+
+    @Test
+    fun updateFallsBackWhenTaskJoinsList() {
+        val dataSource = grouped(1L to 1L)
+
+        assertNull(dataSource.update(listOf(2L), listOf(container(2, 1L))))
+    }
+
+    @Test
+    fun updateFallsBackForTaskWithSubtasks() {
+        val parent = TaskContainer(task = Task(id = 1), sortGroup = 1L, children = 1)
+        val dataSource = SectionedDataSource(
+            tasks = listOf(parent),
+            groupMode = SortHelper.SORT_IMPORTANCE,
+        )
+
+        assertNull(dataSource.update(listOf(1L), emptyList()))
+    }
+
+    private fun grouped(vararg tasks: Pair<Long, Long>, collapsed: Set<Long> = emptySet()) =
+        SectionedDataSource(
+            tasks = tasks(*tasks),
+            groupMode = SortHelper.SORT_IMPORTANCE,
+            collapsed = collapsed,
+        )
+
+    private fun tasks(vararg tasks: Pair<Long, Long>) =
+        tasks.map { (group, id) -> container(id, group) }
+
+    private fun container(id: Long, group: Long) =
+        containers.getOrPut(id) { TaskContainer(task = Task(id = id), sortGroup = group) }
+
+    private fun task(id: Long) = UiItem.Task(container(id, 0))
+
+    private fun header(value: Long, collapsed: Boolean = false) = UiItem.Header(value, collapsed)
+}